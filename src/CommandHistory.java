@@ -0,0 +1,78 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.ArrayList;
+
+/**
+ * Historia zmian grafu: zmiany do cofnięcia i cofnięte zmiany do ponowienia, bez limitu.
+ * Cofnięcie i ponowienie kosztują tyle, co sama zmiana, bo zmiany pamiętają tylko to, co zmieniły.
+ */
+class CommandHistory {
+
+    private final ArrayList<ICommand> undoStack = new ArrayList<>();
+    private final ArrayList<ICommand> redoStack = new ArrayList<>();
+
+    /**
+     * wprowadza zmianę i zapamiętuje ją do cofnięcia
+     *
+     * @param command zmiana
+     */
+    void execute(ICommand command) {
+        command.execute();
+        add(command);
+    }
+
+    /**
+     * zapamiętuje do cofnięcia zmianę, która została już wprowadzona (np. przeciągnięcie przystanku myszką)
+     *
+     * @param command wprowadzona zmiana
+     */
+    void add(ICommand command) {
+        redoStack.clear();
+        if (!undoStack.isEmpty() && undoStack.get(undoStack.size() - 1).absorb(command)) return;
+        undoStack.add(command);
+    }
+
+    /**
+     * cofa ostatnią zmianę
+     *
+     * @return czy było co cofnąć
+     */
+    boolean undo() {
+        if (undoStack.isEmpty()) return false;
+        ICommand command = undoStack.remove(undoStack.size() - 1);
+        command.undo();
+        redoStack.add(command);
+        return true;
+    }
+
+    /**
+     * ponawia ostatnią cofniętą zmianę
+     *
+     * @return czy było co ponowić
+     */
+    boolean redo() {
+        if (redoStack.isEmpty()) return false;
+        ICommand command = redoStack.remove(redoStack.size() - 1);
+        command.execute();
+        undoStack.add(command);
+        return true;
+    }
+
+    boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * zapomina wszystkie zmiany (np. po wczytaniu innej sieci)
+     */
+    void clear() {
+        undoStack.clear();
+        redoStack.clear();
+    }
+}
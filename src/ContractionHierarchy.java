@@ -0,0 +1,747 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Hierarchia skrótów (contraction hierarchy) sieci - przygotowanie do wielu szybkich wyszukiwań tras przejeżdżających najmniej przystanków.
+ * Węzłami są przystanki i postoje linii (linia na danej pozycji trasy): z przystanku wsiada się do postoju linii, postój prowadzi do następnego postoju
+ * tej linii i pozwala wysiąść na swoim przystanku. Przejazd do następnego postoju ma długość STOP_LENGTH, wsiadanie BOARDING_LENGTH, a wysiadanie 0,
+ * więc najkrótsza trasa przejeżdża najmniej przystanków, a spośród takich ma najmniej przesiadek - tak jak w JourneyPlanner.
+ * Węzły są po kolei zwijane, od najmniej ważnych: zwinięty węzeł znika z sieci, a tam, gdzie jedyna najkrótsza trasa prowadziła przez niego,
+ * dochodzi skrót - połączenie o długości całej tej trasy. Z każdego węzła zostają połączenia do ważniejszych węzłów,
+ * więc wyszukiwanie (HierarchyPlanner) idzie od początku i od celu tylko w górę hierarchii i odwiedza ułamek sieci.
+ * W jednej rundzie zwijane są węzły, które ze sobą nie sąsiadują, więc ich skróty są wyznaczane równolegle, w kilku wątkach.
+ * Hierarchię można zapisać obok pliku sieci. Plik pamięta odcisk przystanków i tras linii, więc po zmianie sieci jest pomijany,
+ * a hierarchia w pamięci jest nieaktualna, gdy zmieni się struktura grafu. Hierarchia jest niezmienna i może z niej korzystać wiele wątków naraz.
+ */
+public final class ContractionHierarchy {
+
+    /**
+     * "GRCH" - pierwsze bajty pliku hierarchii
+     */
+    private static final int MAGIC = 0x47524348;
+
+    private static final int VERSION = 1;
+
+    /**
+     * długość przejazdu do następnego przystanku linii i wsiadania - wsiadań na trasie musi być mniej niż STOP_LENGTH,
+     * a trasa nie może mieć więcej niż Integer.MAX_VALUE / STOP_LENGTH przystanków
+     */
+    static final int STOP_LENGTH = 1 << 16;
+    static final int BOARDING_LENGTH = 1;
+
+    /**
+     * nagłówek pliku: MAGIC, VERSION, liczba węzłów, połączeń w górę, połączeń w dół, odcisk sieci (dwie liczby)
+     */
+    private static final int HEADER_SIZE = 7 * Integer.BYTES;
+
+    /**
+     * dopisywane do nazwy pliku sieci, żeby otrzymać nazwę pliku jej hierarchii
+     */
+    private static final String FILE_SUFFIX = ".ch";
+
+    /**
+     * ile najwyżej węzłów odwiedza szukanie trasy omijającej zwijany węzeł - jeśli jej nie znajdzie, skrót jest dodawany na wszelki wypadek
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 200;
+
+    /**
+     * to samo przy szacowaniu priorytetu węzła - szacunek może być zgrubny, a priorytety są przeliczane wiele razy
+     */
+    private static final int PRIORITY_SETTLE_LIMIT = 20;
+
+    /**
+     * ile węzłów naraz bierze wątek przy zadaniach równoległych
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    /**
+     * kopia grafu, z której zbudowano hierarchię (lub do której pasował plik) - numery przystanków są te same co w kopii,
+     * a postój linii line na pozycji position ma numer liczba przystanków + stopOffsets[line] + position
+     */
+    private final GraphSnapshot snapshot;
+
+    /**
+     * odcisk przystanków i tras linii kopii
+     */
+    private final long fingerprint;
+
+    /**
+     * kolejność zwinięcia węzła - im późniejsza, tym ważniejszy węzeł
+     */
+    final int[] ranks;
+
+    /**
+     * połączenia z węzła do ważniejszych: upTargets[upOffsets[node] ...] - cel, długość i węzeł, przez który prowadzi skrót
+     * (-1 dla połączenia, które nie jest skrótem)
+     */
+    final int[] upOffsets;
+    final int[] upTargets;
+    final int[] upLengths;
+    final int[] upMiddles;
+
+    /**
+     * połączenia do węzła od ważniejszych: downSources[downOffsets[node] ...] - początek, długość i węzeł pośredni skrótu
+     */
+    final int[] downOffsets;
+    final int[] downSources;
+    final int[] downLengths;
+    final int[] downMiddles;
+
+    private ContractionHierarchy(GraphSnapshot snapshot, long fingerprint, int[] ranks, int[] upOffsets, int[] upTargets, int[] upLengths, int[] upMiddles,
+                                 int[] downOffsets, int[] downSources, int[] downLengths, int[] downMiddles) {
+        this.snapshot = snapshot;
+        this.fingerprint = fingerprint;
+        this.ranks = ranks;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upLengths = upLengths;
+        this.upMiddles = upMiddles;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downLengths = downLengths;
+        this.downMiddles = downMiddles;
+    }
+
+    /**
+     * buduje hierarchię dla obecnego stanu grafu - w wątku, w którym zmieniany jest graf
+     *
+     * @param graph graf
+     * @return hierarchia
+     * @throws IOException gdy linia zatrzymuje się na przystanku spoza grafu
+     */
+    public static ContractionHierarchy build(Graph graph) throws IOException {
+        return build(graph.publish(), null);
+    }
+
+    /**
+     * Buduje hierarchię dla kopii grafu, zgłaszając postęp po każdej rundzie zwijania. Można ją budować w dowolnym wątku;
+     * skróty są wyznaczane w tylu wątkach, ile procesorów ma komputer.
+     *
+     * @param snapshot kopia grafu
+     * @param listener obiekt śledzący postęp, który może przerwać budowanie (lub null)
+     * @return hierarchia
+     * @throws InterruptedIOException gdy budowanie przerwano
+     */
+    static ContractionHierarchy build(GraphSnapshot snapshot, IProgressListener listener) throws InterruptedIOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Hierarchia skrótów");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return new Contraction(snapshot, pool, threads).run(listener);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @param networkFile plik sieci
+     * @return plik, w którym leży hierarchia tej sieci
+     */
+    public static File fileFor(File networkFile) {
+        return new File(networkFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * wczytuje hierarchię zapisaną dla obecnego stanu grafu - w wątku, w którym zmieniany jest graf
+     *
+     * @param file  plik hierarchii
+     * @param graph graf
+     * @return hierarchia (lub null, jeśli pliku nie ma albo zapisano go dla innej sieci)
+     * @throws IOException gdy nie udało się odczytać pliku lub plik jest uszkodzony
+     */
+    public static ContractionHierarchy read(File file, Graph graph) throws IOException {
+        return read(file, graph.publish());
+    }
+
+    /**
+     * wczytuje hierarchię zapisaną dla sieci takiej jak kopia grafu
+     *
+     * @param file     plik hierarchii
+     * @param snapshot kopia grafu
+     * @return hierarchia (lub null, jeśli pliku nie ma albo zapisano go dla innej sieci)
+     * @throws IOException gdy nie udało się odczytać pliku lub plik jest uszkodzony
+     */
+    static ContractionHierarchy read(File file, GraphSnapshot snapshot) throws IOException {
+        if (!file.isFile()) return null;
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Plik jest za duży");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Nieznany format pliku");
+        if (buffer.getInt(Integer.BYTES) != VERSION) throw new IOException("Nieobsługiwana wersja pliku: " + buffer.getInt(Integer.BYTES));
+        int nodeCount = buffer.getInt(2 * Integer.BYTES);
+        int upCount = buffer.getInt(3 * Integer.BYTES);
+        int downCount = buffer.getInt(4 * Integer.BYTES);
+        long fingerprint = buffer.getLong(5 * Integer.BYTES);
+        if (nodeCount < 0 || upCount < 0 || downCount < 0) throw new IOException("Uszkodzony nagłówek pliku");
+        if (nodeCount != nodeCount(snapshot) || fingerprint != fingerprint(snapshot)) return null;
+        long size = HEADER_SIZE + (long) Integer.BYTES * (3L * nodeCount + 2 + 3L * upCount + 3L * downCount);
+        if (buffer.limit() != size) throw new IOException("Plik jest ucięty");
+
+        buffer.position(HEADER_SIZE);
+        IntBuffer ints = buffer.asIntBuffer();
+        int[] ranks = ints(ints, nodeCount);
+        int[] upOffsets = ints(ints, nodeCount + 1);
+        int[] upTargets = ints(ints, upCount);
+        int[] upLengths = ints(ints, upCount);
+        int[] upMiddles = ints(ints, upCount);
+        int[] downOffsets = ints(ints, nodeCount + 1);
+        int[] downSources = ints(ints, downCount);
+        int[] downLengths = ints(ints, downCount);
+        int[] downMiddles = ints(ints, downCount);
+
+        boolean[] ranked = new boolean[nodeCount];
+        for (int rank : ranks) {
+            if (rank < 0 || rank >= nodeCount || ranked[rank]) throw new IOException("Uszkodzona kolejność węzłów");
+            ranked[rank] = true;
+        }
+        checkArcs(ranks, upOffsets, upTargets, upLengths, upMiddles);
+        checkArcs(ranks, downOffsets, downSources, downLengths, downMiddles);
+        return new ContractionHierarchy(snapshot, fingerprint, ranks, upOffsets, upTargets, upLengths, upMiddles, downOffsets, downSources, downLengths, downMiddles);
+    }
+
+    private static int[] ints(IntBuffer ints, int count) {
+        int[] result = new int[count];
+        ints.get(result);
+        return result;
+    }
+
+    /**
+     * sprawdza, czy połączenia prowadzą do ważniejszych węzłów, a skróty przez mniej ważne - inaczej wyszukiwanie i rozwijanie skrótów mogłyby się zapętlić
+     */
+    private static void checkArcs(int[] ranks, int[] offsets, int[] ends, int[] lengths, int[] middles) throws IOException {
+        int nodeCount = ranks.length;
+        if (offsets[0] != 0 || offsets[nodeCount] != ends.length) throw new IOException("Uszkodzona tablica początków");
+        for (int node = 0; node < nodeCount; ++node) {
+            if (offsets[node + 1] < offsets[node]) throw new IOException("Uszkodzona tablica początków");
+            for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+                int end = ends[i];
+                int middle = middles[i];
+                if (end < 0 || end >= nodeCount || ranks[end] <= ranks[node] || lengths[i] < 0
+                        || middle < -1 || middle >= nodeCount || (middle >= 0 && ranks[middle] >= ranks[node])) {
+                    throw new IOException("Uszkodzone połączenia hierarchii");
+                }
+            }
+        }
+    }
+
+    /**
+     * zapisuje hierarchię do pliku (zwykle fileFor(plik sieci)), przez plik tymczasowy obok, tak jak zapis sieci
+     *
+     * @param file plik
+     * @throws IOException gdy nie udało się zapisać pliku
+     */
+    public void write(File file) throws IOException {
+        int nodeCount = ranks.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES * (3 * nodeCount + 2 + 3 * upTargets.length + 3 * downSources.length));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(nodeCount).putInt(upTargets.length).putInt(downSources.length).putLong(fingerprint);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(ranks).put(upOffsets).put(upTargets).put(upLengths).put(upMiddles).put(downOffsets).put(downSources).put(downLengths).put(downMiddles);
+        buffer.position(0);
+        GraphFile.writeFile(buffer, file, null);
+    }
+
+    /**
+     * @return liczba węzłów hierarchii dla kopii grafu: przystanki i postoje wszystkich linii
+     */
+    static int nodeCount(GraphSnapshot snapshot) {
+        return snapshot.getStationCount() + snapshot.getStopCount();
+    }
+
+    /**
+     * @param snapshot kopia grafu
+     * @return odcisk przystanków i tras linii - taki sam dla każdej sieci z tymi samymi trasami, także po ponownym wczytaniu z pliku
+     */
+    static long fingerprint(GraphSnapshot snapshot) {
+        long hash = 0xCBF29CE484222325L;
+        hash = (hash ^ snapshot.getStationCount()) * 0x100000001B3L;
+        for (int offset : snapshot.stopOffsets) {
+            hash = (hash ^ offset) * 0x100000001B3L;
+        }
+        for (int stop : snapshot.stops) {
+            hash = (hash ^ stop) * 0x100000001B3L;
+        }
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * @param graph graf
+     * @return czy hierarchię zbudowano dla danego grafu i od tego czasu nie zmieniły się jego przystanki ani linie
+     */
+    public boolean isUpToDate(Graph graph) {
+        return snapshot.isStructureUpToDate(graph);
+    }
+
+    /**
+     * Hierarchia dla nowszej kopii grafu, jeśli zmiany nie dotknęły przystanków ani tras linii (np. zmieniono tylko rozkład lub kierunek linii).
+     *
+     * @param newSnapshot kopia grafu
+     * @return hierarchia z tymi samymi tablicami, wskazująca nową kopię (lub null, jeśli trzeba zbudować nową)
+     */
+    ContractionHierarchy forSnapshot(GraphSnapshot newSnapshot) {
+        if (newSnapshot == snapshot) return this;
+        if (nodeCount(newSnapshot) != ranks.length || fingerprint(newSnapshot) != fingerprint) return null;
+        return new ContractionHierarchy(newSnapshot, fingerprint, ranks, upOffsets, upTargets, upLengths, upMiddles, downOffsets, downSources, downLengths, downMiddles);
+    }
+
+    GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    int getNodeCount() {
+        return ranks.length;
+    }
+
+    /**
+     * @return liczba połączeń w hierarchii, razem ze skrótami
+     */
+    public int getArcCount() {
+        return upTargets.length + downSources.length;
+    }
+
+    /**
+     * @param from początek połączenia
+     * @param to   koniec połączenia
+     * @return węzeł, przez który prowadzi skrót (lub -1, jeśli połączenie nie jest skrótem)
+     * @throws IllegalArgumentException gdy w hierarchii nie ma takiego połączenia
+     */
+    int middleOf(int from, int to) {
+        if (ranks[from] < ranks[to]) {
+            for (int i = upOffsets[from]; i < upOffsets[from + 1]; ++i) {
+                if (upTargets[i] == to) return upMiddles[i];
+            }
+        } else {
+            for (int i = downOffsets[to]; i < downOffsets[to + 1]; ++i) {
+                if (downSources[i] == from) return downMiddles[i];
+            }
+        }
+        throw new IllegalArgumentException("Brak połączenia " + from + " -> " + to);
+    }
+
+    /**
+     * Zwijanie węzłów w rundach. Sieć jest trzymana jako zmieniające się listy połączeń wychodzących i wchodzących każdego węzła;
+     * listy zwiniętego węzła już się nie zmieniają i są jego połączeniami w górę i w dół hierarchii.
+     */
+    private static final class Contraction {
+
+        private final GraphSnapshot snapshot;
+        private final ExecutorService pool;
+        private final int nodeCount;
+
+        private final int[][] outTargets;
+        private final int[][] outLengths;
+        private final int[][] outMiddles;
+        private final int[] outCounts;
+        private final int[][] inSources;
+        private final int[][] inLengths;
+        private final int[][] inMiddles;
+        private final int[] inCounts;
+
+        /**
+         * węzły już zwinięte i zwijane w obecnej rundzie - szukanie tras omijających nie przechodzi przez żadne z nich
+         */
+        private final boolean[] contracted;
+        private final boolean[] selected;
+
+        /**
+         * priorytet węzła (zwijany jest przed sąsiadami o większym) i liczba jego zwiniętych już sąsiadów
+         */
+        private final int[] priorities;
+        private final int[] contractedNeighbours;
+        private final int[] ranks;
+
+        /**
+         * osobne wyszukiwanie dla każdego wątku
+         */
+        private final WitnessSearch[] searches;
+
+        Contraction(GraphSnapshot snapshot, ExecutorService pool, int threads) {
+            this.snapshot = snapshot;
+            this.pool = pool;
+            nodeCount = nodeCount(snapshot);
+            outTargets = new int[nodeCount][];
+            outLengths = new int[nodeCount][];
+            outMiddles = new int[nodeCount][];
+            outCounts = new int[nodeCount];
+            inSources = new int[nodeCount][];
+            inLengths = new int[nodeCount][];
+            inMiddles = new int[nodeCount][];
+            inCounts = new int[nodeCount];
+            contracted = new boolean[nodeCount];
+            selected = new boolean[nodeCount];
+            priorities = new int[nodeCount];
+            contractedNeighbours = new int[nodeCount];
+            ranks = new int[nodeCount];
+            searches = new WitnessSearch[threads];
+            for (int i = 0; i < threads; ++i) {
+                searches[i] = new WitnessSearch(nodeCount);
+            }
+            int[] noArcs = new int[0];
+            for (int node = 0; node < nodeCount; ++node) {
+                outTargets[node] = outLengths[node] = outMiddles[node] = noArcs;
+                inSources[node] = inLengths[node] = inMiddles[node] = noArcs;
+            }
+            int[] stopOffsets = snapshot.stopOffsets;
+            int[] stops = snapshot.stops;
+            int stationCount = snapshot.getStationCount();
+            for (int line = 0; line < snapshot.getLineCount(); ++line) {
+                for (int i = stopOffsets[line]; i < stopOffsets[line + 1]; ++i) {
+                    int stop = stationCount + i;
+                    if (i + 1 < stopOffsets[line + 1]) {
+                        addArc(stops[i], stop, BOARDING_LENGTH, -1);
+                        addArc(stop, stop + 1, STOP_LENGTH, -1);
+                    }
+                    if (i > stopOffsets[line]) {
+                        addArc(stop, stops[i], 0, -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run(IProgressListener listener) throws InterruptedIOException {
+            int[] remaining = new int[nodeCount];
+            for (int node = 0; node < nodeCount; ++node) {
+                remaining[node] = node;
+            }
+            int remainingCount = nodeCount;
+            int[] remainingNodes = remaining;
+            parallel(remainingCount, (search, i) -> priorities[remainingNodes[i]] = priority(search, remainingNodes[i]));
+
+            int[] round = new int[nodeCount];
+            int[][] shortcuts = new int[nodeCount][];
+            int[] dirty = new int[nodeCount];
+            boolean[] isDirty = new boolean[nodeCount];
+            int rank = 0;
+            while (remainingCount > 0) {
+                if (listener != null) listener.progress("Zwijanie sieci", rank, nodeCount);
+                int candidates = remainingCount;
+                int[] candidateNodes = remaining;
+                parallel(candidates, (search, i) -> selected[candidateNodes[i]] = isLocalMinimum(candidateNodes[i]));
+                int roundCount = 0;
+                int kept = 0;
+                for (int i = 0; i < remainingCount; ++i) {
+                    int node = remaining[i];
+                    if (selected[node]) round[roundCount++] = node;
+                    else remaining[kept++] = node;
+                }
+                remainingCount = kept;
+
+                int[] roundNodes = round;
+                parallel(roundCount, (search, i) -> shortcuts[i] = search.shortcuts(this, roundNodes[i], true, WITNESS_SETTLE_LIMIT));
+                int dirtyCount = 0;
+                for (int i = 0; i < roundCount; ++i) {
+                    int node = round[i];
+                    ranks[node] = rank++;
+                    contracted[node] = true;
+                    selected[node] = false;
+                    for (int j = 0; j < outCounts[node]; ++j) {
+                        int target = outTargets[node][j];
+                        removeIn(target, node);
+                        ++contractedNeighbours[target];
+                        if (!isDirty[target]) {
+                            isDirty[target] = true;
+                            dirty[dirtyCount++] = target;
+                        }
+                    }
+                    for (int j = 0; j < inCounts[node]; ++j) {
+                        int source = inSources[node][j];
+                        removeOut(source, node);
+                        ++contractedNeighbours[source];
+                        if (!isDirty[source]) {
+                            isDirty[source] = true;
+                            dirty[dirtyCount++] = source;
+                        }
+                    }
+                    int[] nodeShortcuts = shortcuts[i];
+                    for (int j = 0; j < nodeShortcuts.length; j += 3) {
+                        addArc(nodeShortcuts[j], nodeShortcuts[j + 1], nodeShortcuts[j + 2], node);
+                    }
+                    shortcuts[i] = null;
+                }
+                int[] dirtyNodes = dirty;
+                parallel(dirtyCount, (search, i) -> priorities[dirtyNodes[i]] = priority(search, dirtyNodes[i]));
+                for (int i = 0; i < dirtyCount; ++i) {
+                    isDirty[dirty[i]] = false;
+                }
+            }
+            return hierarchy();
+        }
+
+        /**
+         * im więcej skrótów doda zwinięcie węzła w stosunku do połączeń, które znikną, tym później zostanie zwinięty;
+         * zwinięci sąsiedzi rozkładają zwijanie równomiernie po sieci
+         */
+        private int priority(WitnessSearch search, int node) {
+            int[] shortcuts = search.shortcuts(this, node, false, PRIORITY_SETTLE_LIMIT);
+            return 2 * (shortcuts.length / 3) - outCounts[node] - inCounts[node] + contractedNeighbours[node];
+        }
+
+        /**
+         * @return czy węzeł ma mniejszy priorytet niż wszyscy jego sąsiedzi (przy równych rozstrzyga wymieszany numer), więc można go zwinąć w tej rundzie
+         */
+        private boolean isLocalMinimum(int node) {
+            for (int i = 0; i < outCounts[node]; ++i) {
+                if (!before(node, outTargets[node][i])) return false;
+            }
+            for (int i = 0; i < inCounts[node]; ++i) {
+                if (!before(node, inSources[node][i])) return false;
+            }
+            return true;
+        }
+
+        private boolean before(int node, int neighbour) {
+            if (priorities[node] != priorities[neighbour]) return priorities[node] < priorities[neighbour];
+            return Integer.compareUnsigned(mix(node), mix(neighbour)) < 0;
+        }
+
+        private static int mix(int value) {
+            int hash = value * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * wykonuje zadanie dla liczb od 0 do count - 1 we wszystkich wątkach, z osobnym wyszukiwaniem dla każdego wątku
+         */
+        private void parallel(int count, ObjIntConsumer<WitnessSearch> task) throws InterruptedIOException {
+            AtomicInteger next = new AtomicInteger();
+            ArrayList<Future<?>> futures = new ArrayList<>(searches.length);
+            for (WitnessSearch search : searches) {
+                futures.add(pool.submit(() -> {
+                    for (int start = next.getAndAdd(CHUNK_SIZE); start < count; start = next.getAndAdd(CHUNK_SIZE)) {
+                        for (int i = start; i < Math.min(count, start + CHUNK_SIZE); ++i) {
+                            task.accept(search, i);
+                        }
+                    }
+                }));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Przerwano");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        /**
+         * dodaje połączenie, a jeśli takie już jest - zostawia krótsze
+         */
+        private void addArc(int from, int to, int length, int middle) {
+            for (int i = 0; i < outCounts[from]; ++i) {
+                if (outTargets[from][i] != to) continue;
+                if (length < outLengths[from][i]) {
+                    outLengths[from][i] = length;
+                    outMiddles[from][i] = middle;
+                    for (int j = 0; j < inCounts[to]; ++j) {
+                        if (inSources[to][j] == from) {
+                            inLengths[to][j] = length;
+                            inMiddles[to][j] = middle;
+                        }
+                    }
+                }
+                return;
+            }
+            if (outCounts[from] == outTargets[from].length) {
+                int capacity = Math.max(4, 2 * outCounts[from]);
+                outTargets[from] = Arrays.copyOf(outTargets[from], capacity);
+                outLengths[from] = Arrays.copyOf(outLengths[from], capacity);
+                outMiddles[from] = Arrays.copyOf(outMiddles[from], capacity);
+            }
+            outTargets[from][outCounts[from]] = to;
+            outLengths[from][outCounts[from]] = length;
+            outMiddles[from][outCounts[from]++] = middle;
+            if (inCounts[to] == inSources[to].length) {
+                int capacity = Math.max(4, 2 * inCounts[to]);
+                inSources[to] = Arrays.copyOf(inSources[to], capacity);
+                inLengths[to] = Arrays.copyOf(inLengths[to], capacity);
+                inMiddles[to] = Arrays.copyOf(inMiddles[to], capacity);
+            }
+            inSources[to][inCounts[to]] = from;
+            inLengths[to][inCounts[to]] = length;
+            inMiddles[to][inCounts[to]++] = middle;
+        }
+
+        private void removeOut(int from, int to) {
+            int last = --outCounts[from];
+            for (int i = 0; i <= last; ++i) {
+                if (outTargets[from][i] == to) {
+                    outTargets[from][i] = outTargets[from][last];
+                    outLengths[from][i] = outLengths[from][last];
+                    outMiddles[from][i] = outMiddles[from][last];
+                    return;
+                }
+            }
+        }
+
+        private void removeIn(int to, int from) {
+            int last = --inCounts[to];
+            for (int i = 0; i <= last; ++i) {
+                if (inSources[to][i] == from) {
+                    inSources[to][i] = inSources[to][last];
+                    inLengths[to][i] = inLengths[to][last];
+                    inMiddles[to][i] = inMiddles[to][last];
+                    return;
+                }
+            }
+        }
+
+        /**
+         * składa listy zwiniętych węzłów w płaskie tablice hierarchii
+         */
+        private ContractionHierarchy hierarchy() {
+            int[] upOffsets = new int[nodeCount + 1];
+            int[] downOffsets = new int[nodeCount + 1];
+            for (int node = 0; node < nodeCount; ++node) {
+                upOffsets[node + 1] = upOffsets[node] + outCounts[node];
+                downOffsets[node + 1] = downOffsets[node] + inCounts[node];
+            }
+            int[] upTargets = new int[upOffsets[nodeCount]];
+            int[] upLengths = new int[upTargets.length];
+            int[] upMiddles = new int[upTargets.length];
+            int[] downSources = new int[downOffsets[nodeCount]];
+            int[] downLengths = new int[downSources.length];
+            int[] downMiddles = new int[downSources.length];
+            for (int node = 0; node < nodeCount; ++node) {
+                System.arraycopy(outTargets[node], 0, upTargets, upOffsets[node], outCounts[node]);
+                System.arraycopy(outLengths[node], 0, upLengths, upOffsets[node], outCounts[node]);
+                System.arraycopy(outMiddles[node], 0, upMiddles, upOffsets[node], outCounts[node]);
+                System.arraycopy(inSources[node], 0, downSources, downOffsets[node], inCounts[node]);
+                System.arraycopy(inLengths[node], 0, downLengths, downOffsets[node], inCounts[node]);
+                System.arraycopy(inMiddles[node], 0, downMiddles, downOffsets[node], inCounts[node]);
+            }
+            return new ContractionHierarchy(snapshot, fingerprint(snapshot), ranks, upOffsets, upTargets, upLengths, upMiddles,
+                    downOffsets, downSources, downLengths, downMiddles);
+        }
+    }
+
+    /**
+     * Szukanie trasy omijającej zwijany węzeł (świadka): ograniczony algorytm Dijkstry po niezwiniętych węzłach.
+     * Tablice robocze są czyszczone po każdym szukaniu tylko tam, gdzie zostały zmienione.
+     */
+    private static final class WitnessSearch {
+
+        private final int[] distances;
+        private final int[] touched;
+        private int touchedCount;
+
+        /**
+         * końce połączeń wychodzących zwijanego węzła są oznaczone numerem obecnego szukania - gdy wszystkie zostaną osiągnięte ostatecznie,
+         * szukanie się kończy
+         */
+        private final int[] targetMarks;
+        private int mark;
+
+        private final LongHeap heap = new LongHeap();
+
+        WitnessSearch(int nodeCount) {
+            distances = new int[nodeCount];
+            Arrays.fill(distances, Integer.MAX_VALUE);
+            touched = new int[nodeCount];
+            targetMarks = new int[nodeCount];
+        }
+
+        /**
+         * @param contraction stan zwijania
+         * @param node        węzeł
+         * @param skipRound   czy omijać też węzły zwijane w tej samej rundzie
+         * @param settleLimit ile najwyżej węzłów odwiedza jedno szukanie
+         * @return skróty potrzebne po zwinięciu węzła, po trzy liczby: początek, koniec, długość
+         */
+        int[] shortcuts(Contraction contraction, int node, boolean skipRound, int settleLimit) {
+            int[] result = null;
+            int resultSize = 0;
+            int outCount = contraction.outCounts[node];
+            int[] outTargets = contraction.outTargets[node];
+            int[] outLengths = contraction.outLengths[node];
+            for (int i = 0; i < contraction.inCounts[node]; ++i) {
+                int source = contraction.inSources[node][i];
+                int inLength = contraction.inLengths[node][i];
+                int maxOut = -1;
+                int targetCount = 0;
+                ++mark;
+                for (int j = 0; j < outCount; ++j) {
+                    if (outTargets[j] == source) continue;
+                    maxOut = Math.max(maxOut, outLengths[j]);
+                    targetMarks[outTargets[j]] = mark;
+                    ++targetCount;
+                }
+                if (maxOut < 0) continue;
+                search(contraction, source, node, inLength + maxOut, skipRound, targetCount, settleLimit);
+                for (int j = 0; j < outCount; ++j) {
+                    int target = outTargets[j];
+                    int length = inLength + outLengths[j];
+                    if (target == source || distances[target] <= length) continue;
+                    if (result == null) result = new int[12];
+                    else if (resultSize == result.length) result = Arrays.copyOf(result, 2 * resultSize);
+                    result[resultSize++] = source;
+                    result[resultSize++] = target;
+                    result[resultSize++] = length;
+                }
+                clear();
+            }
+            return result == null ? new int[0] : Arrays.copyOf(result, resultSize);
+        }
+
+        private void search(Contraction contraction, int source, int skipped, int maxDistance, boolean skipRound, int targetCount, int settleLimit) {
+            distances[source] = 0;
+            touched[touchedCount++] = source;
+            heap.push(LongHeap.entry(0, source));
+            int settled = 0;
+            while (!heap.isEmpty() && settled < settleLimit) {
+                long top = heap.pop();
+                int node = LongHeap.nodeOf(top);
+                int distance = LongHeap.distanceOf(top);
+                if (distance > distances[node]) continue;
+                if (distance > maxDistance) break;
+                ++settled;
+                if (targetMarks[node] == mark && --targetCount == 0) break;
+                int[] targets = contraction.outTargets[node];
+                int[] lengths = contraction.outLengths[node];
+                for (int i = 0; i < contraction.outCounts[node]; ++i) {
+                    int target = targets[i];
+                    if (target == skipped || contraction.contracted[target] || (skipRound && contraction.selected[target])) continue;
+                    int candidate = distance + lengths[i];
+                    if (candidate < distances[target] && candidate <= maxDistance) {
+                        if (distances[target] == Integer.MAX_VALUE) touched[touchedCount++] = target;
+                        distances[target] = candidate;
+                        heap.push(LongHeap.entry(candidate, target));
+                    }
+                }
+            }
+        }
+
+        private void clear() {
+            for (int i = 0; i < touchedCount; ++i) {
+                distances[touched[i]] = Integer.MAX_VALUE;
+            }
+            touchedCount = 0;
+            heap.clear();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Odczytuje plik CSV z nagłówkiem wiersz po wierszu, bez wczytywania całego pliku.
+ * Obsługuje pola w cudzysłowach (także z przecinkami, cudzysłowami "" i końcami linii w środku) oraz znak BOM na początku pliku.
+ */
+class CsvReader implements Closeable {
+
+    private final Reader reader;
+    private final char[] buffer = new char[1 << 16];
+    private int position;
+    private int limit;
+
+    /**
+     * numery kolumn według nazw z nagłówka
+     */
+    private final HashMap<String, Integer> columns = new HashMap<>();
+
+    /**
+     * pola obecnego wiersza
+     */
+    private final ArrayList<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+
+    /**
+     * @param reader źródło znaków, zamykane razem z CsvReader
+     * @throws IOException gdy nie udało się odczytać nagłówka
+     */
+    CsvReader(Reader reader) throws IOException {
+        this.reader = reader;
+        if (next()) {
+            for (int i = 0; i < fields.size(); ++i) {
+                String name = fields.get(i).trim();
+                if (i == 0 && !name.isEmpty() && name.charAt(0) == '\uFEFF') name = name.substring(1).trim(); //znak BOM
+                columns.put(name, i);
+            }
+        }
+    }
+
+    /**
+     * @param name nazwa kolumny
+     * @return numer kolumny (lub -1, jeśli nie ma takiej kolumny)
+     */
+    int column(String name) {
+        Integer column = columns.get(name);
+        return column == null ? -1 : column;
+    }
+
+    /**
+     * odczytuje następny niepusty wiersz
+     *
+     * @return czy udało się odczytać wiersz (false na końcu pliku)
+     * @throws IOException gdy nie udało się odczytać pliku
+     */
+    boolean next() throws IOException {
+        do {
+            fields.clear();
+            if (!readRecord()) return false;
+        } while (fields.size() == 1 && fields.get(0).isEmpty());
+        return true;
+    }
+
+    /**
+     * @param column numer kolumny
+     * @return pole obecnego wiersza w danej kolumnie (pusty napis, jeśli kolumny nie ma lub wiersz jest krótszy)
+     */
+    String get(int column) {
+        if (column < 0 || column >= fields.size()) return "";
+        return fields.get(column);
+    }
+
+    /**
+     * @return czy odczytano wiersz (false, jeśli od razu był koniec pliku)
+     */
+    private boolean readRecord() throws IOException {
+        int c = read();
+        if (c < 0) return false;
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) throw new IOException("Niezamknięty cudzysłów w pliku CSV");
+                if (c == '"') {
+                    c = read();
+                    if (c == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c < 0 || c == '\n') {
+                endField();
+                return true;
+            } else if (c == '\r') {
+                //koniec linii \r\n, samo \r jest pomijane
+            } else if (c == ',') {
+                endField();
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private void endField() {
+        fields.add(field.toString());
+        field.setLength(0);
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
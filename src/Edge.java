@@ -4,6 +4,7 @@ Autor: Filip Przygoński
 
 import java.awt.*;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
@@ -13,29 +14,186 @@ import static java.lang.Math.sqrt;
  */
 public class Edge implements IMoving, Serializable {
 
+    private static final long serialVersionUID = -7711189306629969241L;
+
+    /**
+     * linie rysowania według grubości, tworzone raz dla każdej grubości
+     */
+    private static BasicStroke[] strokes = new BasicStroke[16];
+
+    /**
+     * kolor połączenia, którym jeżdżą tylko tramwaje
+     */
+    private static final Color TRAM_COLOR = new Color(0, 153, 255);
+
+    /**
+     * pusta tablica identyfikatorów, wspólna dla połączeń bez linii
+     */
+    private static final int[] NO_IDS = new int[0];
+
     private Vertex firstVertex;
     private Vertex secondVertex;
     private int width;
     private Color color;
 
+    /**
+     * Identyfikatory linii jadących tym połączeniem (nadawane przez graf), rosnąco, na początku tablicy - jest ich busLines + tramLines.
+     * Połączeniem jedzie zwykle kilka linii, więc krótka tablica zajmuje dużo mniej niż zbiór bitów o rozmiarze największego identyfikatora.
+     */
+    private transient int[] transportLineIds;
+
+    /**
+     * ile linii autobusowych jedzie tym połączeniem
+     */
+    private transient int busLines;
+
+    /**
+     * ile linii tramwajowych jedzie tym połączeniem
+     */
+    private transient int tramLines;
+
+    /**
+     * pozycja połączenia na liście połączeń grafu (nadawana przez graf) - pozwala usunąć je z listy bez przeszukiwania jej
+     */
+    private transient int index;
+
     public Edge(Vertex firstVertex, Vertex secondVertex, Color color) {
         this.firstVertex = firstVertex;
         this.secondVertex = secondVertex;
         this.width = 2;
         this.color = color;
+        this.transportLineIds = NO_IDS;
+    }
+
+    /**
+     * Zaznacza, że linia jedzie tym połączeniem - pogrubia krawędź i ustawia jej kolor.
+     * Linia przejeżdżająca połączeniem kilka razy jest liczona raz.
+     *
+     * @param transportLine linia transportu z nadanym identyfikatorem
+     */
+    public void addTransportLine(TransportLine transportLine) {
+        int id = transportLine.getId();
+        int count = busLines + tramLines;
+        int index = Arrays.binarySearch(transportLineIds, 0, count, id);
+        if (index >= 0) return;
+        if (isUsed()) {
+            width += 2;
+        }
+        index = -index - 1;
+        if (count == transportLineIds.length) {
+            transportLineIds = Arrays.copyOf(transportLineIds, Math.max(2, count + (count >> 1)));
+        }
+        System.arraycopy(transportLineIds, index, transportLineIds, index + 1, count - index);
+        transportLineIds[index] = id;
+        if (transportLine.getTransportType() == TransportLine.BUS) {
+            ++busLines;
+        } else {
+            ++tramLines;
+        }
+        updateColor();
+    }
+
+    /**
+     * Zaznacza, że linia przestała jechać tym połączeniem - zwęża krawędź i ustawia jej kolor.
+     *
+     * @param transportLine linia transportu z nadanym identyfikatorem
+     */
+    public void removeTransportLine(TransportLine transportLine) {
+        int count = busLines + tramLines;
+        int index = Arrays.binarySearch(transportLineIds, 0, count, transportLine.getId());
+        if (index < 0) return;
+        System.arraycopy(transportLineIds, index + 1, transportLineIds, index, count - index - 1);
+        if (transportLine.getTransportType() == TransportLine.BUS) {
+            --busLines;
+        } else {
+            --tramLines;
+        }
+        if (isUsed()) {
+            width -= 2;
+            updateColor();
+        }
+    }
+
+    /**
+     * Czyści informacje o liniach jadących połączeniem (po wczytaniu grafu z pliku).
+     */
+    void resetTransportLines() {
+        transportLineIds = NO_IDS;
+        busLines = 0;
+        tramLines = 0;
+        width = 2;
+    }
+
+    /**
+     * @param transportLine linia transportu z nadanym identyfikatorem
+     * @return czy dana linia jedzie tym połączeniem
+     */
+    public boolean containsTransportLine(TransportLine transportLine) {
+        return Arrays.binarySearch(transportLineIds, 0, busLines + tramLines, transportLine.getId()) >= 0;
+    }
+
+    /**
+     * @return czy jakakolwiek linia jedzie tym połączeniem
+     */
+    public boolean isUsed() {
+        return busLines + tramLines > 0;
+    }
+
+    /**
+     * ustawia kolor zależny od rodzajów transportu jadących tym połączeniem
+     */
+    private void updateColor() {
+        if (busLines > 0 && tramLines > 0) {
+            color = Color.GREEN;
+        } else if (busLines > 0) {
+            color = Color.ORANGE;
+        } else {
+            color = TRAM_COLOR;
+        }
     }
 
     /**
      * Rysuje krawędź.
      *
      * @param g obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param viewport widok, w którym rysowany jest graf
      */
-    public void draw(Graphics g) {
+    public void draw(Graphics g, Viewport viewport) {
+        draw(g, viewport, width, color);
+    }
+
+    /**
+     * Rysuje krawędź o danej grubości i kolorze (np. pogrubioną, gdy jest zaznaczona).
+     *
+     * @param g obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param viewport widok, w którym rysowany jest graf
+     * @param drawnWidth grubość rysowanej krawędzi w pikselach
+     * @param drawnColor kolor rysowanej krawędzi
+     */
+    public void draw(Graphics g, Viewport viewport, int drawnWidth, Color drawnColor) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(width));
-        g2d.drawLine(firstVertex.getX(), firstVertex.getY(), secondVertex.getX(), secondVertex.getY());
-        g2d.setStroke(new BasicStroke(1));
+        Stroke previousStroke = g2d.getStroke();
+        g2d.setColor(drawnColor);
+        g2d.setStroke(strokeOfWidth(drawnWidth));
+        g2d.drawLine(viewport.toScreenX(firstVertex.getX()), viewport.toScreenY(firstVertex.getY()), viewport.toScreenX(secondVertex.getX()), viewport.toScreenY(secondVertex.getY()));
+        g2d.setStroke(previousStroke);
+    }
+
+    /**
+     * @param width grubość linii w pikselach
+     * @return linia rysowania o danej grubości, ta sama przy każdym wywołaniu
+     */
+    static BasicStroke strokeOfWidth(int width) {
+        if (width < 0) width = 0;
+        if (width >= strokes.length) {
+            strokes = Arrays.copyOf(strokes, Math.max(width + 1, 2 * strokes.length));
+        }
+        BasicStroke stroke = strokes[width];
+        if (stroke == null) {
+            stroke = new BasicStroke(width);
+            strokes[width] = stroke;
+        }
+        return stroke;
     }
 
     /**
@@ -51,16 +209,17 @@ public class Edge implements IMoving, Serializable {
     }
 
     /**
-     * Sprawdza, czy dane współrzędne są na krawędzi (wystarczająco blisko krawędzi, bo margines błędu).
-     * @param px współrzędna x punktu
-     * @param py współrzędna y punktu
+     * Sprawdza, czy dane współrzędne na ekranie są na krawędzi (wystarczająco blisko krawędzi, bo margines błędu).
+     * @param px współrzędna x punktu na ekranie
+     * @param py współrzędna y punktu na ekranie
+     * @param viewport widok, w którym rysowany jest graf
      * @return czy punkt jest na tej krawędzi
      */
-    public boolean isPointOnEdge(int px, int py) {
-        int x1 = firstVertex.getX();
-        int y1 = firstVertex.getY();
-        int x2 = secondVertex.getX();
-        int y2 = secondVertex.getY();
+    public boolean isPointOnEdge(int px, int py, Viewport viewport) {
+        int x1 = viewport.toScreenX(firstVertex.getX());
+        int y1 = viewport.toScreenY(firstVertex.getY());
+        int x2 = viewport.toScreenX(secondVertex.getX());
+        int y2 = viewport.toScreenY(secondVertex.getY());
         if (!((x1 < px && px < x2) || (x1 > px && px > x2))) {
             return false;
         } else if (!((y1 < py && py < y2) || (y1 > py && py > y2))) {
@@ -99,6 +258,29 @@ public class Edge implements IMoving, Serializable {
         this.width = width;
     }
 
+    int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return identyfikatory linii jadących tym połączeniem, rosnąco (kopia)
+     */
+    public int[] getTransportLineIds() {
+        return Arrays.copyOf(transportLineIds, busLines + tramLines);
+    }
+
+    public int getBusLines() {
+        return busLines;
+    }
+
+    public int getTramLines() {
+        return tramLines;
+    }
+
     public Color getColor() {
         return color;
     }
@@ -3,17 +3,75 @@ Autor: Filip Przygoński
 */
 
 import java.awt.*;
+import java.awt.geom.Line2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Klasa reprezentująca graf linii transportu miejskiego
  */
-public class Graph implements Serializable, IMoving {
+public class Graph implements Serializable {
 
     private static final long serialVersionUID = 5922347028700915406L;
 
+    /**
+     * poniżej tej skali widoku nazwy przystanków są ukryte, przystanki są pomniejszane,
+     * a przystanki i połączenia zlewające się w te same piksele rysowane są raz
+     */
+    private static final double DETAIL_MIN_SCALE = 0.5;
+
+    /**
+     * jak daleko w prawo od przystanku może sięgać jego nazwa, w pikselach
+     */
+    private static final int NAME_MARGIN = 200;
+
+    /**
+     * kolory połączeń, gdy jakaś linia jest wyróżniona: połączenia tej linii i wszystkie pozostałe
+     */
+    private static final Color HIGHLIGHTED_CONNECTION_COLOR = Color.RED;
+    private static final Color DIMMED_CONNECTION_COLOR = Color.GRAY;
+
+    /**
+     * kolejność przystanków: alfabetycznie według nazwy
+     */
+    private static final Comparator<Vertex> STATION_ORDER = (station1, station2) -> {
+        String name1 = station1.getName();
+        String name2 = station2.getName();
+        return name1.compareTo(name2);
+    };
+
+    /**
+     * kolejność linii transportu: najpierw linie z numerem zaczynającym się od cyfr, według liczby z tych cyfr (np. 2, 10, 10A, 145),
+     * potem pozostałe (np. N, T), dalej według reszty numeru, całego numeru i kierunku;
+     * klucze sortowania są wyliczane w linii raz, a nie przy każdym porównaniu
+     */
+    private static final Comparator<TransportLine> TRANSPORT_LINE_ORDER = (transportLine1, transportLine2) -> {
+        long value1 = transportLine1.getLineNumberValue();
+        long value2 = transportLine2.getLineNumberValue();
+        if (value1 != value2) {
+            if (value1 < 0) return 1;
+            if (value2 < 0) return -1;
+            return Long.compare(value1, value2);
+        }
+        int check = transportLine1.getLineNumberSuffix().compareTo(transportLine2.getLineNumberSuffix());
+        if (check != 0) return check;
+        check = transportLine1.getLineNumber().compareTo(transportLine2.getLineNumber()); //np. "05" i "5"
+        if (check != 0) return check;
+        return transportLine1.getDestination().compareTo(transportLine2.getDestination());
+    };
+
     /**
      * wszystkie stacje
      */
@@ -25,189 +83,1052 @@ public class Graph implements Serializable, IMoving {
     private ArrayList<TransportLine> transportLines;
 
     /**
-     * wszystkie połączenia między dwoma przystankami
+     * wszystkie połączenia między dwoma przystankami; miejsce usuniętego połączenia zajmuje ostatnie połączenie z listy
      */
     private ArrayList<Edge> connections;
 
+    /**
+     * przystanki według nazwy (jeśli kilka przystanków ma tę samą nazwę - pierwszy z nich na liście przystanków)
+     */
+    private transient HashMap<String, Vertex> stationsByName;
+
+    /**
+     * linie transportu według numeru i kierunku (jeśli kilka linii ma ten sam numer i kierunek - pierwsza z nich na liście linii)
+     */
+    private transient HashMap<LineKey, TransportLine> transportLinesByKey;
+
+    /**
+     * indeks połączeń według nieuporządkowanej pary przystanków, zawsze zgodny z listą connections
+     */
+    private transient HashMap<StationPair, Edge> connectionIndex;
+
+    /**
+     * linie transportu według nadanego im identyfikatora (null dla wolnych identyfikatorów)
+     */
+    private transient ArrayList<TransportLine> transportLinesById;
+
+    /**
+     * zajęte identyfikatory linii transportu
+     */
+    private transient BitSet usedTransportLineIds;
+
+    /**
+     * linie transportu zatrzymujące się na danym przystanku, każda raz (zwykle kilka linii, więc lista jest tańsza od zbioru)
+     */
+    private transient HashMap<Vertex, ArrayList<TransportLine>> transportLinesByStation;
+
+    /**
+     * połączenia wychodzące z danego przystanku
+     */
+    private transient HashMap<Vertex, ArrayList<Edge>> connectionsByStation;
+
+    /**
+     * indeks przestrzenny przystanków (według środków przystanków)
+     */
+    private transient SpatialGrid<Vertex> stationGrid;
+
+    /**
+     * największy promień przystanku, wyznacza jak daleko od kliknięcia szukać przystanków
+     */
+    private transient int maxStationRadius;
+
+    /**
+     * największa grubość połączenia, wyznacza jak daleko od kliknięcia szukać połączeń
+     */
+    private transient int maxConnectionWidth;
+
+    /**
+     * lista wielokrotnego użytku na wyniki zapytań do indeksów przestrzennych
+     */
+    private transient ArrayList<Vertex> stationCandidates;
+    private transient ArrayList<Edge> connectionCandidates;
+
+    /**
+     * piksele już narysowanych przystanków i połączeń przy dużym oddaleniu, czyszczone przy każdym rysowaniu
+     */
+    private transient LongHashSet drawnStations;
+    private transient LongHashSet drawnConnections;
+
+    /**
+     * grupy połączeń o tym samym kolorze i grubości, rysowane po kolei bez zmiany koloru i linii rysowania;
+     * grupy są czyszczone, ale zachowywane między rysowaniami
+     */
+    private transient ArrayList<ConnectionBatch> connectionBatches;
+
+    /**
+     * odcinek wielokrotnego użytku do rysowania połączeń
+     */
+    private transient Line2D.Float segment;
+
+    /**
+     * indeks przestrzenny połączeń (według komórek, przez które przechodzą odcinki połączeń)
+     */
+    private transient SpatialGrid<Edge> connectionGrid;
+
+    /**
+     * aktualizuje indeksy przestrzenne, gdy przystanek zmieni położenie lub rozmiar
+     */
+    private transient IVertexListener stationListener;
+
+    /**
+     * obiekty powiadamiane o każdej zmianie grafu
+     */
+    private transient ArrayList<IGraphListener> listeners;
+
+    /**
+     * liczba niezakończonych wywołań beginBatch() - dopóki jest większa od zera, zmiany są tylko zbierane i wprowadzane razem w commit()
+     */
+    private transient int batchDepth;
+
+    /**
+     * przystanki i linie dodane i usunięte w trakcie paczki zmian, wprowadzane do grafu dopiero w commit()
+     */
+    private transient LinkedHashSet<Vertex> pendingStationAdditions;
+    private transient HashSet<Vertex> pendingStationRemovals;
+    private transient LinkedHashSet<TransportLine> pendingTransportLineAdditions;
+    private transient HashSet<TransportLine> pendingTransportLineRemovals;
+
+    /**
+     * licznik zmian listy przystanków lub linii, pozwala wykryć nieaktualne struktury zbudowane na podstawie grafu
+     */
+    private transient int structureVersion;
+
+    /**
+     * licznik wszystkich zmian grafu, także położenia i wyglądu przystanków i połączeń - pozwala wykryć nieaktualny obraz grafu
+     */
+    private transient int version;
+
+    /**
+     * ostatnia kopia grafu opublikowana przez publish() (lub null) - kopia jest robiona dopiero, gdy ktoś o nią poprosi,
+     * więc zmiany grafu nic nie kopiują, a kolejne prośby bez zmian grafu dostają tę samą kopię
+     */
+    private transient GraphSnapshot published;
+
     public Graph() {
-        this.stations = new ArrayList<>();
-        this.transportLines = new ArrayList<>();
-        this.connections = new ArrayList<>();
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
     }
 
     /**
-     * dodaje przystanek, jednocześnie sortując listę wszystkich przystanków alfabrtycznie
+     * Tworzy graf od razu ze wszystkich przystanków, linii i połączeń (np. wczytanych z pliku), budując indeksy jeden raz.
+     * Listy są przejmowane przez graf, a połączenia brakujące na trasach linii są dodawane.
+     *
+     * @param stations       przystanki
+     * @param transportLines linie transportu
+     * @param connections    połączenia między przystankami, w kolejności rysowania
+     */
+    Graph(ArrayList<Vertex> stations, ArrayList<TransportLine> transportLines, ArrayList<Edge> connections) {
+        this.stations = stations;
+        this.transportLines = transportLines;
+        this.connections = connections;
+        initTransientFields();
+        rebuildIndexes();
+    }
+
+    /**
+     * tworzy puste struktury pomocnicze, które nie są zapisywane razem z grafem, od razu w rozmiarze obecnych list
+     */
+    private void initTransientFields() {
+        stationsByName = new HashMap<>(mapCapacity(stations.size()));
+        transportLinesByKey = new HashMap<>(mapCapacity(transportLines.size()));
+        connectionIndex = new HashMap<>(mapCapacity(connections.size()));
+        transportLinesById = new ArrayList<>(transportLines.size());
+        usedTransportLineIds = new BitSet();
+        transportLinesByStation = new HashMap<>(mapCapacity(stations.size()));
+        connectionsByStation = new HashMap<>(mapCapacity(stations.size()));
+        stationGrid = new SpatialGrid<>();
+        connectionGrid = new SpatialGrid<>();
+        stationCandidates = new ArrayList<>();
+        connectionCandidates = new ArrayList<>();
+        drawnStations = new LongHashSet();
+        drawnConnections = new LongHashSet();
+        connectionBatches = new ArrayList<>();
+        segment = new Line2D.Float();
+        stationListener = new StationListener();
+        listeners = new ArrayList<>();
+        pendingStationAdditions = new LinkedHashSet<>();
+        pendingStationRemovals = new HashSet<>();
+        pendingTransportLineAdditions = new LinkedHashSet<>();
+        pendingTransportLineRemovals = new HashSet<>();
+    }
+
+    /**
+     * buduje wszystkie indeksy od nowa na podstawie list przystanków, linii i połączeń, sortując listy tylko jeśli nie są posortowane
+     */
+    private void rebuildIndexes() {
+        if (!isSorted(stations, STATION_ORDER)) {
+            stations.sort(STATION_ORDER);
+        }
+        if (!isSorted(transportLines, TRANSPORT_LINE_ORDER)) {
+            transportLines.sort(TRANSPORT_LINE_ORDER);
+        }
+        for (Vertex station : stations) {
+            station.setListener(stationListener);
+            stationsByName.putIfAbsent(station.getName(), station);
+        }
+        for (TransportLine transportLine : transportLines) {
+            transportLinesByKey.putIfAbsent(new LineKey(transportLine), transportLine);
+        }
+        for (int i = 0; i < connections.size(); ++i) {
+            Edge connection = connections.get(i);
+            Vertex station1 = connection.getFirstVertex();
+            Vertex station2 = connection.getSecondVertex();
+            connection.setIndex(i);
+            connection.resetTransportLines();
+            connectionIndex.put(new StationPair(station1, station2), connection);
+            connectionsByStation.computeIfAbsent(station1, key -> new ArrayList<>()).add(connection);
+            connectionsByStation.computeIfAbsent(station2, key -> new ArrayList<>()).add(connection);
+        }
+        int transportLineCount = transportLines.size();
+        usedTransportLineIds.set(0, transportLineCount);
+        for (int id = 0; id < transportLineCount; ++id) {
+            TransportLine transportLine = transportLines.get(id);
+            transportLine.setId(id);
+            transportLinesById.add(transportLine);
+            ArrayList<Vertex> stations = transportLine.getStations();
+            for (Vertex station : stations) {
+                addTransportLineAt(station, transportLine);
+            }
+            int size = stations.size();
+            for (int i = 0; i < size - 1; ++i) {
+                Edge connection = getConnection(stations.get(i), stations.get(i + 1));
+                if (connection == null) {
+                    connection = addConnection(stations.get(i), stations.get(i + 1));
+                }
+                connection.addTransportLine(transportLine);
+            }
+        }
+        rebuildSpatialIndex();
+    }
+
+    /**
+     * @param size liczba elementów
+     * @return pojemność HashMap, przy której dodanie tylu elementów nie powiększa tablicy
+     */
+    private static int mapCapacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * @param list       lista
+     * @param comparator porządek
+     * @return czy lista jest posortowana według danego porządku
+     */
+    private static <T> boolean isSorted(ArrayList<T> list, Comparator<? super T> comparator) {
+        int size = list.size();
+        for (int i = 1; i < size; ++i) {
+            if (comparator.compare(list.get(i - 1), list.get(i)) > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param list       lista posortowana według danego porządku
+     * @param element    element
+     * @param comparator porządek
+     * @return pierwsze miejsce na liście, na którym element nie jest mniejszy od danego
+     */
+    private static <T> int lowerBound(ArrayList<T> list, T element, Comparator<? super T> comparator) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(list.get(middle), element) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param list       lista posortowana według danego porządku
+     * @param element    element
+     * @param comparator porządek
+     * @return pierwsze miejsce na liście, na którym element jest większy od danego - tu wstawiony element zachowuje porządek listy
+     */
+    private static <T> int upperBound(ArrayList<T> list, T element, Comparator<? super T> comparator) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(list.get(middle), element) <= 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param list       lista posortowana według danego porządku
+     * @param element    element
+     * @param comparator porządek
+     * @return miejsce tego właśnie obiektu na liście (lub -1, jeśli go nie ma)
+     */
+    private static <T> int indexOf(ArrayList<T> list, T element, Comparator<? super T> comparator) {
+        int size = list.size();
+        for (int i = lowerBound(list, element, comparator); i < size && comparator.compare(list.get(i), element) == 0; ++i) {
+            if (list.get(i) == element) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param station przystanek
+     * @param name    nazwa, pod którą przystanek leży na liście przystanków (inna od obecnej tuż po zmianie nazwy)
+     * @return miejsce przystanku na liście przystanków (lub -1, jeśli go nie ma)
+     */
+    private int indexOfStation(Vertex station, String name) {
+        int low = 0;
+        int high = stations.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            Vertex middleStation = stations.get(middle);
+            if (middleStation != station && middleStation.getName().compareTo(name) < 0) low = middle + 1;
+            else high = middle;
+        }
+        for (int i = low; i < stations.size(); ++i) {
+            Vertex candidate = stations.get(i);
+            if (candidate == station) return i;
+            if (!candidate.getName().equals(name)) break;
+        }
+        return -1;
+    }
+
+    /**
+     * wstawia przystanek na listę przystanków w miejsce wyznaczone przez jego nazwę i zapisuje go w indeksie nazw
+     *
+     * @param station przystanek
+     */
+    private void insertStation(Vertex station) {
+        int index = upperBound(stations, station, STATION_ORDER);
+        stations.add(index, station);
+        stationsByName.putIfAbsent(station.getName(), station);
+    }
+
+    /**
+     * usuwa przystanek z listy przystanków i z indeksu nazw (zastępując go w indeksie innym przystankiem o tej samej nazwie, jeśli taki jest)
+     *
+     * @param index miejsce przystanku na liście
+     * @param name  nazwa, pod którą przystanek jest zapisany
+     */
+    private void removeStationAt(int index, String name) {
+        Vertex station = stations.remove(index);
+        if (stationsByName.get(name) != station) return;
+        if (index < stations.size() && stations.get(index).getName().equals(name)) {
+            stationsByName.put(name, stations.get(index));
+        } else {
+            stationsByName.remove(name);
+        }
+    }
+
+    /**
+     * dodaje przystanek w miejscu listy wszystkich przystanków wyznaczonym przez jego nazwę, tak że lista pozostaje posortowana alfabetycznie
      *
      * @param station
      */
     public void addStation(Vertex station) {
-        stations.add(station);
-        Comparator<Vertex> comparator = (station1, station2) -> {
-            String name1 = station1.getName();
-            String name2 = station2.getName();
-            return name1.compareTo(name2);
-        };
-        stations.sort(comparator);
+        if (batchDepth > 0) {
+            if (!pendingStationRemovals.remove(station)) pendingStationAdditions.add(station);
+            return;
+        }
+        insertStation(station);
+        linkStation(station);
+        structureChanged();
+        for (IGraphListener listener : listeners) {
+            listener.stationAdded(station);
+        }
     }
 
     /**
-     * usuwa stację, tylko gdy można ją usunąć (żadna linia nie przejeżdża przez stację)
+     * usuwa stację, tylko gdy można ją usunąć (żadna linia nie przejeżdża przez stację);
+     * w trakcie paczki zmian stacja jest usuwana dopiero w commit(), o ile wtedy żadna linia nie przejeżdża przez stację
      *
      * @param station stacja do usunięcia
-     * @return czy można usunąć stację (czy stacja została usunięta)
+     * @return czy można usunąć stację (czy stacja została usunięta; w trakcie paczki zmian zawsze true)
      */
     public boolean removeStation(Vertex station) {
-        for (Edge connection : connections) {
-            Vertex firstVertex = connection.getFirstVertex();
-            Vertex secondVertex = connection.getSecondVertex();
-            if (station == firstVertex)
-                return false;
-            else if (station == secondVertex)
-                return false;
-        }
-        stations.remove(station);
+        if (batchDepth > 0) {
+            if (!pendingStationAdditions.remove(station)) pendingStationRemovals.add(station);
+            return true;
+        }
+        if (transportLinesByStation.containsKey(station))
+            return false;
+        int index = indexOfStation(station, station.getName());
+        if (index >= 0) {
+            removeStationAt(index, station.getName());
+        }
+        unlinkStation(station);
+        structureChanged();
+        if (index >= 0) {
+            for (IGraphListener listener : listeners) {
+                listener.stationRemoved(station);
+            }
+        }
         return true;
     }
 
     /**
-     * dodaje nową linię transportu, jednocześnie sortuje listę linii transportu według numeru linii, oraz zaznacza linię na grafie odpowiednim kolorem
+     * dodaje nową linię transportu w miejscu listy linii wyznaczonym przez numer linii, oraz zaznacza linię na grafie odpowiednim kolorem;
+     * numeru, kierunku i trasy linii należącej do grafu nie można zmieniać - linię trzeba najpierw usunąć z grafu, a po zmianie dodać ponownie
      *
      * @param transportLine nowa linia transportu
      */
     public void addTransportLine(TransportLine transportLine) {
-        transportLines.add(transportLine);
-        Comparator<TransportLine> comparator = (transportLine1, transportLine2) -> {
-            String lineNumber1 = transportLine1.getLineNumber();
-            String lineNumber2 = transportLine2.getLineNumber();
-            int check = lineNumber1.compareTo(lineNumber2);
-            try {
-                int lineNumber1ToNumber = Integer.parseInt(lineNumber1);
-                int lineNumber2ToNumber = Integer.parseInt(lineNumber2);
-                check = Integer.compare(lineNumber1ToNumber, lineNumber2ToNumber);
-            } catch (Exception ignored) {
-            }
-            if (check != 0) return check;
-            else {
-                String destination1 = transportLine1.getDestination();
-                String destination2 = transportLine2.getDestination();
-                return destination1.compareTo(destination2);
-            }
-        };
-        transportLines.sort(comparator);
-        Color color;
-        byte transportType = transportLine.getTransportType();
-        if (transportType == TransportLine.BUS) {
-            color = Color.ORANGE;
-        } else {
-            color = new Color(0, 153, 255);
+        if (batchDepth > 0) {
+            if (!pendingTransportLineRemovals.remove(transportLine)) pendingTransportLineAdditions.add(transportLine);
+            return;
         }
+        transportLines.add(upperBound(transportLines, transportLine, TRANSPORT_LINE_ORDER), transportLine);
+        transportLinesByKey.putIfAbsent(new LineKey(transportLine), transportLine);
+        linkTransportLine(transportLine);
+        structureChanged();
+        for (IGraphListener listener : listeners) {
+            listener.transportLineAdded(transportLine);
+        }
+    }
+
+    /**
+     * usuwa daną linię transportu
+     *
+     * @param transportLine linia transportu do usunięcia
+     */
+    public void removeTransportLine(TransportLine transportLine) {
+        if (batchDepth > 0) {
+            if (!pendingTransportLineAdditions.remove(transportLine)) pendingTransportLineRemovals.add(transportLine);
+            return;
+        }
+        int index = indexOf(transportLines, transportLine, TRANSPORT_LINE_ORDER);
+        if (index < 0) return;
+        transportLines.remove(index);
+        LineKey key = new LineKey(transportLine);
+        if (transportLinesByKey.get(key) == transportLine) {
+            if (index < transportLines.size() && key.equals(new LineKey(transportLines.get(index)))) {
+                transportLinesByKey.put(key, transportLines.get(index));
+            } else {
+                transportLinesByKey.remove(key);
+            }
+        }
+        ArrayList<Edge> unusedConnections = new ArrayList<>();
+        unlinkTransportLine(transportLine, unusedConnections);
+        removeConnections(unusedConnections);
+        structureChanged();
+        for (IGraphListener listener : listeners) {
+            listener.transportLineRemoved(transportLine);
+        }
+    }
+
+    /**
+     * Zaczyna paczkę zmian: kolejne dodania i usunięcia przystanków i linii są tylko zbierane, a commit() wprowadza je wszystkie naraz -
+     * nowe przystanki i linie są sortowane raz i scalane z listami, usunięte znikają z list w jednym przejściu, a indeksy nazw są budowane raz.
+     * Paczki mogą być zagnieżdżone - zmiany są wprowadzane przy ostatnim commit().
+     * Do commit() graf nie zawiera zebranych zmian, a przemianowane przystanki mogą być nie na swoim miejscu listy.
+     */
+    public void beginBatch() {
+        ++batchDepth;
+    }
+
+    /**
+     * kończy paczkę zmian zaczętą przez beginBatch(), wprowadzając zebrane zmiany, jeśli to ostatnia niezakończona paczka;
+     * trwa liniowo względem wielkości grafu i przystanków na trasach zmienionych linii (plus sortowanie nowych przystanków i linii)
+     *
+     * @throws IllegalStateException gdy nie ma niezakończonej paczki zmian
+     */
+    public void commit() {
+        if (batchDepth == 0) throw new IllegalStateException("Nie zaczęto paczki zmian");
+        if (--batchDepth > 0) return;
+        if (!isSorted(stations, STATION_ORDER)) { //przystanki przemianowane w trakcie paczki
+            stations.sort(STATION_ORDER);
+        }
+        ArrayList<TransportLine> removedTransportLines = new ArrayList<>();
+        ArrayList<Vertex> addedStations = new ArrayList<>();
+        ArrayList<TransportLine> addedTransportLines = new ArrayList<>();
+        ArrayList<Vertex> removedStations = new ArrayList<>();
+        if (!pendingTransportLineRemovals.isEmpty()) {
+            HashSet<TransportLine> removed = new HashSet<>();
+            ArrayList<Edge> unusedConnections = new ArrayList<>();
+            for (TransportLine transportLine : pendingTransportLineRemovals) {
+                if (getTransportLineById(transportLine.getId()) != transportLine) continue; //linii nie ma w grafie
+                removed.add(transportLine);
+                removedTransportLines.add(transportLine);
+                unlinkTransportLine(transportLine, unusedConnections);
+            }
+            transportLines.removeIf(removed::contains);
+            removeConnections(unusedConnections);
+        }
+        if (!pendingStationAdditions.isEmpty()) {
+            addedStations.addAll(pendingStationAdditions);
+            addedStations.sort(STATION_ORDER);
+            mergeInto(stations, addedStations, STATION_ORDER);
+            for (Vertex station : addedStations) {
+                linkStation(station);
+            }
+        }
+        if (!pendingTransportLineAdditions.isEmpty()) {
+            addedTransportLines.addAll(pendingTransportLineAdditions);
+            addedTransportLines.sort(TRANSPORT_LINE_ORDER);
+            mergeInto(transportLines, addedTransportLines, TRANSPORT_LINE_ORDER);
+            for (TransportLine transportLine : addedTransportLines) {
+                linkTransportLine(transportLine);
+            }
+        }
+        if (!pendingStationRemovals.isEmpty()) { //po dodaniu nowych linii, bo przystanku, na którym zatrzymuje się linia, nie można usunąć
+            HashSet<Vertex> removed = new HashSet<>();
+            for (Vertex station : pendingStationRemovals) {
+                if (transportLinesByStation.containsKey(station) || indexOfStation(station, station.getName()) < 0) continue;
+                removed.add(station);
+                removedStations.add(station);
+                unlinkStation(station);
+            }
+            stations.removeIf(removed::contains);
+        }
+        pendingStationAdditions.clear();
+        pendingStationRemovals.clear();
+        pendingTransportLineAdditions.clear();
+        pendingTransportLineRemovals.clear();
+        stationsByName.clear();
+        for (Vertex station : stations) {
+            stationsByName.putIfAbsent(station.getName(), station);
+        }
+        transportLinesByKey.clear();
+        for (TransportLine transportLine : transportLines) {
+            transportLinesByKey.putIfAbsent(new LineKey(transportLine), transportLine);
+        }
+        structureChanged();
+        for (IGraphListener listener : listeners) { //w kolejności wprowadzania zmian, więc powtórzenie ich po kolei daje ten sam graf
+            for (TransportLine transportLine : removedTransportLines) listener.transportLineRemoved(transportLine);
+            for (Vertex station : addedStations) listener.stationAdded(station);
+            for (TransportLine transportLine : addedTransportLines) listener.transportLineAdded(transportLine);
+            for (Vertex station : removedStations) listener.stationRemoved(station);
+        }
+    }
+
+    /**
+     * dodaje wiele przystanków naraz, w jednej paczce zmian
+     *
+     * @param newStations nowe przystanki
+     */
+    public void addStations(Collection<Vertex> newStations) {
+        beginBatch();
+        for (Vertex station : newStations) {
+            addStation(station);
+        }
+        commit();
+    }
+
+    /**
+     * dodaje wiele linii transportu naraz, w jednej paczce zmian
+     *
+     * @param newTransportLines nowe linie transportu
+     */
+    public void addTransportLines(Collection<TransportLine> newTransportLines) {
+        beginBatch();
+        for (TransportLine transportLine : newTransportLines) {
+            addTransportLine(transportLine);
+        }
+        commit();
+    }
+
+    /**
+     * scala posortowane nowe elementy z posortowaną listą, od końca listy, bez dodatkowej tablicy;
+     * elementy równe w danym porządku trafiają za te, które już były na liście - tak jak przy dodawaniu po jednym
+     *
+     * @param list       lista posortowana według danego porządku
+     * @param added      nowe elementy, posortowane według danego porządku
+     * @param comparator porządek
+     */
+    private static <T> void mergeInto(ArrayList<T> list, ArrayList<T> added, Comparator<? super T> comparator) {
+        int i = list.size() - 1;
+        int j = added.size() - 1;
+        list.ensureCapacity(list.size() + added.size());
+        for (int k = 0; k <= j; ++k) {
+            list.add(null);
+        }
+        for (int target = list.size() - 1; j >= 0; --target) {
+            if (i >= 0 && comparator.compare(list.get(i), added.get(j)) > 0) {
+                list.set(target, list.get(i--));
+            } else {
+                list.set(target, added.get(j--));
+            }
+        }
+    }
+
+    /**
+     * podłącza przystanek już wstawiony na listę przystanków: nasłuchiwanie zmian i indeks przestrzenny
+     *
+     * @param station przystanek
+     */
+    private void linkStation(Vertex station) {
+        station.setListener(stationListener);
+        indexStation(station);
+    }
+
+    /**
+     * odłącza przystanek usunięty z listy przystanków
+     *
+     * @param station przystanek
+     */
+    private void unlinkStation(Vertex station) {
+        station.setListener(null);
+        stationGrid.remove(station);
+        connectionsByStation.remove(station);
+    }
+
+    /**
+     * podłącza linię już wstawioną na listę linii: identyfikator, indeks linii na przystankach i połączenia na trasie
+     *
+     * @param transportLine linia transportu
+     */
+    private void linkTransportLine(TransportLine transportLine) {
+        assignTransportLineId(transportLine);
         ArrayList<Vertex> stations = transportLine.getStations();
+        for (Vertex station : stations) {
+            addTransportLineAt(station, transportLine);
+        }
         int size = stations.size();
         for (int i = 0; i < size - 1; ++i) {
             Vertex station1 = stations.get(i);
             Vertex station2 = stations.get(i + 1);
-            boolean doAddConnection = true;
-            for (Edge connection : connections) {
-                Vertex firstVertex = connection.getFirstVertex();
-                Vertex secondVertex = connection.getSecondVertex();
-                boolean isAddedConnectionAlreadyInGraph = (firstVertex == station1 && secondVertex == station2) || (firstVertex == station2 && secondVertex == station1);
-                if (isAddedConnectionAlreadyInGraph) {
-                    doAddConnection = false;
-                    connection.setWidth(connection.getWidth() + 2);
-                    if (!connection.getColor().equals(color)) {
-                        connection.setColor(Color.GREEN);
-                    }
-                    break;
-                }
+            Edge connection = getConnection(station1, station2);
+            if (connection == null) {
+                connection = addConnection(station1, station2);
+            }
+            connection.addTransportLine(transportLine);
+            maxConnectionWidth = Math.max(maxConnectionWidth, connection.getWidth());
+        }
+    }
+
+    /**
+     * odłącza linię usuniętą z listy linii; połączenia, którymi nie jedzie już żadna linia, są usuwane z indeksów, ale nie z listy połączeń
+     *
+     * @param transportLine     linia transportu
+     * @param unusedConnections lista, do której dopisywane są połączenia, które przestały być używane (do usunięcia przez removeConnections)
+     */
+    private void unlinkTransportLine(TransportLine transportLine, ArrayList<Edge> unusedConnections) {
+        ArrayList<Vertex> stations = transportLine.getStations();
+        for (Vertex station : stations) {
+            ArrayList<TransportLine> stationTransportLines = transportLinesByStation.get(station);
+            if (stationTransportLines != null && stationTransportLines.remove(transportLine) && stationTransportLines.isEmpty()) {
+                transportLinesByStation.remove(station);
             }
-            if (doAddConnection) {
-                addConnection(station1, station2, color);
+        }
+        int size = stations.size();
+        for (int i = 0; i < size - 1; ++i) {
+            Edge connection = getConnection(stations.get(i), stations.get(i + 1));
+            if (connection == null) continue;
+            connection.removeTransportLine(transportLine);
+            if (!connection.isUsed()) {
+                unindexConnection(connection); //połączenie znika z indeksu par, więc kolejne przejazdy tą parą go nie znajdą
+                unusedConnections.add(connection);
             }
         }
+        releaseTransportLineId(transportLine);
     }
 
     /**
-     * usuwa daną linię transportu
+     * usuwa z listy połączeń połączenia odłączone już od indeksów, wstawiając na miejsce każdego z nich ostatnie połączenie z listy -
+     * czas zależy tylko od liczby usuwanych połączeń, nie od wielkości grafu
      *
-     * @param transportLine linia transportu do usunięcia
+     * @param unusedConnections połączenia do usunięcia
      */
-    public void removeTransportLine(TransportLine transportLine) {
-        //TODO pomyśleć czy dałoby się optymalniej
-        ArrayList<TransportLine> newTransportLines = new ArrayList<>();
-        for (TransportLine line : transportLines) {
-            if (line != transportLine) {
-                newTransportLines.add(line);
+    private void removeConnections(ArrayList<Edge> unusedConnections) {
+        for (Edge connection : unusedConnections) {
+            int index = connection.getIndex();
+            Edge last = connections.remove(connections.size() - 1);
+            if (last != connection) {
+                connections.set(index, last);
+                last.setIndex(index);
             }
         }
-        transportLines.clear();
-        connections.clear();
-        for (TransportLine line : newTransportLines) {
-            addTransportLine(line);
+    }
+
+    /**
+     * @param listener obiekt, który ma być powiadamiany o każdej zmianie grafu
+     */
+    public void addListener(IGraphListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener obiekt, który nie ma być już powiadamiany o zmianach grafu
+     */
+    public void removeListener(IGraphListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * powiadamia obiekty śledzące graf o zmianie przystanku
+     *
+     * @param station zmieniony przystanek
+     */
+    private void stationChanged(Vertex station) {
+        for (IGraphListener listener : listeners) {
+            listener.stationChanged(station);
+        }
+    }
+
+    /**
+     * zaznacza zmianę listy przystanków lub linii
+     */
+    private void structureChanged() {
+        ++structureVersion;
+        ++version;
+    }
+
+    /**
+     * zapisuje, że linia zatrzymuje się na przystanku (linia przejeżdżająca przez przystanek kilka razy jest zapisana raz)
+     *
+     * @param station       przystanek
+     * @param transportLine linia transportu
+     */
+    private void addTransportLineAt(Vertex station, TransportLine transportLine) {
+        ArrayList<TransportLine> stationTransportLines = transportLinesByStation.computeIfAbsent(station, key -> new ArrayList<>(4));
+        if (!stationTransportLines.contains(transportLine)) {
+            stationTransportLines.add(transportLine);
+        }
+    }
+
+    /**
+     * nadaje linii najmniejszy wolny identyfikator
+     *
+     * @param transportLine linia transportu
+     */
+    private void assignTransportLineId(TransportLine transportLine) {
+        int id = usedTransportLineIds.nextClearBit(0);
+        usedTransportLineIds.set(id);
+        if (id == transportLinesById.size()) {
+            transportLinesById.add(transportLine);
+        } else {
+            transportLinesById.set(id, transportLine);
         }
+        transportLine.setId(id);
     }
 
     /**
-     * dodaje nowe połączenie między przystankami
+     * zwalnia identyfikator usuniętej linii
+     *
+     * @param transportLine linia transportu
+     */
+    private void releaseTransportLineId(TransportLine transportLine) {
+        int id = transportLine.getId();
+        usedTransportLineIds.clear(id);
+        transportLinesById.set(id, null);
+        transportLine.setId(-1);
+    }
+
+    /**
+     * dodaje nowe, jeszcze nieużywane połączenie między przystankami
      *
      * @param station1 pierwszy przystanek
      * @param station2 drugi przystanek
-     * @param color    kolor połączenia, zależy od rodzaju transportu
+     * @return nowe połączenie
      */
-    private void addConnection(Vertex station1, Vertex station2, Color color) {
-        Edge newEdge = new Edge(station1, station2, color);
+    private Edge addConnection(Vertex station1, Vertex station2) {
+        Edge newEdge = new Edge(station1, station2, Color.GRAY);
+        newEdge.setIndex(connections.size());
         connections.add(newEdge);
+        connectionIndex.put(new StationPair(station1, station2), newEdge);
+        connectionsByStation.computeIfAbsent(station1, key -> new ArrayList<>()).add(newEdge);
+        connectionsByStation.computeIfAbsent(station2, key -> new ArrayList<>()).add(newEdge);
+        indexConnection(newEdge);
+        return newEdge;
+    }
+
+    /**
+     * usuwa nieużywane już połączenie z indeksów (ale nie z listy połączeń)
+     *
+     * @param connection połączenie
+     */
+    private void unindexConnection(Edge connection) {
+        Vertex station1 = connection.getFirstVertex();
+        Vertex station2 = connection.getSecondVertex();
+        connectionIndex.remove(new StationPair(station1, station2));
+        connectionsByStation.get(station1).remove(connection);
+        connectionsByStation.get(station2).remove(connection);
+        connectionGrid.remove(connection);
+    }
+
+    /**
+     * zapisuje przystanek w indeksie przestrzennym
+     *
+     * @param station przystanek
+     */
+    private void indexStation(Vertex station) {
+        int x = station.getX();
+        int y = station.getY();
+        stationGrid.put(station, x, y, x, y);
+        maxStationRadius = Math.max(maxStationRadius, station.getR());
     }
 
     /**
-     * rysuje cały graf
+     * zapisuje połączenie w indeksie przestrzennym
      *
-     * @param g obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param connection połączenie
      */
-    public void draw(Graphics g) {
+    private void indexConnection(Edge connection) {
+        Vertex firstVertex = connection.getFirstVertex();
+        Vertex secondVertex = connection.getSecondVertex();
+        connectionGrid.putSegment(connection, firstVertex.getX(), firstVertex.getY(), secondVertex.getX(), secondVertex.getY());
+        maxConnectionWidth = Math.max(maxConnectionWidth, connection.getWidth());
+    }
+
+    /**
+     * buduje od nowa indeksy przestrzenne wszystkich przystanków i połączeń
+     */
+    private void rebuildSpatialIndex() {
+        stationGrid.clear();
+        connectionGrid.clear();
+        for (Vertex station : stations) {
+            indexStation(station);
+        }
         for (Edge connection : connections) {
-            connection.draw(g);
+            indexConnection(connection);
         }
-        for (Vertex station : stations) {
-            station.draw(g);
+    }
+
+    /**
+     * zwraca połączenie między dwoma przystankami, niezależnie od kolejności przystanków
+     *
+     * @param station1 pierwszy przystanek
+     * @param station2 drugi przystanek
+     * @return połączenie między przystankami (lub null, jeśli takiego połączenia nie ma)
+     */
+    public Edge getConnection(Vertex station1, Vertex station2) {
+        return connectionIndex.get(new StationPair(station1, station2));
+    }
+
+    /**
+     * @param name nazwa przystanku
+     * @return przystanek o danej nazwie (lub null, jeśli takiego nie ma); jeśli kilka przystanków ma tę nazwę - pierwszy z nich na liście przystanków
+     */
+    public Vertex getStation(String name) {
+        return stationsByName.get(name);
+    }
+
+    /**
+     * @param lineNumber  numer linii
+     * @param destination kierunek
+     * @return linia transportu o danym numerze i kierunku (lub null, jeśli takiej nie ma)
+     */
+    public TransportLine getTransportLine(String lineNumber, String destination) {
+        return transportLinesByKey.get(new LineKey(lineNumber, destination));
+    }
+
+    /**
+     * zwraca linię transportu o danym identyfikatorze
+     *
+     * @param id identyfikator linii
+     * @return linia transportu (lub null, jeśli identyfikator jest wolny)
+     */
+    public TransportLine getTransportLineById(int id) {
+        if (id < 0 || id >= transportLinesById.size()) return null;
+        return transportLinesById.get(id);
+    }
+
+    /**
+     * zwraca linie jadące danym połączeniem, w kolejności listy wszystkich linii
+     *
+     * @param connection połączenie
+     * @return linie jadące połączeniem
+     */
+    public ArrayList<TransportLine> getTransportLinesUsing(Edge connection) {
+        ArrayList<TransportLine> result = new ArrayList<>();
+        for (int id : connection.getTransportLineIds()) {
+            result.add(transportLinesById.get(id));
         }
+        result.sort(TRANSPORT_LINE_ORDER);
+        return result;
     }
 
     /**
-     * przesuwa graf
+     * zwraca linie zatrzymujące się na danym przystanku, w kolejności listy wszystkich linii
      *
-     * @param dx o ile pikseli w prawo
-     * @param dy o ile pikseli w górę
+     * @param station przystanek
+     * @return linie zatrzymujące się na przystanku
      */
-    @Override
-    public void move(int dx, int dy) {
-        for (Vertex vertex : stations) {
-            vertex.move(dx, dy);
+    public ArrayList<TransportLine> getTransportLinesAt(Vertex station) {
+        ArrayList<TransportLine> stationTransportLines = transportLinesByStation.get(station);
+        if (stationTransportLines == null) return new ArrayList<>();
+        ArrayList<TransportLine> result = new ArrayList<>(stationTransportLines);
+        result.sort(TRANSPORT_LINE_ORDER);
+        return result;
+    }
+
+    /**
+     * @param station przystanek
+     * @return połączenia wychodzące z danego przystanku (tylko do odczytu)
+     */
+    public List<Edge> getConnectionsAt(Vertex station) {
+        ArrayList<Edge> stationConnections = connectionsByStation.get(station);
+        if (stationConnections == null) return Collections.emptyList();
+        return Collections.unmodifiableList(stationConnections);
+    }
+
+    /**
+     * @param station przystanek
+     * @return ile linii zatrzymuje się na danym przystanku
+     */
+    public int countTransportLinesAt(Vertex station) {
+        ArrayList<TransportLine> stationTransportLines = transportLinesByStation.get(station);
+        return stationTransportLines == null ? 0 : stationTransportLines.size();
+    }
+
+    /**
+     * odtwarza indeksy przystanków i połączeń oraz linie jadące każdym połączeniem po wczytaniu grafu z pliku
+     */
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        initTransientFields();
+        rebuildIndexes();
+    }
+
+    /**
+     * rysuje widoczną część grafu - tylko przystanki i połączenia z obszaru rysowania (g.getClipBounds()), znalezione w indeksach przestrzennych
+     *
+     * @param g        obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param viewport widok, w którym rysowany jest graf
+     */
+    public void draw(Graphics g, Viewport viewport) {
+        draw(g, viewport, Collections.emptySet(), null);
+    }
+
+    /**
+     * rysuje widoczną część grafu bez danych przystanków i połączeń wychodzących z nich (np. przeciąganych myszką, rysowanych osobno)
+     *
+     * @param g                      obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param viewport               widok, w którym rysowany jest graf
+     * @param hiddenStations         przystanki, których nie rysować
+     * @param highlightedConnections połączenia wyróżnionej linii, rysowane na czerwono, a pozostałe na szaro (null, jeśli nic nie jest wyróżnione)
+     */
+    public void draw(Graphics g, Viewport viewport, Set<Vertex> hiddenStations, Set<Edge> highlightedConnections) {
+        Rectangle clip = g.getClipBounds();
+        double scale = viewport.getScale();
+        boolean detailed = scale >= DETAIL_MIN_SCALE;
+        if (clip == null) {
+            stationCandidates.clear();
+            stationCandidates.addAll(stations);
+            connectionCandidates.clear();
+            connectionCandidates.addAll(connections);
+        } else {
+            int margin = maxStationRadius + (detailed ? NAME_MARGIN : 0);
+            int minX = (int) Math.floor(viewport.toWorldX(clip.x - margin));
+            int minY = (int) Math.floor(viewport.toWorldY(clip.y - margin));
+            int maxX = (int) Math.ceil(viewport.toWorldX(clip.x + clip.width + margin));
+            int maxY = (int) Math.ceil(viewport.toWorldY(clip.y + clip.height + margin));
+            connectionCandidates.clear();
+            connectionGrid.collect(minX, minY, maxX, maxY, connectionCandidates);
+            stationCandidates.clear();
+            stationGrid.collect(minX, minY, maxX, maxY, stationCandidates);
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        Stroke previousStroke = g2d.getStroke();
+        drawnConnections.clear();
+        boolean anyHidden = !hiddenStations.isEmpty();
+        for (Edge connection : connectionCandidates) {
+            if (anyHidden && (hiddenStations.contains(connection.getFirstVertex()) || hiddenStations.contains(connection.getSecondVertex()))) continue;
+            if (detailed || isFirstConnectionOnPixels(connection, viewport)) {
+                batchOf(colorOf(connection, highlightedConnections), connection.getWidth()).add(viewport.toScreenX(connection.getFirstVertex().getX()), viewport.toScreenY(connection.getFirstVertex().getY()),
+                        viewport.toScreenX(connection.getSecondVertex().getX()), viewport.toScreenY(connection.getSecondVertex().getY()));
+            }
+        }
+        for (ConnectionBatch batch : connectionBatches) {
+            batch.flush(g2d, segment);
+        }
+        g2d.setStroke(previousStroke);
+        drawnStations.clear();
+        for (Vertex station : stationCandidates) {
+            if (anyHidden && hiddenStations.contains(station)) continue;
+            if (detailed) {
+                station.draw(g, viewport);
+            } else {
+                long pixel = pixelKey(viewport.toScreenX(station.getX()), viewport.toScreenY(station.getY()));
+                if (pixel >= 0 && !drawnStations.add(pixel)) continue; //w tym pikselu już jest przystanek
+                int drawnR = (int) Math.max(1, Math.round(station.getR() * scale / DETAIL_MIN_SCALE));
+                station.draw(g, viewport, drawnR, false);
+            }
         }
     }
 
     /**
-     * metoda sprawdzająca, czy dane współrzędne punktu znajdują się na którymkolwiek wierzchołku
+     * @param connection             połączenie
+     * @param highlightedConnections połączenia wyróżnionej linii (null, jeśli nic nie jest wyróżnione)
+     * @return kolor, w jakim należy narysować połączenie
+     */
+    static Color colorOf(Edge connection, Set<Edge> highlightedConnections) {
+        if (highlightedConnections == null) return connection.getColor();
+        return highlightedConnections.contains(connection) ? HIGHLIGHTED_CONNECTION_COLOR : DIMMED_CONNECTION_COLOR;
+    }
+
+    /**
+     * @param color kolor połączeń
+     * @param width grubość połączeń
+     * @return grupa połączeń o danym kolorze i grubości (tworzona, jeśli jeszcze jej nie ma)
+     */
+    private ConnectionBatch batchOf(Color color, int width) {
+        for (ConnectionBatch batch : connectionBatches) {
+            if (batch.width == width && batch.color.equals(color)) return batch;
+        }
+        ConnectionBatch batch = new ConnectionBatch(color, width);
+        connectionBatches.add(batch);
+        return batch;
+    }
+
+    /**
+     * sprawdza, czy żadne wcześniej narysowane połączenie nie łączy tych samych pikseli (przy dużym oddaleniu wiele połączeń zlewa się w jedno)
+     *
+     * @param connection połączenie
+     * @param viewport   widok, w którym rysowany jest graf
+     * @return czy połączenie trzeba narysować
+     */
+    private boolean isFirstConnectionOnPixels(Edge connection, Viewport viewport) {
+        long pixel1 = pixelKey(viewport.toScreenX(connection.getFirstVertex().getX()), viewport.toScreenY(connection.getFirstVertex().getY()));
+        long pixel2 = pixelKey(viewport.toScreenX(connection.getSecondVertex().getX()), viewport.toScreenY(connection.getSecondVertex().getY()));
+        if (pixel1 == pixel2) return false; //połączenie krótsze niż piksel jest schowane pod przystankiem
+        if (pixel1 < 0 || pixel2 < 0) return true; //piksel daleko poza ekranem
+        return drawnConnections.add((Math.min(pixel1, pixel2) << 32) | Math.max(pixel1, pixel2));
+    }
+
+    /**
+     * @param screenX współrzędna x piksela
+     * @param screenY współrzędna y piksela
+     * @return liczba jednoznacznie opisująca piksel (lub -1, jeśli piksel leży daleko poza ekranem)
+     */
+    private static long pixelKey(int screenX, int screenY) {
+        if (screenX < 0 || screenX > Short.MAX_VALUE || screenY < 0 || screenY > Short.MAX_VALUE) return -1;
+        return ((long) screenX << 15) | screenY;
+    }
+
+    /**
+     * metoda sprawdzająca, czy dane współrzędne punktu na ekranie znajdują się na którymkolwiek wierzchołku
      *
-     * @param mx współrzędna x punktu
-     * @param my współrzędna y punktu
+     * @param mx       współrzędna x punktu na ekranie
+     * @param my       współrzędna y punktu na ekranie
+     * @param viewport widok, w którym rysowany jest graf
      * @return wierzchołek do którego należy dany punkt (lub null, jeśli punkt nie należy do żadnego wierzchołka)
      */
-    public Vertex returnVertexContainingAPoint(int mx, int my) {
-        for (Vertex vertex : stations) {
-            if (vertex.isPointInVertex(mx, my)) return vertex;
+    public Vertex returnVertexContainingAPoint(int mx, int my, Viewport viewport) {
+        double worldX = viewport.toWorldX(mx);
+        double worldY = viewport.toWorldY(my);
+        double radius = viewport.toWorldDistance(maxStationRadius + 1);
+        stationCandidates.clear();
+        stationGrid.collect((int) Math.floor(worldX - radius), (int) Math.floor(worldY - radius), (int) Math.ceil(worldX + radius), (int) Math.ceil(worldY + radius), stationCandidates);
+        for (Vertex vertex : stationCandidates) {
+            if (vertex.isPointInVertex(mx, my, viewport)) return vertex;
         }
         return null;
     }
 
     /**
-     * metoda sprawdzająca, czy dane współrzędne punktu znajdują się na którejkolwiek krawędzi
-     * @param mx współrzędna x punktu
-     * @param my współrzędna y punktu
+     * metoda sprawdzająca, czy dane współrzędne punktu na ekranie znajdują się na którejkolwiek krawędzi
+     * @param mx       współrzędna x punktu na ekranie
+     * @param my       współrzędna y punktu na ekranie
+     * @param viewport widok, w którym rysowany jest graf
      * @return krawędź do której należy dany punkt (lub null, jeśli punkt nie należy do żadnej krawędzi)
      */
-    public Edge returnEdgeContainingAPoint(int mx, int my) {
-        for (Edge edge : connections) {
-            if (edge.isPointOnEdge(mx, my)) return edge;
+    public Edge returnEdgeContainingAPoint(int mx, int my, Viewport viewport) {
+        double worldX = viewport.toWorldX(mx);
+        double worldY = viewport.toWorldY(my);
+        double margin = viewport.toWorldDistance(maxConnectionWidth + 1);
+        connectionCandidates.clear();
+        connectionGrid.collect((int) Math.floor(worldX - margin), (int) Math.floor(worldY - margin), (int) Math.ceil(worldX + margin), (int) Math.ceil(worldY + margin), connectionCandidates);
+        for (Edge edge : connectionCandidates) {
+            if (edge.isPointOnEdge(mx, my, viewport)) return edge;
         }
         return null;
     }
@@ -228,6 +1149,36 @@ public class Graph implements Serializable, IMoving {
         return stringBuilder.toString();
     }
 
+    /**
+     * @return licznik zmian listy przystanków lub linii
+     */
+    public int getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * @return licznik wszystkich zmian grafu
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Publikuje niezmienną kopię obecnego stanu grafu, wspólną dla wszystkich czytających - wywoływać w wątku, w którym zmieniany jest graf.
+     * Kopia jest robiona tylko wtedy, gdy graf zmienił się od ostatniej publikacji, więc kolejne wywołania bez zmian grafu nic nie kosztują.
+     * W trakcie paczki zmian kopia nie zawiera zebranych, jeszcze nie wprowadzonych zmian.
+     *
+     * @return opublikowana kopia obecnego stanu grafu
+     * @throws IOException gdy linia zatrzymuje się na przystanku spoza grafu
+     */
+    GraphSnapshot publish() throws IOException {
+        GraphSnapshot snapshot = published;
+        if (snapshot != null && snapshot.isUpToDate(this)) return snapshot;
+        snapshot = GraphSnapshot.of(this);
+        published = snapshot;
+        return snapshot;
+    }
+
     public ArrayList<Vertex> getStations() {
         return stations;
     }
@@ -239,4 +1190,157 @@ public class Graph implements Serializable, IMoving {
     public ArrayList<Edge> getConnections() {
         return connections;
     }
+
+    /**
+     * Przelicza indeksy przestrzenne przystanku i jego połączeń po zmianie przystanku, przenosi przemianowany przystanek na właściwe miejsce listy,
+     * zaznacza każdą zmianę w liczniku zmian grafu i powiadamia o niej obiekty śledzące graf.
+     */
+    private final class StationListener implements IVertexListener {
+
+        @Override
+        public void vertexMoved(Vertex vertex) {
+            ++version;
+            indexStation(vertex);
+            ArrayList<Edge> stationConnections = connectionsByStation.get(vertex);
+            if (stationConnections != null) {
+                for (Edge connection : stationConnections) {
+                    indexConnection(connection);
+                }
+            }
+            stationChanged(vertex);
+        }
+
+        @Override
+        public void vertexResized(Vertex vertex) {
+            ++version;
+            maxStationRadius = Math.max(maxStationRadius, vertex.getR());
+            stationChanged(vertex);
+        }
+
+        @Override
+        public void vertexRenamed(Vertex vertex, String oldName) {
+            if (batchDepth == 0) { //w trakcie paczki zmian commit() posortuje listę i zbuduje indeks nazw od nowa
+                int index = indexOfStation(vertex, oldName);
+                if (index >= 0) {
+                    removeStationAt(index, oldName);
+                    insertStation(vertex);
+                }
+            }
+            structureChanged();
+            stationChanged(vertex);
+        }
+
+        @Override
+        public void vertexRecolored(Vertex vertex) {
+            ++version;
+            stationChanged(vertex);
+        }
+    }
+
+    /**
+     * Połączenia o tym samym kolorze i grubości, zebrane do narysowania jako współrzędne końców na ekranie.
+     * Odcinki są rysowane pojedynczo, a nie jedną ścieżką Path2D, bo gruba linia wzdłuż długiej ścieżki z nakładającymi się odcinkami rysuje się wielokrotnie wolniej.
+     */
+    private static final class ConnectionBatch {
+
+        private final Color color;
+        private final int width;
+
+        /**
+         * kolejne czwórki x1, y1, x2, y2; tablica tylko rośnie
+         */
+        private int[] coordinates;
+        private int size;
+
+        ConnectionBatch(Color color, int width) {
+            this.color = color;
+            this.width = width;
+            this.coordinates = new int[64];
+        }
+
+        void add(int x1, int y1, int x2, int y2) {
+            if (size + 4 > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+            }
+            coordinates[size++] = x1;
+            coordinates[size++] = y1;
+            coordinates[size++] = x2;
+            coordinates[size++] = y2;
+        }
+
+        /**
+         * rysuje zebrane odcinki i czyści grupę
+         *
+         * @param g2d     obiekt klasy Graphics2D odpowiedzialny za rysowanie
+         * @param segment odcinek wielokrotnego użytku
+         */
+        void flush(Graphics2D g2d, Line2D.Float segment) {
+            if (size == 0) return;
+            g2d.setColor(color);
+            g2d.setStroke(Edge.strokeOfWidth(width));
+            for (int i = 0; i < size; i += 4) {
+                segment.setLine(coordinates[i], coordinates[i + 1], coordinates[i + 2], coordinates[i + 3]);
+                g2d.draw(segment);
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * Numer i kierunek linii, klucz indeksu linii.
+     */
+    private static final class LineKey {
+
+        private final String lineNumber;
+        private final String destination;
+
+        LineKey(String lineNumber, String destination) {
+            this.lineNumber = lineNumber;
+            this.destination = destination;
+        }
+
+        LineKey(TransportLine transportLine) {
+            this(transportLine.getLineNumber(), transportLine.getDestination());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof LineKey)) return false;
+            LineKey other = (LineKey) o;
+            return lineNumber.equals(other.lineNumber) && destination.equals(other.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * lineNumber.hashCode() + destination.hashCode();
+        }
+    }
+
+    /**
+     * Nieuporządkowana para przystanków, klucz indeksu połączeń.
+     */
+    private static final class StationPair {
+
+        private final Vertex station1;
+        private final Vertex station2;
+
+        StationPair(Vertex station1, Vertex station2) {
+            this.station1 = station1;
+            this.station2 = station2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StationPair)) return false;
+            StationPair other = (StationPair) o;
+            return (station1 == other.station1 && station2 == other.station2) || (station1 == other.station2 && station2 == other.station1);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(station1) + System.identityHashCode(station2);
+        }
+    }
 }
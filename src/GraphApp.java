@@ -5,14 +5,21 @@ Autor: Filip Przygoński
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.*;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Aplikacja pozwalająca działać na liniach komunikacji miejskiej, i je wyświetlać na mapie
  */
 public class GraphApp extends JFrame implements ActionListener {
 
-    //TODO spróbować zrobić znalezienie trasy z X do Y
     private static final String TITLE = "Mapa komunikacji miejskiej";
     private static final String AUTHOR = "Autor: Filip Przygoński, 248892, Grudzień 2019";
     private static final String HELP = "OPIS PROGRAMU\n" +
@@ -22,26 +29,53 @@ public class GraphApp extends JFrame implements ActionListener {
             "Użytkownik może dostosować nazwy, kolory, i rozmiary każdego przystanku do swoich potrzeb.\n" +
             "Żółty kolor połączenia oznacza że jedzie tędy autobus, niebieski - tramwaj, a zielony że oba środki transportu są dostępne. Im grubsza krawędź, tym więcej połączeń.\n" +
             "Program pozwala dodawać, edytować, usuwać przystanki, oraz dodawać, edytować, usuwać linie transportu publicznego między stworzonymi przystankami, oraz wyświetlać dodatkowe informacje o przystankach i liniach.\n" +
+            "Sieć można też zaimportować z rozkładu w formacie GTFS (katalog lub plik zip) - kursy jadące tą samą trasą tworzą jedną linię z rozkładem jazdy.\n" +
+            "Program wyszukuje też trasę między dwoma przystankami - przejeżdżającą najmniej przystanków, albo z najmniejszą liczbą przesiadek,\n" +
+            "a jeśli linie mają rozkłady jazdy - trasę, którą najwcześniej dojedzie się do celu, wyruszając o podanej godzinie.\n" +
+            "Dla dużych sieci można przygotować szybkie wyszukiwanie tras przejeżdżających najmniej przystanków (menu Linie komunikacji) - przy zapisie sieci\n" +
+            "jest ono zapisywane obok niej (plik z końcówką .ch) i wczytywane razem z nią, a po zmianie przystanków lub tras linii trzeba je przygotować od nowa.\n" +
+            "Zmiany w sieci są na bieżąco zapisywane w katalogu .mapa-komunikacji w katalogu domowym - jeśli program zostanie przerwany, przy następnym uruchomieniu można przywrócić sieć.\n" +
             "\n" +
             "Klawiszologia:\n" +
             "Strzałki - przesuwanie grafu, lub przystanku/połączenia jeśli zostało zaznaczone\n" +
             "Shift - przesuwa 10x szybciej\n" +
             "Delete - usuwa przystanek, jeśli takowy zaznaczono, i jeśli nie przejeżdżają przez niego żadne linie\n" +
             "Numpad '+' i Numpad '-' - jeśli zaznaczono przystanek, odpowiednio powiększają i pomniejszają przystanek\n" +
+            "Ctrl+Z i Ctrl+Y - cofa ostatnią zmianę sieci i ponawia cofniętą zmianę\n" +
             "\n" +
             "Przeciąganie myszką - przesuwanie grafu, lub przystanku/połączenia jeśli kursor na nim się znajduje\n" +
-            "Scroll myszką - zoom in/out względem lewego górnego rogu\n" +
+            "Scroll myszką - zoom in/out względem kursora\n" +
             "Kliknięcie LPM na przystanek/połączenie - zaznaczenie przystanku/połączenia\n" +
             "Kliknięcie PPM na przystanek - możliwość edycji/usunięcia danego przystanku, dodatkowe informacje o przystanku\n" +
             "Kliknięcie PPM na połączenie - dodatkowe informacje o połączeniu\n" +
             "Kliknięcie PPM na nic - tworzenie nowego przystanku";
 
+    /**
+     * skala paska postępu operacji na plikach
+     */
+    private static final int PROGRESS_MAX = 1000;
+
+    /**
+     * katalog autozapisu i co ile milisekund zapisywane są zmiany
+     */
+    private static final File AUTOSAVE_DIRECTORY = new File(System.getProperty("user.home"), ".mapa-komunikacji" + File.separator + "autosave");
+    private static final int AUTOSAVE_INTERVAL = 2000;
+
     GraphPanel graphPanel;
 
+    /**
+     * dziennik zmian obecnej sieci (lub null, jeśli autozapis nie działa)
+     */
+    private GraphJournal journal;
+    private final Timer autosave = new Timer(AUTOSAVE_INTERVAL, actionEvent -> flushJournal());
+
     JMenuItem menuNewGraph = new JMenuItem("Nowa sieć");
     JMenuItem menuExample = new JMenuItem("Przykład sieci");
     JMenuItem menuLoad = new JMenuItem("Wczytaj sieć");
     JMenuItem menuSave = new JMenuItem("Zapisz sieć");
+    JMenuItem menuImportGtfs = new JMenuItem("Importuj rozkład GTFS");
+    JMenuItem menuUndo = new JMenuItem("Cofnij");
+    JMenuItem menuRedo = new JMenuItem("Ponów");
     JMenuItem menuShowStations = new JMenuItem("Pokaż listę przystanków");
     JMenuItem menuShowTransportLineStations = new JMenuItem("Pokaż przystanki wybranej linii");
     JMenuItem menuNewTransportLine = new JMenuItem("Stwórz nową linię");
@@ -49,6 +83,8 @@ public class GraphApp extends JFrame implements ActionListener {
     JMenuItem menuHighlightTransportLine = new JMenuItem("Wyróżnij wybraną linię");
     JMenuItem menuDeleteTransportLine = new JMenuItem("Usuń wybraną linię");
     JMenuItem menuShowTransportLines = new JMenuItem("Pokaż listę linii");
+    JMenuItem menuFindJourney = new JMenuItem("Znajdź trasę");
+    JMenuItem menuBuildHierarchy = new JMenuItem("Przygotuj szybkie wyszukiwanie tras");
     JMenuItem menuHelp = new JMenuItem("Pomoc");
     JMenuItem menuAuthor = new JMenuItem("Autor");
 
@@ -61,11 +97,13 @@ public class GraphApp extends JFrame implements ActionListener {
         JMenuBar menuBar = new JMenuBar();
         setJMenuBar(menuBar);
         JMenu menuNetwork = new JMenu("Sieć komunikacji");
+        JMenu menuEdit = new JMenu("Edycja");
         JMenu menuStation = new JMenu("Przystanki");
         JMenu menuTransportLine = new JMenu("Linie komunikacji");
         JMenu menuInfo = new JMenu("Pomoc");
 
         menuBar.add(menuNetwork);
+        menuBar.add(menuEdit);
         menuBar.add(menuStation);
         menuBar.add(menuTransportLine);
         menuBar.add(menuInfo);
@@ -74,6 +112,11 @@ public class GraphApp extends JFrame implements ActionListener {
         menuNetwork.add(menuExample);
         menuNetwork.add(menuLoad);
         menuNetwork.add(menuSave);
+        menuNetwork.add(menuImportGtfs);
+        menuEdit.add(menuUndo);
+        menuEdit.add(menuRedo);
+        menuUndo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        menuRedo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
         menuStation.add(menuShowStations);
         menuStation.add(menuShowTransportLineStations);
         menuTransportLine.add(menuNewTransportLine);
@@ -81,6 +124,8 @@ public class GraphApp extends JFrame implements ActionListener {
         menuTransportLine.add(menuHighlightTransportLine);
         menuTransportLine.add(menuDeleteTransportLine);
         menuTransportLine.add(menuShowTransportLines);
+        menuTransportLine.add(menuFindJourney);
+        menuTransportLine.add(menuBuildHierarchy);
         menuInfo.add(menuHelp);
         menuInfo.add(menuAuthor);
 
@@ -88,6 +133,9 @@ public class GraphApp extends JFrame implements ActionListener {
         menuExample.addActionListener(this);
         menuLoad.addActionListener(this);
         menuSave.addActionListener(this);
+        menuImportGtfs.addActionListener(this);
+        menuUndo.addActionListener(this);
+        menuRedo.addActionListener(this);
         menuShowStations.addActionListener(this);
         menuNewTransportLine.addActionListener(this);
         menuEditTransportLine.addActionListener(this);
@@ -95,12 +143,128 @@ public class GraphApp extends JFrame implements ActionListener {
         menuHighlightTransportLine.addActionListener(this);
         menuDeleteTransportLine.addActionListener(this);
         menuShowTransportLines.addActionListener(this);
+        menuFindJourney.addActionListener(this);
+        menuBuildHierarchy.addActionListener(this);
         menuHelp.addActionListener(this);
         menuAuthor.addActionListener(this);
 
         graphPanel = new GraphPanel();
         setContentPane(graphPanel);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeJournal();
+            }
+        });
         setVisible(true);
+        openJournal();
+    }
+
+    /**
+     * otwiera dziennik zmian; jeśli poprzednia sesja została przerwana, proponuje przywrócenie jej sieci
+     */
+    private void openJournal() {
+        try {
+            journal = new GraphJournal(AUTOSAVE_DIRECTORY);
+        } catch (IOException ex) {
+            journal = null;
+            return;
+        }
+        if (journal.hasRecoverableSession() && JOptionPane.showConfirmDialog(this, "Poprzednia sesja nie została zamknięta poprawnie. Przywrócić sieć?",
+                "Przywracanie sieci", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+            recoverGraph();
+        } else {
+            showGraph(graphPanel.getGraph());
+        }
+    }
+
+    /**
+     * odtwarza w tle sieć z przerwanej sesji; jeśli się nie uda, pliki autozapisu zostają nietknięte, a autozapis jest wyłączany
+     */
+    private void recoverGraph() {
+        GraphJournal recovering = journal;
+        new FileTask<Graph>("Przywracanie sieci", "Wystąpił błąd podczas przywracania sieci") {
+            @Override
+            protected Graph doInBackground() throws IOException {
+                return recovering.recover(this);
+            }
+
+            @Override
+            void succeeded(Graph graph) {
+                showGraph(graph);
+            }
+
+            @Override
+            void failed(Throwable cause) {
+                super.failed(cause);
+                stopJournal();
+            }
+
+            @Override
+            void cancelled() {
+                stopJournal();
+            }
+        }.start();
+    }
+
+    /**
+     * pokazuje dany graf i zaczyna zapisywać jego zmiany w dzienniku
+     * @param graph graf
+     */
+    private void showGraph(Graph graph) {
+        graphPanel.setGraph(graph);
+        if (journal == null) return;
+        try {
+            journal.track(graph);
+            autosave.start();
+        } catch (IOException ex) {
+            autosaveFailed(ex);
+        }
+    }
+
+    /**
+     * przekazuje zmiany zebrane w dzienniku do zapisu
+     */
+    private void flushJournal() {
+        if (journal == null) return;
+        try {
+            journal.flush();
+        } catch (IOException ex) {
+            autosaveFailed(ex);
+        }
+    }
+
+    private void autosaveFailed(IOException cause) {
+        stopJournal();
+        JOptionPane.showMessageDialog(this, "Autozapis został wyłączony: " + cause.getMessage(), "Błąd", JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * wyłącza autozapis, zostawiając pliki autozapisu na dysku
+     */
+    private void stopJournal() {
+        autosave.stop();
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            //autozapis i tak jest wyłączany
+        }
+        journal = null;
+    }
+
+    /**
+     * przy zwykłym zamknięciu programu usuwa pliki autozapisu - sieci nie trzeba będzie przywracać
+     */
+    private void closeJournal() {
+        autosave.stop();
+        if (journal == null) return;
+        try {
+            journal.discard();
+        } catch (IOException ex) {
+            //program i tak jest zamykany
+        }
+        journal = null;
     }
 
     /**
@@ -117,32 +281,142 @@ public class GraphApp extends JFrame implements ActionListener {
     }
 
     /**
-     * wczytuje graf z pliku
+     *
+     * @return katalog lub plik zip z rozkładem GTFS wybrany przez użytkownika
+     */
+    private File chooseFeed() {
+        File file = null;
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            file = fileChooser.getSelectedFile();
+        }
+        return file;
+    }
+
+    /**
+     * tworzy w tle graf z rozkładu GTFS
+     * @param feed katalog lub plik zip z rozkładem
+     */
+    private void importGtfs(File feed) {
+        if (feed == null) return;
+        new FileTask<Graph>("Importowanie rozkładu " + feed.getName(), "Wystąpił błąd podczas importu rozkładu") {
+            @Override
+            protected Graph doInBackground() throws IOException {
+                return GtfsImporter.importFeed(feed, this);
+            }
+
+            @Override
+            void succeeded(Graph graph) {
+                showGraph(graph);
+            }
+
+            @Override
+            void failed(Throwable cause) {
+                JOptionPane.showMessageDialog(GraphApp.this, "Wystąpił błąd podczas importu rozkładu: " + cause.getMessage(), "Błąd", JOptionPane.ERROR_MESSAGE);
+            }
+        }.start();
+    }
+
+    /**
+     * wczytuje w tle graf z pliku, razem z hierarchią skrótów zapisaną obok, jeśli pasuje do sieci
      * @param file dany plik
      */
     private void loadGraphFromFile(File file) {
-        try {
-            ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(file));
-            Graph graph = (Graph) inputStream.readObject();
-            graphPanel.setGraph(graph);
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Wystąpił błąd podczas odczytu", "Błąd", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
+        if (file == null) return;
+        new FileTask<Graph>("Wczytywanie sieci z " + file.getName(), "Wystąpił błąd podczas odczytu") {
+            private ContractionHierarchy hierarchy;
+
+            @Override
+            protected Graph doInBackground() throws IOException {
+                Graph graph = GraphFile.read(file, this);
+                try {
+                    hierarchy = ContractionHierarchy.read(ContractionHierarchy.fileFor(file), graph);
+                } catch (InterruptedIOException ex) {
+                    throw ex;
+                } catch (IOException ex) {
+                    //bez hierarchii wyszukiwanie tras też działa, tylko wolniej
+                }
+                return graph;
+            }
+
+            @Override
+            void succeeded(Graph graph) {
+                showGraph(graph);
+                graphPanel.setHierarchy(hierarchy);
+            }
+        }.start();
     }
 
     /**
-     * zapisuje obecny graf do pliku
+     * zapisuje w tle kopię obecnego grafu do pliku - w trakcie zapisu graf można dalej edytować
      * @param file dany plik
      */
     private void saveGraphToFile(File file) {
+        if (file == null) return;
+        GraphSnapshot snapshot;
         try {
-            ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(file));
-            outputStream.writeObject(graphPanel.getGraph());
-        } catch (Exception ex) {
+            snapshot = graphPanel.getGraph().publish();
+        } catch (IOException ex) {
             JOptionPane.showMessageDialog(this, "Wystąpił błąd podczas zapisu", "Błąd", JOptionPane.ERROR_MESSAGE);
             return;
         }
+        ContractionHierarchy current = graphPanel.getHierarchy();
+        ContractionHierarchy hierarchy = current == null ? null : current.forSnapshot(snapshot);
+        new FileTask<Void>("Zapisywanie sieci do " + file.getName(), "Wystąpił błąd podczas zapisu") {
+            @Override
+            protected Void doInBackground() throws IOException {
+                GraphFile.write(snapshot, file, this);
+                //hierarchia zapisana obok pliku musi pasować do zapisanej sieci - nieaktualną lepiej usunąć, niż zostawić
+                File hierarchyFile = ContractionHierarchy.fileFor(file);
+                if (hierarchy != null) hierarchy.write(hierarchyFile);
+                else Files.deleteIfExists(hierarchyFile.toPath());
+                return null;
+            }
+
+            @Override
+            void succeeded(Void result) {
+            }
+        }.start();
+    }
+
+    /**
+     * buduje w tle hierarchię skrótów obecnej sieci, przyspieszającą wyszukiwanie tras przejeżdżających najmniej przystanków -
+     * w trakcie budowania graf można dalej edytować, ale jeśli zmienią się przystanki lub trasy linii, hierarchia nie będzie używana
+     */
+    private void buildHierarchy() {
+        Graph graph = graphPanel.getGraph();
+        GraphSnapshot snapshot;
+        try {
+            snapshot = graph.publish();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Wystąpił błąd podczas przygotowywania wyszukiwania: " + ex.getMessage(), "Błąd", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        new FileTask<ContractionHierarchy>("Przygotowywanie szybkiego wyszukiwania tras", "Wystąpił błąd podczas przygotowywania wyszukiwania") {
+            @Override
+            protected ContractionHierarchy doInBackground() throws IOException {
+                return ContractionHierarchy.build(snapshot, this);
+            }
+
+            @Override
+            void succeeded(ContractionHierarchy hierarchy) {
+                if (graphPanel.getGraph() == graph) graphPanel.setHierarchy(hierarchy);
+            }
+        }.start();
+    }
+
+    /**
+     * włącza lub wyłącza pozycje menu, które wczytują, zapisują lub podmieniają sieć
+     * @param enabled czy pozycje mają być włączone
+     */
+    private void setNetworkMenuEnabled(boolean enabled) {
+        menuNewGraph.setEnabled(enabled);
+        menuExample.setEnabled(enabled);
+        menuLoad.setEnabled(enabled);
+        menuSave.setEnabled(enabled);
+        menuImportGtfs.setEnabled(enabled);
+        menuBuildHierarchy.setEnabled(enabled);
     }
 
     @Override
@@ -150,7 +424,7 @@ public class GraphApp extends JFrame implements ActionListener {
         graphPanel.unhighlightTransportLine();
         Object sourceOfEvent = e.getSource();
         if (sourceOfEvent == menuNewGraph) {
-            graphPanel.setGraph(new Graph());
+            showGraph(new Graph());
         } else if (sourceOfEvent == menuExample) {
             File file = new File("example.bin");
             loadGraphFromFile(file);
@@ -160,6 +434,12 @@ public class GraphApp extends JFrame implements ActionListener {
         } else if (sourceOfEvent == menuSave) {
             File file = chooseFile();
             saveGraphToFile(file);
+        } else if (sourceOfEvent == menuImportGtfs) {
+            importGtfs(chooseFeed());
+        } else if (sourceOfEvent == menuUndo) {
+            graphPanel.undo();
+        } else if (sourceOfEvent == menuRedo) {
+            graphPanel.redo();
         } else if (sourceOfEvent == menuShowStations) {
             graphPanel.showStations();
         } else if (sourceOfEvent == menuShowTransportLineStations) {
@@ -174,6 +454,10 @@ public class GraphApp extends JFrame implements ActionListener {
             graphPanel.deleteTransportLine();
         } else if (sourceOfEvent == menuShowTransportLines) {
             graphPanel.showTransportLines();
+        } else if (sourceOfEvent == menuFindJourney) {
+            graphPanel.findJourney();
+        } else if (sourceOfEvent == menuBuildHierarchy) {
+            buildHierarchy();
         } else if (sourceOfEvent == menuHelp) {
             JOptionPane.showMessageDialog(this, HELP, "Pomoc", JOptionPane.INFORMATION_MESSAGE);
         } else if (sourceOfEvent == menuAuthor) {
@@ -181,6 +465,106 @@ public class GraphApp extends JFrame implements ActionListener {
         }
     }
 
+    /**
+     * Długa operacja na pliku (wczytanie, zapis lub import sieci, przygotowanie szybkiego wyszukiwania tras) wykonywana w tle, z oknem postępu, w którym można ją anulować.
+     * Dopóki operacja trwa, pozycje menu wczytujące, zapisujące i podmieniające sieć są wyłączone.
+     *
+     * @param <T> wynik operacji
+     */
+    private abstract class FileTask<T> extends SwingWorker<T, Void> implements IProgressListener {
+
+        private final String errorMessage;
+        private final ProgressMonitor monitor;
+
+        /**
+         * sprawdza, czy użytkownik anulował operację w oknie postępu (okno można sprawdzać tylko w wątku obsługi zdarzeń)
+         */
+        private final Timer cancelCheck;
+
+        /**
+         * opis obecnego etapu operacji, pokazywany w oknie postępu
+         */
+        private volatile String note = "";
+
+        /**
+         * @param message      opis operacji w oknie postępu
+         * @param errorMessage komunikat pokazywany, gdy operacja się nie uda
+         */
+        FileTask(String message, String errorMessage) {
+            this.errorMessage = errorMessage;
+            monitor = new ProgressMonitor(GraphApp.this, message, "", 0, PROGRESS_MAX);
+            cancelCheck = new Timer(100, actionEvent -> {
+                if (monitor.isCanceled()) cancel(true);
+            });
+            addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    monitor.setNote(note);
+                    monitor.setProgress((Integer) event.getNewValue());
+                }
+            });
+        }
+
+        /**
+         * uruchamia operację w tle
+         */
+        void start() {
+            setNetworkMenuEnabled(false);
+            cancelCheck.start();
+            execute();
+        }
+
+        @Override
+        public void progress(String note, long done, long total) throws InterruptedIOException {
+            if (isCancelled()) throw new InterruptedIOException("Anulowano");
+            this.note = note;
+            setProgress(total <= 0 ? 0 : (int) Math.min(PROGRESS_MAX, PROGRESS_MAX * done / total));
+        }
+
+        /**
+         * wywoływana w wątku obsługi zdarzeń, gdy operacja się uda
+         *
+         * @param result wynik operacji
+         */
+        abstract void succeeded(T result);
+
+        /**
+         * wywoływana w wątku obsługi zdarzeń, gdy operacja się nie uda (ale nie gdy została anulowana)
+         *
+         * @param cause przyczyna błędu
+         */
+        void failed(Throwable cause) {
+            JOptionPane.showMessageDialog(GraphApp.this, errorMessage, "Błąd", JOptionPane.ERROR_MESSAGE);
+        }
+
+        /**
+         * wywoływana w wątku obsługi zdarzeń, gdy operacja zostanie anulowana
+         */
+        void cancelled() {
+        }
+
+        @Override
+        protected void done() {
+            cancelCheck.stop();
+            monitor.close();
+            setNetworkMenuEnabled(true);
+            if (isCancelled()) {
+                cancelled();
+                return;
+            }
+            try {
+                succeeded(get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedIOException) {
+                    cancelled();
+                } else {
+                    failed(e.getCause());
+                }
+            }
+        }
+    }
+
     public static void main(String[] args) {
         new GraphApp();
     }
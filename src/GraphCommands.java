@@ -0,0 +1,315 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.awt.*;
+import java.util.ArrayList;
+
+/**
+ * Zmiany grafu wprowadzane przez użytkownika, do zapamiętania w CommandHistory.
+ */
+final class GraphCommands {
+
+    private GraphCommands() {
+    }
+
+    /**
+     * przesunięcie przystanku albo połączenia (czyli obu jego przystanków)
+     */
+    static final class Move implements ICommand {
+
+        private final IMoving object;
+        private int dx;
+        private int dy;
+
+        /**
+         * czy to przesunięcie klawiszem - kolejne przesunięcia tego samego obiektu klawiszami cofają się razem
+         */
+        private final boolean byKey;
+
+        /**
+         * @param object przesuwany przystanek lub połączenie
+         * @param dx     o ile pikseli w prawo
+         * @param dy     o ile pikseli w górę
+         * @param byKey  czy to przesunięcie klawiszem (a nie przeciągnięcie myszką)
+         */
+        Move(IMoving object, int dx, int dy, boolean byKey) {
+            this.object = object;
+            this.dx = dx;
+            this.dy = dy;
+            this.byKey = byKey;
+        }
+
+        @Override
+        public void execute() {
+            object.move(dx, dy);
+        }
+
+        @Override
+        public void undo() {
+            object.move(-dx, -dy);
+        }
+
+        @Override
+        public boolean absorb(ICommand next) {
+            if (!byKey || !(next instanceof Move) || !((Move) next).byKey || ((Move) next).object != object) return false;
+            dx += ((Move) next).dx;
+            dy += ((Move) next).dy;
+            return true;
+        }
+    }
+
+    /**
+     * zmiana nazwy przystanku
+     */
+    static final class Rename implements ICommand {
+
+        private final Vertex station;
+        private final String oldName;
+        private final String newName;
+
+        Rename(Vertex station, String newName) {
+            this.station = station;
+            this.oldName = station.getName();
+            this.newName = newName;
+        }
+
+        @Override
+        public void execute() {
+            station.setName(newName);
+        }
+
+        @Override
+        public void undo() {
+            station.setName(oldName);
+        }
+    }
+
+    /**
+     * zmiana koloru przystanku
+     */
+    static final class Recolor implements ICommand {
+
+        private final Vertex station;
+        private final Color oldColor;
+        private final Color newColor;
+
+        Recolor(Vertex station, Color newColor) {
+            this.station = station;
+            this.oldColor = station.getColor();
+            this.newColor = newColor;
+        }
+
+        @Override
+        public void execute() {
+            station.setColor(newColor);
+        }
+
+        @Override
+        public void undo() {
+            station.setColor(oldColor);
+        }
+    }
+
+    /**
+     * zmiana promienia przystanku
+     */
+    static final class Resize implements ICommand {
+
+        private final Vertex station;
+        private final int oldR;
+        private int newR;
+
+        /**
+         * czy to zmiana klawiszem - kolejne zmiany promienia tego samego przystanku klawiszami cofają się razem
+         */
+        private final boolean byKey;
+
+        /**
+         * @param station przystanek
+         * @param newR    nowy promień
+         * @param byKey   czy to zmiana klawiszem (a nie w oknie dialogowym)
+         */
+        Resize(Vertex station, int newR, boolean byKey) {
+            this.station = station;
+            this.oldR = station.getR();
+            this.newR = newR;
+            this.byKey = byKey;
+        }
+
+        @Override
+        public void execute() {
+            station.setR(newR);
+        }
+
+        @Override
+        public void undo() {
+            station.setR(oldR);
+        }
+
+        @Override
+        public boolean absorb(ICommand next) {
+            if (!byKey || !(next instanceof Resize) || !((Resize) next).byKey || ((Resize) next).station != station) return false;
+            newR = ((Resize) next).newR;
+            return true;
+        }
+    }
+
+    /**
+     * dodanie przystanku
+     */
+    static final class AddStation implements ICommand {
+
+        private final Graph graph;
+        private final Vertex station;
+
+        AddStation(Graph graph, Vertex station) {
+            this.graph = graph;
+            this.station = station;
+        }
+
+        @Override
+        public void execute() {
+            graph.addStation(station);
+        }
+
+        @Override
+        public void undo() {
+            graph.removeStation(station);
+        }
+    }
+
+    /**
+     * usunięcie przystanku, przez który nie przejeżdża żadna linia
+     */
+    static final class RemoveStation implements ICommand {
+
+        private final Graph graph;
+        private final Vertex station;
+
+        RemoveStation(Graph graph, Vertex station) {
+            this.graph = graph;
+            this.station = station;
+        }
+
+        @Override
+        public void execute() {
+            graph.removeStation(station);
+        }
+
+        @Override
+        public void undo() {
+            graph.addStation(station);
+        }
+    }
+
+    /**
+     * dodanie linii transportu
+     */
+    static final class AddTransportLine implements ICommand {
+
+        private final Graph graph;
+        private final TransportLine transportLine;
+
+        AddTransportLine(Graph graph, TransportLine transportLine) {
+            this.graph = graph;
+            this.transportLine = transportLine;
+        }
+
+        @Override
+        public void execute() {
+            graph.addTransportLine(transportLine);
+        }
+
+        @Override
+        public void undo() {
+            graph.removeTransportLine(transportLine);
+        }
+    }
+
+    /**
+     * usunięcie linii transportu
+     */
+    static final class RemoveTransportLine implements ICommand {
+
+        private final Graph graph;
+        private final TransportLine transportLine;
+
+        RemoveTransportLine(Graph graph, TransportLine transportLine) {
+            this.graph = graph;
+            this.transportLine = transportLine;
+        }
+
+        @Override
+        public void execute() {
+            graph.removeTransportLine(transportLine);
+        }
+
+        @Override
+        public void undo() {
+            graph.addTransportLine(transportLine);
+        }
+    }
+
+    /**
+     * zmiana numeru, rodzaju transportu i trasy linii - graf przelicza tylko połączenia tej linii;
+     * rozkład jazdy linii zostaje tylko wtedy, gdy trasa się nie zmienia
+     */
+    static final class EditTransportLine implements ICommand {
+
+        private final Graph graph;
+        private final TransportLine transportLine;
+        private final String oldLineNumber;
+        private final String oldDestination;
+        private final byte oldTransportType;
+        private final ArrayList<Vertex> oldStations;
+        private final Timetable oldTimetable;
+        private final String newLineNumber;
+        private final String newDestination;
+        private final byte newTransportType;
+        private final ArrayList<Vertex> newStations;
+        private final Timetable newTimetable;
+
+        /**
+         * @param graph         graf, do którego należy linia
+         * @param transportLine zmieniana linia
+         * @param lineNumber    nowy numer linii
+         * @param transportType nowy rodzaj transportu
+         * @param stations      nowa trasa linii (niepusta)
+         */
+        EditTransportLine(Graph graph, TransportLine transportLine, String lineNumber, byte transportType, ArrayList<Vertex> stations) {
+            this.graph = graph;
+            this.transportLine = transportLine;
+            oldLineNumber = transportLine.getLineNumber();
+            oldDestination = transportLine.getDestination();
+            oldTransportType = transportLine.getTransportType();
+            oldStations = transportLine.getStations();
+            oldTimetable = transportLine.getTimetable();
+            newLineNumber = lineNumber;
+            newDestination = stations.get(stations.size() - 1).toString();
+            newTransportType = transportType;
+            newStations = stations;
+            newTimetable = stations.equals(oldStations) ? oldTimetable : null;
+        }
+
+        @Override
+        public void execute() {
+            apply(newLineNumber, newDestination, newTransportType, newStations, newTimetable);
+        }
+
+        @Override
+        public void undo() {
+            apply(oldLineNumber, oldDestination, oldTransportType, oldStations, oldTimetable);
+        }
+
+        private void apply(String lineNumber, String destination, byte transportType, ArrayList<Vertex> stations, Timetable timetable) {
+            graph.removeTransportLine(transportLine);
+            transportLine.setLineNumber(lineNumber);
+            transportLine.setDestination(destination);
+            transportLine.setTransportType(transportType);
+            transportLine.setStations(stations);
+            transportLine.setTimetable(timetable);
+            graph.addTransportLine(transportLine);
+        }
+    }
+}
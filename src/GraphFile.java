@@ -0,0 +1,494 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.awt.*;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Zapis i odczyt sieci w zwartym formacie binarnym.
+ *
+ * Plik to nagłówek i tablice liczb, wszystkie w kolejności big-endian:
+ * <pre>
+ * nagłówek:     MAGIC, VERSION, liczba napisów, przystanków, linii, połączeń, przystanków na trasach wszystkich linii,
+ *               profili kursów, czasów we wszystkich profilach, serii kursów
+ * przystanki:   int[] x, int[] y, int[] r, int[] kolor (ARGB), int[] nazwa (indeks napisu)
+ * linie:        int[] numer (indeks napisu), int[] kierunek (indeks napisu),
+ *               int[] początek trasy (liczba linii + 1), int[] trasy (indeksy przystanków)
+ * połączenia:   int[] pierwszy przystanek, int[] drugi przystanek
+ * rozkłady:     int[] początek profili linii (liczba linii + 1), int[] czasy przyjazdu, int[] czasy odjazdu (profile linii po kolei,
+ *               każdy ma tyle czasów, ile przystanków ma trasa), int[] początek serii linii (liczba linii + 1),
+ *               int[] początek pierwszego kursu, int[] początek ostatniego kursu, int[] odstęp, int[] profil (numer wśród profili linii)
+ * napisy:       int[] początek napisu (liczba napisów + 1, w bajtach)
+ *               byte[] rodzaj transportu linii, byte[] napisy w UTF-8
+ * </pre>
+ * Linia bez profili i serii nie ma rozkładu. Pliki w wersji 1 mają krótszy nagłówek (bez trzech ostatnich liczb) i nie mają rozkładów.
+ * Tablice liczb całkowitych leżą pod adresami podzielnymi przez 4.
+ * Pliki zapisane dawniej przez serializację Javy też są wczytywane.
+ */
+public final class GraphFile {
+
+    /**
+     * "GRAF" - pierwsze bajty pliku
+     */
+    static final int MAGIC = 0x47524146;
+
+    static final int VERSION = 2;
+
+    /**
+     * wersja pliku bez rozkładów jazdy, nadal wczytywana
+     */
+    static final int VERSION_WITHOUT_TIMETABLES = 1;
+
+    /**
+     * pierwsze dwa bajty strumienia serializacji Javy
+     */
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    /**
+     * co tyle bajtów zapisu lub odczytu zgłaszany jest postęp
+     */
+    private static final int PROGRESS_STEP = 1 << 20;
+
+    private GraphFile() {
+    }
+
+    /**
+     * @param version wersja pliku
+     * @return rozmiar nagłówka pliku w danej wersji, w bajtach
+     */
+    static int headerSize(int version) {
+        return (version == VERSION_WITHOUT_TIMETABLES ? 7 : 10) * Integer.BYTES;
+    }
+
+    /**
+     * wczytuje graf z pliku w formacie binarnym lub zapisanego przez serializację Javy
+     *
+     * @param file plik
+     * @return wczytany graf
+     * @throws IOException gdy nie udało się odczytać pliku lub plik jest uszkodzony
+     */
+    public static Graph read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * wczytuje graf z pliku w formacie binarnym lub zapisanego przez serializację Javy, zgłaszając postęp
+     *
+     * @param file     plik
+     * @param listener obiekt śledzący postęp, który może przerwać odczyt (lub null)
+     * @return wczytany graf
+     * @throws InterruptedIOException gdy odczyt przerwano
+     * @throws IOException            gdy nie udało się odczytać pliku lub plik jest uszkodzony
+     */
+    public static Graph read(File file, IProgressListener listener) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer head = ByteBuffer.allocate(2);
+            channel.read(head, 0);
+            if (head.position() == 2 && (head.getShort(0) & 0xFFFF) == SERIALIZATION_MAGIC) {
+                InputStream stream = Channels.newInputStream(channel);
+                if (listener != null) stream = new ProgressInputStream(stream, size, listener);
+                return readSerialized(new BufferedInputStream(stream));
+            }
+            if (size > Integer.MAX_VALUE) throw new IOException("Plik jest za duży");
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (listener != null) listener.progress("Wczytywanie", buffer.position(), size);
+                buffer.limit(Math.min(buffer.capacity(), buffer.position() + PROGRESS_STEP));
+                if (channel.read(buffer) < 0) throw new EOFException();
+                buffer.limit(buffer.capacity());
+            }
+            buffer.flip();
+        }
+        if (listener != null) listener.progress("Budowanie sieci", buffer.limit(), buffer.limit());
+        return read(buffer);
+    }
+
+    /**
+     * wczytuje graf zapisany przez serializację Javy
+     */
+    private static Graph readSerialized(InputStream stream) throws IOException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(stream)) {
+            return (Graph) inputStream.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Plik nie zawiera sieci", e);
+        }
+    }
+
+    /**
+     * wczytuje graf z bufora w formacie binarnym - plik jest już cały w pamięci, więc wszystkie tablice są odczytywane po kolei
+     *
+     * @param buffer cała zawartość pliku
+     * @return wczytany graf
+     * @throws IOException gdy plik nie jest w obsługiwanym formacie lub jest uszkodzony
+     */
+    static Graph read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.limit() < 2 * Integer.BYTES || buffer.getInt() != MAGIC) throw new IOException("Nieznany format pliku");
+            int version = buffer.getInt();
+            if (version != VERSION && version != VERSION_WITHOUT_TIMETABLES) throw new IOException("Nieobsługiwana wersja pliku: " + version);
+            boolean hasTimetables = version != VERSION_WITHOUT_TIMETABLES;
+            int stringCount = checkCount(buffer.getInt());
+            int stationCount = checkCount(buffer.getInt());
+            int lineCount = checkCount(buffer.getInt());
+            int connectionCount = checkCount(buffer.getInt());
+            int stopCount = checkCount(buffer.getInt());
+            int profileCount = hasTimetables ? checkCount(buffer.getInt()) : 0;
+            int timeCount = hasTimetables ? checkCount(buffer.getInt()) : 0;
+            int runCount = hasTimetables ? checkCount(buffer.getInt()) : 0;
+
+            int[] x = readInts(buffer, stationCount);
+            int[] y = readInts(buffer, stationCount);
+            int[] r = readInts(buffer, stationCount);
+            int[] colors = readInts(buffer, stationCount);
+            int[] names = readInts(buffer, stationCount);
+            int[] lineNumbers = readInts(buffer, lineCount);
+            int[] destinations = readInts(buffer, lineCount);
+            int[] stopOffsets = readOffsets(buffer, lineCount, stopCount);
+            int[] stops = readInts(buffer, stopCount);
+            int[] firstStations = readInts(buffer, connectionCount);
+            int[] secondStations = readInts(buffer, connectionCount);
+            int[] profileOffsets = hasTimetables ? readOffsets(buffer, lineCount, profileCount) : new int[lineCount + 1];
+            int[] arrivals = readInts(buffer, timeCount);
+            int[] departures = readInts(buffer, timeCount);
+            int[] runOffsets = hasTimetables ? readOffsets(buffer, lineCount, runCount) : new int[lineCount + 1];
+            int[] firstStarts = readInts(buffer, runCount);
+            int[] lastStarts = readInts(buffer, runCount);
+            int[] headways = readInts(buffer, runCount);
+            int[] runProfiles = readInts(buffer, runCount);
+            int[] stringOffsets = readOffsets(buffer, stringCount, Integer.MAX_VALUE);
+            byte[] transportTypes = new byte[lineCount];
+            buffer.get(transportTypes);
+
+            String[] strings = new String[stringCount];
+            int stringsStart = buffer.position();
+            if (stringOffsets[stringCount] > buffer.limit() - stringsStart) throw new IOException("Uszkodzona tablica napisów");
+            for (int i = 0; i < stringCount; ++i) {
+                int start = stringOffsets[i];
+                strings[i] = new String(buffer.array(), buffer.arrayOffset() + stringsStart + start, stringOffsets[i + 1] - start, StandardCharsets.UTF_8);
+            }
+
+            ArrayList<Vertex> stations = new ArrayList<>(stationCount);
+            for (int i = 0; i < stationCount; ++i) {
+                stations.add(new Vertex(x[i], y[i], r[i], strings[checkIndex(names[i], stringCount)], Vertex.paletteColor(colors[i])));
+            }
+            ArrayList<TransportLine> transportLines = new ArrayList<>(lineCount);
+            int timeStart = 0;
+            for (int i = 0; i < lineCount; ++i) {
+                int routeLength = stopOffsets[i + 1] - stopOffsets[i];
+                ArrayList<Vertex> lineStations = new ArrayList<>(routeLength);
+                for (int j = stopOffsets[i]; j < stopOffsets[i + 1]; ++j) {
+                    lineStations.add(stations.get(checkIndex(stops[j], stationCount)));
+                }
+                TransportLine transportLine = new TransportLine(strings[checkIndex(lineNumbers[i], stringCount)], strings[checkIndex(destinations[i], stringCount)],
+                        transportTypes[i], lineStations);
+                long times = (long) (profileOffsets[i + 1] - profileOffsets[i]) * routeLength;
+                if (timeStart + times > timeCount) throw new IOException("Uszkodzone rozkłady jazdy");
+                int timeEnd = timeStart + (int) times;
+                int firstRun = runOffsets[i];
+                int lastRun = runOffsets[i + 1];
+                if (profileOffsets[i + 1] > profileOffsets[i] || lastRun > firstRun) {
+                    transportLine.setTimetable(new Timetable(routeLength, Arrays.copyOfRange(arrivals, timeStart, timeEnd), Arrays.copyOfRange(departures, timeStart, timeEnd),
+                            Arrays.copyOfRange(firstStarts, firstRun, lastRun), Arrays.copyOfRange(lastStarts, firstRun, lastRun),
+                            Arrays.copyOfRange(headways, firstRun, lastRun), Arrays.copyOfRange(runProfiles, firstRun, lastRun)));
+                }
+                timeStart = timeEnd;
+                transportLines.add(transportLine);
+            }
+            if (timeStart != timeCount) throw new IOException("Uszkodzone rozkłady jazdy");
+            ArrayList<Edge> connections = new ArrayList<>(connectionCount);
+            for (int i = 0; i < connectionCount; ++i) {
+                connections.add(new Edge(stations.get(checkIndex(firstStations[i], stationCount)), stations.get(checkIndex(secondStations[i], stationCount)), Color.GRAY));
+            }
+            return new Graph(stations, transportLines, connections);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Plik jest ucięty", e);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Uszkodzony plik", e);
+        }
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0) throw new IOException("Uszkodzony nagłówek pliku");
+        return count;
+    }
+
+    private static int checkIndex(int index, int count) throws IOException {
+        if (index < 0 || index >= count) throw new IOException("Uszkodzony plik: indeks " + index + " poza zakresem");
+        return index;
+    }
+
+    /**
+     * @return kolejne liczby z bufora (ucięty plik kończy się wyjątkiem, zanim zostanie utworzona za duża tablica)
+     */
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        if (count > buffer.remaining() / Integer.BYTES) throw new BufferUnderflowException();
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + Integer.BYTES * count);
+        return values;
+    }
+
+    /**
+     * odczytuje tablicę początków i sprawdza, czy jest niemalejąca, zaczyna się od 0 i nie wychodzi poza opisywaną tablicę
+     */
+    private static int[] readOffsets(ByteBuffer buffer, int count, int limit) throws IOException {
+        int[] offsets = readInts(buffer, count + 1);
+        int previous = 0;
+        for (int offset : offsets) {
+            if (offset < previous || offset > limit) throw new IOException("Uszkodzona tablica początków");
+            previous = offset;
+        }
+        if (offsets[0] != 0) throw new IOException("Uszkodzona tablica początków");
+        return offsets;
+    }
+
+    /**
+     * zapisuje graf do pliku w formacie binarnym
+     *
+     * @param graph graf
+     * @param file  plik
+     * @throws IOException gdy nie udało się zapisać pliku
+     */
+    public static void write(Graph graph, File file) throws IOException {
+        write(graph.publish(), file, null);
+    }
+
+    /**
+     * Zapisuje kopię grafu do pliku w formacie binarnym, zgłaszając postęp. Plik jest najpierw zapisywany obok, pod tymczasową nazwą,
+     * i dopiero po zapisaniu całości zastępuje dany plik - przerwany lub nieudany zapis nie niszczy poprzedniej zawartości pliku.
+     *
+     * @param snapshot kopia grafu
+     * @param file     plik
+     * @param listener obiekt śledzący postęp, który może przerwać zapis (lub null)
+     * @throws InterruptedIOException gdy zapis przerwano
+     * @throws IOException            gdy nie udało się zapisać pliku
+     */
+    public static void write(GraphSnapshot snapshot, File file, IProgressListener listener) throws IOException {
+        writeFile(encode(snapshot), file, listener);
+    }
+
+    /**
+     * zapisuje zawartość bufora do pliku przez plik tymczasowy obok, tak jak zapis grafu
+     *
+     * @param buffer   cała zawartość pliku
+     * @param file     plik
+     * @param listener obiekt śledzący postęp, który może przerwać zapis (lub null)
+     * @throws InterruptedIOException gdy zapis przerwano
+     * @throws IOException            gdy nie udało się zapisać pliku
+     */
+    static void writeFile(ByteBuffer buffer, File file, IProgressListener listener) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                int size = buffer.limit();
+                while (buffer.hasRemaining()) {
+                    if (listener != null) listener.progress("Zapisywanie", buffer.position(), size);
+                    ByteBuffer chunk = buffer.duplicate();
+                    chunk.limit(Math.min(size, buffer.position() + PROGRESS_STEP));
+                    buffer.position(buffer.position() + channel.write(chunk));
+                }
+                channel.force(false);
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param snapshot kopia grafu
+     * @return cały plik z zapisanym grafem, gotowy do zapisu
+     */
+    static ByteBuffer encode(GraphSnapshot snapshot) {
+        int stationCount = snapshot.getStationCount();
+        int lineCount = snapshot.getLineCount();
+        int connectionCount = snapshot.getConnectionCount();
+        int stopCount = snapshot.getStopCount();
+
+        StringTable strings = new StringTable();
+        int[] names = new int[stationCount];
+        for (int i = 0; i < stationCount; ++i) {
+            names[i] = strings.indexOf(snapshot.stationNames[i]);
+        }
+        int[] lineNumbers = new int[lineCount];
+        int[] destinations = new int[lineCount];
+        for (int i = 0; i < lineCount; ++i) {
+            lineNumbers[i] = strings.indexOf(snapshot.lineNumbers[i]);
+            destinations[i] = strings.indexOf(snapshot.lineDestinations[i]);
+        }
+
+        int[] profileOffsets = new int[lineCount + 1];
+        int[] runOffsets = new int[lineCount + 1];
+        int timeCount = 0;
+        for (int i = 0; i < lineCount; ++i) {
+            Timetable timetable = snapshot.timetables[i];
+            profileOffsets[i + 1] = profileOffsets[i] + (timetable == null ? 0 : timetable.getProfileCount());
+            runOffsets[i + 1] = runOffsets[i] + (timetable == null ? 0 : timetable.getRunCount());
+            if (timetable != null) timeCount += timetable.getArrivalOffsets().length;
+        }
+        int profileCount = profileOffsets[lineCount];
+        int runCount = runOffsets[lineCount];
+
+        int size = headerSize(VERSION) + Integer.BYTES * (5 * stationCount + 3 * lineCount + 1 + stopCount + 2 * connectionCount
+                + 2 * (lineCount + 1) + 2 * timeCount + 4 * runCount + strings.size() + 1) + lineCount + strings.byteSize();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(strings.size()).putInt(stationCount).putInt(lineCount).putInt(connectionCount).putInt(stopCount)
+                .putInt(profileCount).putInt(timeCount).putInt(runCount);
+        putInts(buffer, snapshot.stationX);
+        putInts(buffer, snapshot.stationY);
+        putInts(buffer, snapshot.stationR);
+        putInts(buffer, snapshot.stationColor);
+        putInts(buffer, names);
+        putInts(buffer, lineNumbers);
+        putInts(buffer, destinations);
+        putInts(buffer, snapshot.stopOffsets);
+        putInts(buffer, snapshot.stops);
+        putInts(buffer, snapshot.firstStations);
+        putInts(buffer, snapshot.secondStations);
+        putInts(buffer, profileOffsets);
+        for (Timetable timetable : snapshot.timetables) {
+            if (timetable != null) putInts(buffer, timetable.getArrivalOffsets());
+        }
+        for (Timetable timetable : snapshot.timetables) {
+            if (timetable != null) putInts(buffer, timetable.getDepartureOffsets());
+        }
+        putInts(buffer, runOffsets);
+        for (Timetable timetable : snapshot.timetables) {
+            if (timetable != null) putInts(buffer, timetable.getFirstStarts());
+        }
+        for (Timetable timetable : snapshot.timetables) {
+            if (timetable != null) putInts(buffer, timetable.getLastStarts());
+        }
+        for (Timetable timetable : snapshot.timetables) {
+            if (timetable != null) putInts(buffer, timetable.getHeadways());
+        }
+        for (Timetable timetable : snapshot.timetables) {
+            if (timetable != null) putInts(buffer, timetable.getRunProfiles());
+        }
+        strings.writeOffsets(buffer);
+        buffer.put(snapshot.transportTypes);
+        strings.writeBytes(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + Integer.BYTES * values.length);
+    }
+
+    /**
+     * Strumień zgłaszający, ile bajtów pliku już odczytano.
+     */
+    private static final class ProgressInputStream extends FilterInputStream {
+
+        private final long size;
+        private final IProgressListener listener;
+        private long position;
+        private long reportedPosition;
+
+        ProgressInputStream(InputStream stream, long size, IProgressListener listener) {
+            super(stream);
+            this.size = size;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) advance(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) advance(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            advance(count);
+            return count;
+        }
+
+        private void advance(long count) throws InterruptedIOException {
+            position += count;
+            if (position - reportedPosition >= PROGRESS_STEP) {
+                reportedPosition = position;
+                listener.progress("Wczytywanie", position, size);
+            }
+        }
+    }
+
+    /**
+     * Napisy zapisywane w pliku, każdy tylko raz.
+     */
+    private static final class StringTable {
+
+        private final HashMap<String, Integer> indices = new HashMap<>();
+        private final ArrayList<byte[]> encoded = new ArrayList<>();
+        private int byteSize;
+
+        int indexOf(String string) {
+            Integer index = indices.get(string);
+            if (index == null) {
+                index = encoded.size();
+                indices.put(string, index);
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                byteSize += bytes.length;
+            }
+            return index;
+        }
+
+        int size() {
+            return encoded.size();
+        }
+
+        int byteSize() {
+            return byteSize;
+        }
+
+        /**
+         * zapisuje początki kolejnych napisów i koniec ostatniego, w bajtach
+         */
+        void writeOffsets(ByteBuffer buffer) {
+            int offset = 0;
+            for (byte[] bytes : encoded) {
+                buffer.putInt(offset);
+                offset += bytes.length;
+            }
+            buffer.putInt(offset);
+        }
+
+        void writeBytes(ByteBuffer buffer) {
+            for (byte[] bytes : encoded) {
+                buffer.put(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,612 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.awt.*;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Dziennik zmian grafu - dzięki niemu autozapis kosztuje tyle, ile było zmian, a sieć z przerwanej sesji można odtworzyć.
+ *
+ * W katalogu autozapisu leży pełna kopia sieci (snapshot-N.graf, w formacie GraphFile) i dziennik zmian wprowadzonych po jej zapisaniu
+ * (journal-N.bin), gdzie N to numer pokolenia. Każda zmiana grafu jest dopisywana do bufora w pamięci jako krótki wpis, a flush() przekazuje
+ * bufor wątkowi zapisu, który dopisuje go na koniec dziennika i wymusza zapis na dysk - raz na całą porcję wpisów.
+ * Gdy dziennik urośnie ponad rozmiar kopii, cała sieć jest zapisywana jako kopia następnego pokolenia, a starsze pliki są usuwane.
+ *
+ * Przystanki i linie są we wpisach wskazywane numerami: obiekty z kopii mają numery równe miejscu na listach w kopii,
+ * a dodane później dostają kolejne numery. Rozkład jazdy dodanej linii jest na końcu jej wpisu (wpisy linii bez rozkładu się tam kończą).
+ * Zmiany przystanków nie są dopisywane od razu: flush() zapisuje jeden wpis z ostatnim stanem każdego zmienionego przystanku,
+ * więc np. przeciąganie połączenia, które na zmianę przesuwa oba jego przystanki, daje dwa wpisy zamiast jednego na każde przesunięcie.
+ * Wpis to długość, rodzaj, treść i suma kontrolna CRC32 - odtwarzanie kończy się
+ * na pierwszym niepełnym lub uszkodzonym wpisie (np. przerwanym przez awarię w trakcie zapisu).
+ *
+ * Metody dziennika, poza wątkiem zapisu, muszą być wywoływane w wątku, w którym zmieniany jest graf.
+ */
+public final class GraphJournal implements IGraphListener, Closeable {
+
+    /**
+     * "GRJL" - pierwsze bajty dziennika
+     */
+    private static final int MAGIC = 0x47524A4C;
+
+    private static final int VERSION = 1;
+
+    /**
+     * rodzaje wpisów
+     */
+    private static final byte ADD_STATION = 1;
+    private static final byte REMOVE_STATION = 2;
+    private static final byte UPDATE_STATION = 3;
+    private static final byte ADD_TRANSPORT_LINE = 4;
+    private static final byte REMOVE_TRANSPORT_LINE = 5;
+
+    /**
+     * dziennik mniejszy niż tyle bajtów nigdy nie jest zastępowany pełną kopią
+     */
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".graf";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".bin";
+
+    private final File directory;
+
+    /**
+     * blokada katalogu, żeby dwa okna programu nie pisały do tych samych plików
+     */
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    /**
+     * wątek zapisujący kopie i dopisujący wpisy na dysk, po kolei
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Autozapis");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * śledzony graf (lub null)
+     */
+    private Graph graph;
+
+    /**
+     * numer pokolenia ostatniej kopii
+     */
+    private int generation;
+
+    /**
+     * numery przystanków i linii we wpisach
+     */
+    private final HashMap<Vertex, Integer> stationIds = new HashMap<>();
+    private final HashMap<TransportLine, Integer> transportLineIds = new HashMap<>();
+    private int nextStationId;
+    private int nextTransportLineId;
+
+    /**
+     * wpisy jeszcze nieprzekazane wątkowi zapisu
+     */
+    private final EntryBuffer entries = new EntryBuffer();
+
+    /**
+     * przystanki zmienione od ostatniego flush(), w kolejności pierwszej zmiany - ich wpisy są dopisywane dopiero w flush()
+     */
+    private final LinkedHashSet<Vertex> changedStations = new LinkedHashSet<>();
+
+    /**
+     * ile bajtów wpisów przekazano do dziennika od ostatniej kopii i przy jakim rozmiarze dziennika zrobić nową kopię
+     */
+    private long journalBytes;
+    private long compactionBytes;
+
+    /**
+     * dziennik obecnego pokolenia, używany tylko w wątku zapisu
+     */
+    private FileChannel journalChannel;
+
+    /**
+     * pierwszy błąd zapisu (lub null) - po błędzie nic więcej nie jest zapisywane
+     */
+    private volatile IOException failure;
+
+    /**
+     * otwiera katalog autozapisu, tworząc go, jeśli go nie ma
+     *
+     * @param directory katalog autozapisu
+     * @throws IOException gdy nie udało się utworzyć katalogu lub katalog jest używany przez inne okno programu
+     */
+    public GraphJournal(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Nie udało się utworzyć katalogu " + directory);
+        lockChannel = FileChannel.open(new File(directory, "lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Katalog autozapisu jest używany przez inne okno programu");
+        }
+        lock = acquired;
+        generation = latestGeneration();
+    }
+
+    /**
+     * @return czy w katalogu autozapisu jest sieć z poprzedniej, przerwanej sesji
+     */
+    public boolean hasRecoverableSession() {
+        return generation > 0;
+    }
+
+    /**
+     * odtwarza sieć z poprzedniej sesji: wczytuje ostatnią kopię i wprowadza zmiany zapisane w dzienniku
+     *
+     * @param listener obiekt śledzący postęp wczytywania kopii, który może je przerwać (lub null)
+     * @return odtworzony graf
+     * @throws IOException gdy nie udało się odczytać kopii lub dziennik jest niezgodny z kopią
+     */
+    public Graph recover(IProgressListener listener) throws IOException {
+        Graph recovered = GraphFile.read(snapshotFile(generation), listener);
+        File journalFile = journalFile(generation);
+        if (journalFile.exists()) {
+            replay(recovered, ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath())));
+        }
+        return recovered;
+    }
+
+    /**
+     * zaczyna śledzić dany graf (przestając śledzić poprzedni) - zapisuje jego pełną kopię i zaczyna nowy dziennik
+     *
+     * @param graph graf
+     * @throws IOException gdy wcześniej nie udało się zapisać dziennika albo linia zatrzymuje się na przystanku spoza grafu
+     */
+    public void track(Graph graph) throws IOException {
+        if (this.graph != null) this.graph.removeListener(this);
+        this.graph = graph;
+        graph.addListener(this);
+        compact();
+    }
+
+    /**
+     * przekazuje zebrane wpisy do zapisu na dysk (albo, jeśli dziennik byłby większy od kopii sieci, zapisuje nową kopię)
+     *
+     * @throws IOException gdy wcześniej nie udało się zapisać dziennika
+     */
+    public void flush() throws IOException {
+        if (failure != null) throw failure;
+        if (graph == null) return;
+        writeChangedStations();
+        if (entries.size() == 0) return;
+        if (journalBytes + entries.size() > compactionBytes) {
+            compact();
+            return;
+        }
+        byte[] bytes = entries.toByteArray();
+        entries.reset();
+        journalBytes += bytes.length;
+        writer.execute(() -> append(bytes));
+    }
+
+    /**
+     * zapisuje zebrane wpisy, czeka na zakończenie zapisu i zwalnia katalog autozapisu - pliki zostają do odtworzenia w następnej sesji
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            shutdown(false);
+        }
+    }
+
+    /**
+     * kończy dziennik bez zapisywania zebranych wpisów i usuwa pliki autozapisu (przy zwykłym zamknięciu programu)
+     */
+    public void discard() throws IOException {
+        shutdown(true);
+    }
+
+    /**
+     * przestaje śledzić graf, kończy wątek zapisu i zwalnia katalog
+     *
+     * @param deleteFiles czy usunąć pliki autozapisu
+     */
+    private void shutdown(boolean deleteFiles) throws IOException {
+        if (graph != null) graph.removeListener(this);
+        graph = null;
+        writer.execute(() -> {
+            try {
+                if (journalChannel != null) journalChannel.close();
+                if (deleteFiles) deleteGenerationsBefore(Integer.MAX_VALUE);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.release();
+        lockChannel.close();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * zapisuje pełną kopię grafu jako nowe pokolenie; wpisy z bufora są już w kopii, więc są porzucane
+     */
+    private void compact() throws IOException {
+        GraphSnapshot snapshot = graph.publish();
+        stationIds.clear();
+        transportLineIds.clear();
+        ArrayList<Vertex> stations = graph.getStations();
+        for (int i = 0; i < stations.size(); ++i) {
+            stationIds.put(stations.get(i), i);
+        }
+        ArrayList<TransportLine> transportLines = graph.getTransportLines();
+        for (int i = 0; i < transportLines.size(); ++i) {
+            transportLineIds.put(transportLines.get(i), i);
+        }
+        nextStationId = stations.size();
+        nextTransportLineId = transportLines.size();
+        entries.reset();
+        changedStations.clear();
+        journalBytes = 0;
+        long snapshotBytes = (long) Integer.BYTES * (5L * snapshot.getStationCount() + 3L * snapshot.getLineCount() + snapshot.getStopCount() + 2L * snapshot.getConnectionCount());
+        compactionBytes = Math.max(MIN_COMPACTION_BYTES, snapshotBytes);
+        int newGeneration = ++generation;
+        writer.execute(() -> writeSnapshot(newGeneration, snapshot));
+    }
+
+    /**
+     * w wątku zapisu: zapisuje kopię, zaczyna dziennik nowego pokolenia i usuwa pliki starszych pokoleń
+     */
+    private void writeSnapshot(int newGeneration, GraphSnapshot snapshot) {
+        if (failure != null) return;
+        try {
+            GraphFile.write(snapshot, snapshotFile(newGeneration), null);
+            if (journalChannel != null) journalChannel.close();
+            journalChannel = FileChannel.open(journalFile(newGeneration).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(header);
+            deleteGenerationsBefore(newGeneration);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * w wątku zapisu: dopisuje wpisy na koniec dziennika
+     */
+    private void append(byte[] bytes) {
+        if (failure != null) return;
+        try {
+            writeFully(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            journalChannel.write(buffer);
+        }
+        journalChannel.force(false);
+    }
+
+    @Override
+    public void stationAdded(Vertex station) {
+        int id = nextStationId++;
+        stationIds.put(station, id);
+        int start = entries.begin(ADD_STATION);
+        writeStation(station);
+        entries.end(start);
+    }
+
+    @Override
+    public void stationRemoved(Vertex station) {
+        Integer id = stationIds.remove(station);
+        if (id == null) return;
+        changedStations.remove(station);
+        int start = entries.begin(REMOVE_STATION);
+        entries.writeInt(id);
+        entries.end(start);
+    }
+
+    @Override
+    public void stationChanged(Vertex station) {
+        if (stationIds.containsKey(station)) {
+            changedStations.add(station);
+        }
+    }
+
+    @Override
+    public void transportLineAdded(TransportLine transportLine) {
+        int id = nextTransportLineId++;
+        transportLineIds.put(transportLine, id);
+        ArrayList<Vertex> stations = transportLine.getStations();
+        int start = entries.begin(ADD_TRANSPORT_LINE);
+        entries.writeString(transportLine.getLineNumber());
+        entries.writeString(transportLine.getDestination());
+        entries.write(transportLine.getTransportType());
+        entries.writeInt(stations.size());
+        for (Vertex station : stations) {
+            Integer stationId = stationIds.get(station);
+            if (stationId == null && failure == null) failure = new IOException("Linia " + transportLine.getLineNumber() + " zatrzymuje się na przystanku spoza sieci");
+            entries.writeInt(stationId == null ? -1 : stationId);
+        }
+        Timetable timetable = transportLine.getTimetable();
+        if (timetable != null && timetable.getStopCount() == stations.size()) {
+            entries.writeInt(timetable.getProfileCount());
+            entries.writeInts(timetable.getArrivalOffsets());
+            entries.writeInts(timetable.getDepartureOffsets());
+            entries.writeInt(timetable.getRunCount());
+            entries.writeInts(timetable.getFirstStarts());
+            entries.writeInts(timetable.getLastStarts());
+            entries.writeInts(timetable.getHeadways());
+            entries.writeInts(timetable.getRunProfiles());
+        }
+        entries.end(start);
+    }
+
+    @Override
+    public void transportLineRemoved(TransportLine transportLine) {
+        Integer id = transportLineIds.remove(transportLine);
+        if (id == null) return;
+        int start = entries.begin(REMOVE_TRANSPORT_LINE);
+        entries.writeInt(id);
+        entries.end(start);
+    }
+
+    /**
+     * dopisuje do bufora obecny stan każdego przystanku zmienionego od ostatniego flush() - zmiany przystanków nie zależą od wpisów
+     * linii, a usunięte przystanki nie są już w zbiorze, więc wpisy mogą stać po wszystkich wpisach zebranych w tym czasie
+     */
+    private void writeChangedStations() {
+        for (Vertex station : changedStations) {
+            int start = entries.begin(UPDATE_STATION);
+            entries.writeInt(stationIds.get(station));
+            writeStation(station);
+            entries.end(start);
+        }
+        changedStations.clear();
+    }
+
+    private void writeStation(Vertex station) {
+        entries.writeInt(station.getX());
+        entries.writeInt(station.getY());
+        entries.writeInt(station.getR());
+        entries.writeInt(station.getColor().getRGB());
+        entries.writeString(station.getName());
+    }
+
+    /**
+     * wprowadza do grafu zmiany z dziennika, do pierwszego niepełnego lub uszkodzonego wpisu - jedną paczką zmian
+     *
+     * @param graph   graf wczytany z kopii, do której należy dziennik
+     * @param journal zawartość dziennika
+     * @throws IOException gdy dziennik ma nieznany format lub jest niezgodny z kopią
+     */
+    private static void replay(Graph graph, ByteBuffer journal) throws IOException {
+        if (journal.remaining() < 2 * Integer.BYTES) return; //dziennik nie zdążył zostać zapisany
+        if (journal.getInt() != MAGIC || journal.getInt() != VERSION) throw new IOException("Nieznany format dziennika zmian");
+        ArrayList<Vertex> stations = new ArrayList<>(graph.getStations());
+        ArrayList<TransportLine> transportLines = new ArrayList<>(graph.getTransportLines());
+        CRC32 crc = new CRC32();
+        graph.beginBatch();
+        try {
+            while (journal.remaining() >= Integer.BYTES) {
+                int length = journal.getInt();
+                if (length <= 0 || journal.remaining() < length + Integer.BYTES) break;
+                int start = journal.position();
+                crc.reset();
+                crc.update(journal.array(), journal.arrayOffset() + start, length);
+                if ((int) crc.getValue() != journal.getInt(start + length)) break;
+                ByteBuffer entry = journal.duplicate();
+                entry.limit(start + length);
+                applyEntry(graph, entry, stations, transportLines);
+                journal.position(start + length + Integer.BYTES);
+            }
+        } catch (IndexOutOfBoundsException | NullPointerException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Dziennik zmian nie pasuje do kopii sieci", e);
+        } finally {
+            graph.commit();
+        }
+    }
+
+    private static void applyEntry(Graph graph, ByteBuffer entry, ArrayList<Vertex> stations, ArrayList<TransportLine> transportLines) throws IOException {
+        byte type = entry.get();
+        switch (type) {
+            case ADD_STATION: {
+                int x = entry.getInt();
+                int y = entry.getInt();
+                int r = entry.getInt();
+                Color color = Vertex.paletteColor(entry.getInt());
+                Vertex station = new Vertex(x, y, r, readString(entry), color);
+                stations.add(station);
+                graph.addStation(station);
+                break;
+            }
+            case REMOVE_STATION: {
+                graph.removeStation(stations.get(entry.getInt()));
+                break;
+            }
+            case UPDATE_STATION: {
+                Vertex station = stations.get(entry.getInt());
+                int x = entry.getInt();
+                int y = entry.getInt();
+                int r = entry.getInt();
+                int argb = entry.getInt();
+                String name = readString(entry);
+                if (x != station.getX() || y != station.getY()) station.move(x - station.getX(), station.getY() - y);
+                if (r != station.getR()) station.setR(r);
+                if (argb != station.getColor().getRGB()) station.setColor(Vertex.paletteColor(argb));
+                if (!name.equals(station.getName())) station.setName(name);
+                break;
+            }
+            case ADD_TRANSPORT_LINE: {
+                String lineNumber = readString(entry);
+                String destination = readString(entry);
+                byte transportType = entry.get();
+                int stopCount = entry.getInt();
+                ArrayList<Vertex> lineStations = new ArrayList<>(stopCount);
+                for (int i = 0; i < stopCount; ++i) {
+                    lineStations.add(stations.get(entry.getInt()));
+                }
+                TransportLine transportLine = new TransportLine(lineNumber, destination, transportType, lineStations);
+                if (entry.hasRemaining()) {
+                    int times = entry.getInt() * stopCount;
+                    int[] arrivals = readInts(entry, times);
+                    int[] departures = readInts(entry, times);
+                    int runs = entry.getInt();
+                    transportLine.setTimetable(new Timetable(stopCount, arrivals, departures, readInts(entry, runs), readInts(entry, runs), readInts(entry, runs), readInts(entry, runs)));
+                }
+                transportLines.add(transportLine);
+                graph.addTransportLine(transportLine);
+                break;
+            }
+            case REMOVE_TRANSPORT_LINE: {
+                graph.removeTransportLine(transportLines.get(entry.getInt()));
+                break;
+            }
+            default:
+                throw new IOException("Nieznany wpis w dzienniku zmian: " + type);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer entry, int count) {
+        if (count < 0 || count > entry.remaining() / Integer.BYTES) throw new BufferUnderflowException();
+        int[] values = new int[count];
+        entry.asIntBuffer().get(values);
+        entry.position(entry.position() + Integer.BYTES * count);
+        return values;
+    }
+
+    private static String readString(ByteBuffer entry) {
+        int length = entry.getInt();
+        String string = new String(entry.array(), entry.arrayOffset() + entry.position(), length, StandardCharsets.UTF_8);
+        entry.position(entry.position() + length);
+        return string;
+    }
+
+    /**
+     * @return numer pokolenia ostatniej kopii w katalogu (lub 0, jeśli nie ma żadnej)
+     */
+    private int latestGeneration() {
+        int latest = 0;
+        String[] names = directory.list();
+        if (names == null) return 0;
+        for (String name : names) {
+            latest = Math.max(latest, generationOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+        }
+        return latest;
+    }
+
+    /**
+     * usuwa kopie i dzienniki pokoleń starszych niż dane
+     */
+    private void deleteGenerationsBefore(int newGeneration) throws IOException {
+        String[] names = directory.list();
+        if (names == null) return;
+        for (String name : names) {
+            int fileGeneration = Math.max(generationOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX), generationOf(name, JOURNAL_PREFIX, JOURNAL_SUFFIX));
+            if (fileGeneration > 0 && fileGeneration < newGeneration) {
+                Files.deleteIfExists(new File(directory, name).toPath());
+            }
+        }
+    }
+
+    /**
+     * @return numer pokolenia z nazwy pliku (lub 0, jeśli nazwa nie pasuje)
+     */
+    private static int generationOf(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return 0;
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private File snapshotFile(int fileGeneration) {
+        return new File(directory, SNAPSHOT_PREFIX + fileGeneration + SNAPSHOT_SUFFIX);
+    }
+
+    private File journalFile(int fileGeneration) {
+        return new File(directory, JOURNAL_PREFIX + fileGeneration + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Bufor wpisów w pamięci. Wpis to długość (rodzaj i treść), rodzaj, treść i suma kontrolna CRC32 rodzaju i treści.
+     */
+    private static final class EntryBuffer extends ByteArrayOutputStream {
+
+        private final CRC32 crc = new CRC32();
+
+        /**
+         * zaczyna wpis danego rodzaju
+         *
+         * @return początek wpisu, potrzebny do end()
+         */
+        int begin(byte type) {
+            int start = count;
+            writeInt(0); //długość, uzupełniana w end()
+            write(type);
+            return start;
+        }
+
+        /**
+         * uzupełnia długość wpisu i dopisuje sumę kontrolną
+         */
+        void end(int start) {
+            int length = count - start - Integer.BYTES;
+            buf[start] = (byte) (length >>> 24);
+            buf[start + 1] = (byte) (length >>> 16);
+            buf[start + 2] = (byte) (length >>> 8);
+            buf[start + 3] = (byte) length;
+            crc.reset();
+            crc.update(buf, start + Integer.BYTES, length);
+            writeInt((int) crc.getValue());
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeInts(int[] values) {
+            for (int value : values) {
+                writeInt(value);
+            }
+        }
+
+        void writeString(String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -3,10 +3,16 @@ Autor: Filip Przygoński
 */
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * Pomocnicza tabela wyświetlająca różne informacje
@@ -46,6 +52,57 @@ class TableFrame extends JFrame {
             tableModel.addRow(row.toArray());
         }
 
+        showTable();
+    }
+
+    /**
+     * Tabela elementów grafu czytanych prosto z grafu - wiersze nie są kopiowane, a tabela odświeża się po zmianach grafu.
+     * Kliknięcie nagłówka sortuje według kolumny, a pole wyszukiwania zostawia tylko pasujące wiersze.
+     *
+     * @param title tytuł okienka
+     * @param model model tabeli, który przestaje śledzić graf po zamknięciu okienka
+     */
+    TableFrame(String title, GraphTableModel model) {
+        super(title);
+        setSize(1000, 600);
+        setLocationRelativeTo(getOwner());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        table = new JTable(model); //AbstractTableModel jest domyślnie nieedytowalny
+        GraphTableModel.Sorter sorter = new GraphTableModel.Sorter(model);
+        table.setRowSorter(sorter);
+
+        JTextField searchField = new JTextField();
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                sorter.setFilterText(searchField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                sorter.setFilterText(searchField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                sorter.setFilterText(searchField.getText());
+            }
+        });
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        searchPanel.add(new JLabel("Szukaj:"), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        add(searchPanel, BorderLayout.NORTH);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                model.dispose();
+            }
+        });
+
+        showTable();
+    }
+
+    private void showTable() {
         scrollPane = new JScrollPane(table);
         scrollPane.setPreferredSize(new Dimension(this.getWidth() - 10, this.getHeight() - 10));
         scrollPane.getVerticalScrollBar().setUnitIncrement(20);
@@ -62,8 +119,23 @@ class TableFrame extends JFrame {
  */
 public class GraphPanel extends JPanel implements KeyListener, MouseListener, MouseMotionListener, MouseWheelListener {
 
+    /**
+     * o ile powiększony jest zaznaczony przystanek
+     */
+    private static final int SELECTED_VERTEX_EXTRA_R = 5;
+
+    /**
+     * o ile pogrubione jest zaznaczone połączenie
+     */
+    private static final int SELECTED_EDGE_EXTRA_WIDTH = 3;
+
     private Graph graph;
 
+    /**
+     * przesunięcie i przybliżenie widoku grafu
+     */
+    private Viewport viewport;
+
     /**
      * obecnie zaznaczony przystanek
      */
@@ -83,13 +155,68 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
     private boolean dragging;
 
     /**
-     * boolean pamiętający, czy jakaś linia transportu jest zaznaczona
+     * wyróżniona linia transportu (null, jeśli żadna nie jest wyróżniona)
+     */
+    private TransportLine highlightedTransportLine;
+
+    /**
+     * połączenia wyróżnionej linii - stan widoku, sprawdzany przy rysowaniu zamiast zmieniania kolorów połączeń
+     */
+    private final HashSet<Edge> highlightedConnections = new HashSet<>();
+
+    /**
+     * wyszukiwarka tras, budowana od nowa dopiero gdy zmienią się przystanki lub linie
+     */
+    private JourneyPlanner journeyPlanner;
+
+    /**
+     * wyszukiwarka tras według rozkładów jazdy, budowana od nowa dopiero gdy zmienią się linie lub rozkłady
+     */
+    private TimetablePlanner timetablePlanner;
+
+    /**
+     * wyszukiwarka korzystająca z przygotowanej hierarchii skrótów (lub null, jeśli jej nie przygotowano albo sieć się od tego czasu zmieniła)
+     */
+    private HierarchyPlanner hierarchyPlanner;
+
+    /**
+     * obraz samej sieci, bez zaznaczenia i przeciąganych przystanków - rysowany od nowa tylko po zmianie grafu, widoku lub rozmiaru panelu,
+     * a zaznaczenie jest rysowane na nim przy każdym odświeżeniu
+     */
+    private BufferedImage baseLayer;
+
+    /**
+     * liczniki zmian grafu i widoku w chwili narysowania warstwy bazowej
+     */
+    private int baseLayerGraphVersion;
+    private int baseLayerViewportVersion;
+
+    /**
+     * boolean pamiętający, czy warstwę bazową trzeba narysować od nowa niezależnie od liczników zmian
+     */
+    private boolean baseLayerInvalidated = true;
+
+    /**
+     * przystanki przeciągane myszką - nie ma ich (ani ich połączeń) na warstwie bazowej, są rysowane na wierzchu
+     */
+    private final HashSet<Vertex> draggedStations = new HashSet<>();
+
+    /**
+     * przeciągany przystanek lub połączenie i o ile zostało przesunięte od początku przeciągania
+     */
+    private IMoving draggedObject;
+    private int draggedDx;
+    private int draggedDy;
+
+    /**
+     * zmiany grafu do cofnięcia i ponowienia
      */
-    private boolean lineHighlighted;
+    private final CommandHistory history = new CommandHistory();
 
     public GraphPanel() {
         super();
         graph = new Graph();
+        viewport = new Viewport();
         this.addKeyListener(this);
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
@@ -102,50 +229,39 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
     }
 
     /**
-     * zaznacza przystanek (powiększa go)
-     */
-    private void highlightVertex() {
-        if (currentVertex != null) {
-            currentVertex.setR(currentVertex.getR() + 5);
-        }
-    }
-
-    /**
-     * odznacza przystanek (pomniejsza go)
+     * metoda zajmująca się usuwaniem stacji
      */
-    private void unhighlightVertex() {
-        if (currentVertex != null) {
-            currentVertex.setR(currentVertex.getR() - 5);
+    private void removeStation() {
+        if (graph.countTransportLinesAt(currentVertex) > 0) {
+            JOptionPane.showMessageDialog(this, "Nie można usunąć przystanku przez który przejeżdżają jakiekolwiek linie!", "Błąd", JOptionPane.ERROR_MESSAGE);
+        } else {
+            history.execute(new GraphCommands.RemoveStation(graph, currentVertex));
+            currentVertex = null;
         }
     }
 
     /**
-     * zaznacza połączenie (powiększa je)
+     * cofa ostatnią zmianę grafu
      */
-    private void highlightEdge() {
-        if (currentEdge != null) {
-            currentEdge.setWidth(currentEdge.getWidth() + 3);
-        }
+    void undo() {
+        if (history.undo()) afterHistoryChange();
     }
 
     /**
-     * odznacza połączenie (pomniejsza je)
+     * ponawia ostatnią cofniętą zmianę grafu
      */
-    private void unhighlightEdge() {
-        if (currentEdge != null) {
-            currentEdge.setWidth(currentEdge.getWidth() - 3);
-        }
+    void redo() {
+        if (history.redo()) afterHistoryChange();
     }
 
     /**
-     * metoda zajmująca się usuwaniem stacji
+     * po cofnięciu lub ponowieniu zmiany zaznaczony przystanek lub połączenie mogły zniknąć z grafu, więc zaznaczenie jest usuwane
      */
-    private void removeStation() {
-        if (!graph.removeStation(currentVertex)) {
-            JOptionPane.showMessageDialog(this, "Nie można usunąć przystanku przez który przejeżdżają jakiekolwiek linie!", "Błąd", JOptionPane.ERROR_MESSAGE);
-        } else {
-            currentVertex = null;
-        }
+    private void afterHistoryChange() {
+        unhighlightTransportLine();
+        currentVertex = null;
+        currentEdge = null;
+        repaint();
     }
 
     /**
@@ -155,16 +271,12 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
      * @param y współrzędna y punktu kliknięcia
      */
     void leftClick(int x, int y) {
-        unhighlightVertex();
-        unhighlightEdge();
         currentVertex = null;
         currentEdge = null;
-        currentVertex = graph.returnVertexContainingAPoint(x, y);
+        currentVertex = graph.returnVertexContainingAPoint(x, y, viewport);
         if (currentVertex == null) {
-            currentEdge = graph.returnEdgeContainingAPoint(x, y);
+            currentEdge = graph.returnEdgeContainingAPoint(x, y, viewport);
         }
-        highlightVertex();
-        highlightEdge();
     }
 
     /**
@@ -190,14 +302,14 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
             menuChangeName.addActionListener(actionEvent -> {
                 String newName = JOptionPane.showInputDialog(this, "Podaj nową nazwę przystanku", "Nazwa przystanku", JOptionPane.PLAIN_MESSAGE);
                 if (newName == null) return;
-                currentVertex.setName(newName);
+                history.execute(new GraphCommands.Rename(currentVertex, newName));
                 repaint();
             });
             JMenuItem menuChangeColor = new JMenuItem("Zmień kolor");
             menuChangeColor.addActionListener(actionEvent -> {
                 Color newColor = JColorChooser.showDialog(this, "Wybierz nowy kolor przystanku", null);
                 if (newColor != null) {
-                    currentVertex.setColor(newColor);
+                    history.execute(new GraphCommands.Recolor(currentVertex, newColor));
                 }
                 repaint();
             });
@@ -211,20 +323,18 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
                     return;
                 }
                 if (newR > 0) {
-                    currentVertex.setR(newR + 5);//+5, bo jest zaznaczony, jak przestanie być zaznaczony, będzie danego rozmiaru
+                    history.execute(new GraphCommands.Resize(currentVertex, newR, false));
                 }
                 repaint();
             });
             JMenuItem menuShowTransportLines = new JMenuItem("Pokaż linie jadące przez ten przystanek");
             menuShowTransportLines.addActionListener(actionEvent -> {
-                ArrayList<TransportLine> transportLines = graph.getTransportLines();
+                ArrayList<TransportLine> transportLines = graph.getTransportLinesAt(currentVertex);
                 ArrayList<String> lineNumbers = new ArrayList<>();
                 ArrayList<String> lineDestinations = new ArrayList<>();
                 for (TransportLine transportLine : transportLines) {
-                    if (transportLine.containsStation(currentVertex)) {
-                        lineNumbers.add(transportLine.getLineNumber());
-                        lineDestinations.add(transportLine.getDestination());
-                    }
+                    lineNumbers.add(transportLine.getLineNumber());
+                    lineDestinations.add(transportLine.getDestination());
                 }
                 String[] tableHeader = {"Numer linii", "Kierunek"};
                 ArrayList<ArrayList<String>> data = new ArrayList<>();
@@ -245,14 +355,12 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
         } else if (currentEdge != null) {
             JMenuItem menuShowTransportLines = new JMenuItem("Pokaż linie jadące tą trasą");
             menuShowTransportLines.addActionListener(actionEvent -> {
-                ArrayList<TransportLine> transportLines = graph.getTransportLines();
+                ArrayList<TransportLine> transportLines = graph.getTransportLinesUsing(currentEdge);
                 ArrayList<String> lineNumbers = new ArrayList<>();
                 ArrayList<String> lineDestinations = new ArrayList<>();
                 for (TransportLine transportLine : transportLines) {
-                    if (transportLine.containsConnection(currentEdge)) {
-                        lineNumbers.add(transportLine.getLineNumber());
-                        lineDestinations.add(transportLine.getDestination());
-                    }
+                    lineNumbers.add(transportLine.getLineNumber());
+                    lineDestinations.add(transportLine.getDestination());
                 }
                 String[] tableHeader = {"Numer linii", "Kierunek"};
                 ArrayList<ArrayList<String>> data = new ArrayList<>();
@@ -268,8 +376,8 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
                 if (name == null) return;
                 Color newColor = JColorChooser.showDialog(this, "Wybierz nowy kolor przystanku", null);
                 if (newColor == null) return;
-                Vertex newVertex = new Vertex(x, y, name, newColor);
-                graph.addStation(newVertex);
+                Vertex newVertex = new Vertex((int) Math.round(viewport.toWorldX(x)), (int) Math.round(viewport.toWorldY(y)), name, newColor);
+                history.execute(new GraphCommands.AddStation(graph, newVertex));
                 repaint();
             });
             menu.add(menuCreateNewStation);
@@ -280,36 +388,19 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
 
     /**
      *
-     * @return który obiekt powinien zostać poruszony
+     * @return który obiekt powinien zostać poruszony (widok, jeśli nic nie jest zaznaczone)
      */
     IMoving objectToMove() {
         if (currentVertex != null) return currentVertex;
         else if (currentEdge != null) return currentEdge;
-        else return graph;
+        else return viewport;
     }
 
     /**
      * tworzy nowe okno i wyświetla w nim wszystkie stacje oraz liczbę linii zatrzymujących się tam
      */
     void showStations() {
-        ArrayList<String> stationsList = new ArrayList<>();
-        ArrayList<String> stationsAmountOfLineslist = new ArrayList<>();
-        ArrayList<Vertex> stations = graph.getStations();
-        ArrayList<TransportLine> transportLines = graph.getTransportLines();
-        for (Vertex station : stations) {
-            String stationName = station.getName();
-            stationsList.add(stationName);
-            int howManyLines = 0;
-            for (TransportLine transportLine : transportLines) {
-                if (transportLine.containsStation(station)) ++howManyLines;
-            }
-            stationsAmountOfLineslist.add(String.valueOf(howManyLines));
-        }
-        String[] tableHeader = {"Nazwa przystanku", "Ilość linii zatrzymujących się na tym przystanku"};
-        ArrayList<ArrayList<String>> data = new ArrayList<>();
-        data.add(stationsList);
-        data.add(stationsAmountOfLineslist);
-        new TableFrame("Wszystkie przystanki", tableHeader, data);
+        new TableFrame("Wszystkie przystanki", new GraphTableModel.Stations(graph));
     }
 
     /**
@@ -356,7 +447,7 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
         TransportLine transportLine = new TransportLine(lineNumber, transportType);
         editTransportLineStations(transportLine);
         if (transportLine.getStations().size() == 0) return;
-        graph.addTransportLine(transportLine);
+        history.execute(new GraphCommands.AddTransportLine(graph, transportLine));
         repaint();
     }
 
@@ -380,11 +471,10 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
             if (selectedType.equals(bus)) {
                 transportType = TransportLine.BUS;
             } else transportType = TransportLine.TRAM;
-            graph.removeTransportLine(transportLine);
-            transportLine.setLineNumber(lineNumber);
-            transportLine.setTransportType(transportType);
-            editTransportLineStations(transportLine);
-            graph.addTransportLine(transportLine);
+            TransportLine route = new TransportLine(lineNumber, transportType); //nowa trasa jest wybierana obok, linia zmienia się dopiero w poleceniu
+            editTransportLineStations(route);
+            if (route.getStations().size() == 0) return;
+            history.execute(new GraphCommands.EditTransportLine(graph, transportLine, lineNumber, transportType, route.getStations()));
             repaint();
         }
     }
@@ -415,32 +505,28 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
     void highlightTransportLine() {
         TransportLine transportLine = (TransportLine) JOptionPane.showInputDialog(this, "Wybierz którą linię chcesz wyróżnić", "", JOptionPane.PLAIN_MESSAGE, null, graph.getTransportLines().toArray(), null);
         if (transportLine != null) {
-            ArrayList<Edge> connections = graph.getConnections();
-            for (Edge connection : connections) {
-                if (transportLine.containsConnection(connection)) {
-                    connection.setColor(Color.RED);
-                } else {
-                    connection.setColor(Color.GRAY);
+            highlightedConnections.clear();
+            ArrayList<Vertex> stations = transportLine.getStations();
+            for (int i = 0; i < stations.size() - 1; ++i) {
+                Edge connection = graph.getConnection(stations.get(i), stations.get(i + 1));
+                if (connection != null) {
+                    highlightedConnections.add(connection);
                 }
             }
+            highlightedTransportLine = transportLine;
+            invalidateBaseLayer();
             repaint();
-            lineHighlighted = true;
         }
     }
 
     /**
-     * ustawia wszystkim liniom domyślny kolor
+     * przywraca wszystkim liniom domyślny kolor
      */
     void unhighlightTransportLine() {
-        if (lineHighlighted) {
-            ArrayList<TransportLine> transportLines = graph.getTransportLines();
-            int transportLinesSize = transportLines.size();
-            for (int i = 0; i < transportLinesSize; ++i) {
-                //TODO na pewno można to optymalniej zrobić
-                TransportLine transportLine = transportLines.get(0);
-                graph.removeTransportLine(transportLine);
-                graph.addTransportLine(transportLine);
-            }
+        if (highlightedTransportLine != null) {
+            highlightedTransportLine = null;
+            highlightedConnections.clear();
+            invalidateBaseLayer();
             repaint();
         }
     }
@@ -450,29 +536,135 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
      */
     void deleteTransportLine() {
         TransportLine transportLine = (TransportLine) JOptionPane.showInputDialog(this, "Wybierz którą linię chcesz usunąć", "", JOptionPane.PLAIN_MESSAGE, null, graph.getTransportLines().toArray(), null);
-        graph.removeTransportLine(transportLine);
+        if (transportLine == null) return;
+        history.execute(new GraphCommands.RemoveTransportLine(graph, transportLine));
         repaint();
     }
 
     /**
-     * tworzy nowe okno i wyświetla w nim wszystkie linie oraz liczbę ich przystanków
+     * @return wyszukiwarka korzystająca z hierarchii skrótów, jeśli hierarchia pasuje do obecnej sieci (lub null) - zmiany, które nie ruszyły
+     * przystanków ani tras linii (np. rozkład lub kierunek linii), jej nie psują
      */
-    void showTransportLines() {
-        ArrayList<TransportLine> transportLines = graph.getTransportLines();
+    private HierarchyPlanner hierarchyPlanner() {
+        if (hierarchyPlanner == null || hierarchyPlanner.getHierarchy().isUpToDate(graph)) return hierarchyPlanner;
+        ContractionHierarchy hierarchy;
+        try {
+            hierarchy = hierarchyPlanner.getHierarchy().forSnapshot(graph.publish());
+        } catch (IOException e) {
+            hierarchy = null;
+        }
+        hierarchyPlanner = hierarchy == null ? null : new HierarchyPlanner(hierarchy);
+        return hierarchyPlanner;
+    }
+
+    /**
+     * użytkownik wybiera przystanek początkowy, docelowy i rodzaj trasy, a znaleziona trasa wyświetla się w nowym oknie
+     */
+    void findJourney() {
+        Object[] stations = graph.getStations().toArray();
+        Vertex from = (Vertex) JOptionPane.showInputDialog(this, "Wybierz przystanek początkowy", "Wyszukiwanie trasy", JOptionPane.PLAIN_MESSAGE, null, stations, null);
+        if (from == null)
+            return;
+        Vertex to = (Vertex) JOptionPane.showInputDialog(this, "Wybierz przystanek docelowy", "Wyszukiwanie trasy", JOptionPane.PLAIN_MESSAGE, null, stations, null);
+        if (to == null)
+            return;
+        String fastest = "Najmniej przystanków";
+        String fewestTransfers = "Najmniej przesiadek";
+        String earliestArrival = "Najwcześniejszy przyjazd (rozkład)";
+        if (timetablePlanner == null || !timetablePlanner.isUpToDate()) {
+            timetablePlanner = new TimetablePlanner(graph);
+        }
+        String[] journeyTypes = timetablePlanner.hasTimetables() ? new String[]{fastest, fewestTransfers, earliestArrival} : new String[]{fastest, fewestTransfers};
+        String selectedType = (String) JOptionPane.showInputDialog(this, "Wybierz rodzaj trasy", "Wyszukiwanie trasy", JOptionPane.PLAIN_MESSAGE, null, journeyTypes, null);
+        if (selectedType == null)
+            return;
+        Journey journey;
+        if (selectedType.equals(earliestArrival)) {
+            String time = JOptionPane.showInputDialog(this, "Podaj godzinę odjazdu (GG:MM)", Timetable.formatTime(LocalTime.now().toSecondOfDay() / 60 * 60));
+            if (time == null)
+                return;
+            int departureTime;
+            try {
+                departureTime = Timetable.parseTime(time);
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(this, "Nieprawidłowa godzina: " + time, "Błąd", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            journey = timetablePlanner.findEarliestArrival(from, to, departureTime);
+        } else {
+            if (journeyPlanner == null || !journeyPlanner.isUpToDate()) {
+                journeyPlanner = new JourneyPlanner(graph);
+            }
+            if (selectedType.equals(fastest)) {
+                HierarchyPlanner planner = hierarchyPlanner();
+                journey = planner != null ? planner.findFastestJourney(from, to) : journeyPlanner.findFastestJourney(from, to);
+            } else journey = journeyPlanner.findJourneyWithFewestTransfers(from, to);
+        }
+        if (journey == null) {
+            JOptionPane.showMessageDialog(this, "Nie da się dojechać z " + from.getName() + " do " + to.getName(), "Brak trasy", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (journey.getArrivalTime() >= 0) {
+            showTimedJourney(from, to, journey);
+            return;
+        }
+        ArrayList<String> lineNumbers = new ArrayList<>();
+        ArrayList<String> lineDestinations = new ArrayList<>();
+        ArrayList<String> boardingStations = new ArrayList<>();
+        ArrayList<String> alightingStations = new ArrayList<>();
+        ArrayList<String> stopsTravelled = new ArrayList<>();
+        for (Journey.Leg leg : journey.getLegs()) {
+            lineNumbers.add(leg.getTransportLine().getLineNumber());
+            lineDestinations.add(leg.getTransportLine().getDestination());
+            boardingStations.add(leg.getBoardingStation().getName());
+            alightingStations.add(leg.getAlightingStation().getName());
+            stopsTravelled.add(String.valueOf(leg.getStopsTravelled()));
+        }
+        String[] tableHeader = {"Numer linii", "Kierunek", "Wsiadanie", "Wysiadanie", "Ilość przystanków"};
+        ArrayList<ArrayList<String>> data = new ArrayList<>();
+        data.add(lineNumbers);
+        data.add(lineDestinations);
+        data.add(boardingStations);
+        data.add(alightingStations);
+        data.add(stopsTravelled);
+        new TableFrame("Trasa z " + from.getName() + " do " + to.getName() + " (przesiadki: " + journey.getTransfers() + ")", tableHeader, data);
+    }
+
+    /**
+     * wyświetla w nowym oknie trasę z rozkładu, z godzinami odjazdów i przyjazdów
+     */
+    private void showTimedJourney(Vertex from, Vertex to, Journey journey) {
         ArrayList<String> lineNumbers = new ArrayList<>();
         ArrayList<String> lineDestinations = new ArrayList<>();
-        ArrayList<String> lineAmountOfStations = new ArrayList<>();
-        for (TransportLine transportLine : transportLines) {
-            lineNumbers.add(transportLine.getLineNumber());
-            lineDestinations.add(transportLine.getDestination());
-            lineAmountOfStations.add(String.valueOf(transportLine.getStations().size()));
+        ArrayList<String> departures = new ArrayList<>();
+        ArrayList<String> boardingStations = new ArrayList<>();
+        ArrayList<String> arrivals = new ArrayList<>();
+        ArrayList<String> alightingStations = new ArrayList<>();
+        for (Journey.Leg leg : journey.getLegs()) {
+            lineNumbers.add(leg.getTransportLine().getLineNumber());
+            lineDestinations.add(leg.getTransportLine().getDestination());
+            departures.add(Timetable.formatTime(leg.getDepartureTime()));
+            boardingStations.add(leg.getBoardingStation().getName());
+            arrivals.add(Timetable.formatTime(leg.getArrivalTime()));
+            alightingStations.add(leg.getAlightingStation().getName());
         }
-        String[] tableHeader = {"Numer linii", "Kierunek", "Ilość przystanków"};
+        String[] tableHeader = {"Numer linii", "Kierunek", "Odjazd", "Wsiadanie", "Przyjazd", "Wysiadanie"};
         ArrayList<ArrayList<String>> data = new ArrayList<>();
         data.add(lineNumbers);
         data.add(lineDestinations);
-        data.add(lineAmountOfStations);
-        new TableFrame("Wszystkie linie", tableHeader, data);
+        data.add(departures);
+        data.add(boardingStations);
+        data.add(arrivals);
+        data.add(alightingStations);
+        new TableFrame("Trasa z " + from.getName() + " do " + to.getName() + " (" + Timetable.formatTime(journey.getDepartureTime()) + " - "
+                + Timetable.formatTime(journey.getArrivalTime()) + ", przesiadki: " + journey.getTransfers() + ")", tableHeader, data);
+    }
+
+    /**
+     * tworzy nowe okno i wyświetla w nim wszystkie linie oraz liczbę ich przystanków
+     */
+    void showTransportLines() {
+        new TableFrame("Wszystkie linie", new GraphTableModel.TransportLines(graph));
     }
 
     /**
@@ -483,29 +675,32 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
         int key = e.getKeyCode();
         byte dist = 1;
         if (e.isShiftDown()) dist = 10;
+        int step = dist;
+        if (objectToMove() != viewport) {
+            step = (int) Math.max(1, Math.round(viewport.toWorldDistance(dist))); //przystanki przesuwają się o tyle samo pikseli ekranu przy każdym przybliżeniu
+        }
         switch (key) {
             case KeyEvent.VK_LEFT:
-                objectToMove().move(-dist, 0);
+                moveByKey(-step, 0);
                 break;
             case KeyEvent.VK_RIGHT:
-                objectToMove().move(dist, 0);
+                moveByKey(step, 0);
                 break;
             case KeyEvent.VK_UP:
-                objectToMove().move(0, dist);
+                moveByKey(0, step);
                 break;
             case KeyEvent.VK_DOWN:
-                objectToMove().move(0, -dist);
+                moveByKey(0, -step);
                 break;
             case KeyEvent.VK_ADD:
                 if (currentVertex != null) {
-                    currentVertex.setR(currentVertex.getR() + dist);
+                    history.execute(new GraphCommands.Resize(currentVertex, currentVertex.getR() + dist, true));
                 }
                 break;
             case KeyEvent.VK_SUBTRACT:
                 if (currentVertex != null) {
-                    int currentR = currentVertex.getR() - 5; //-5, bo jest zaznaczony, a zaznaczenie powiększa o 5
-                    if (currentR - dist > 0) {
-                        currentVertex.setR(currentVertex.getR() - dist);
+                    if (currentVertex.getR() - dist > 0) {
+                        history.execute(new GraphCommands.Resize(currentVertex, currentVertex.getR() - dist, true));
                     }
                 }
                 break;
@@ -517,6 +712,20 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
         }
     }
 
+    /**
+     * przesuwa zaznaczony przystanek lub połączenie (jako zmianę do cofnięcia), a jeśli nic nie jest zaznaczone - widok
+     * @param dx o ile w prawo
+     * @param dy o ile w górę
+     */
+    private void moveByKey(int dx, int dy) {
+        IMoving objectToMove = objectToMove();
+        if (objectToMove == viewport) {
+            viewport.move(dx, dy);
+        } else {
+            history.execute(new GraphCommands.Move(objectToMove, dx, dy, true));
+        }
+    }
+
     /**
      * zajmuje się wyborem odpowiedniej akcji w zależności od naciśniętego przycisku myszki
      * @param e
@@ -551,8 +760,17 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
      * @param e
      */
     void mouseReleasedHandling(MouseEvent e) {
-        if (e.getButton() == MouseEvent.BUTTON1)
+        if (e.getButton() == MouseEvent.BUTTON1) {
             dragging = false;
+            if (!draggedStations.isEmpty()) {
+                draggedStations.clear();
+                invalidateBaseLayer();
+                if (draggedDx != 0 || draggedDy != 0) {
+                    history.add(new GraphCommands.Move(draggedObject, draggedDx, draggedDy, false)); //całe przeciągnięcie cofa się jednym przesunięciem
+                }
+                draggedObject = null;
+            }
+        }
     }
 
     /**
@@ -563,35 +781,151 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
         int newMouseX = e.getX();
         int newMouseY = e.getY();
         if (dragging) {
-            objectToMove().move(newMouseX - mouseX, mouseY - newMouseY);
+            IMoving objectToMove = objectToMove();
+            if (objectToMove == viewport) {
+                viewport.move(newMouseX - mouseX, mouseY - newMouseY);
+            } else {
+                //różnica zaokrąglonych współrzędnych mapy, żeby przy przybliżeniu przystanek nie odstawał od kursora
+                int dx = (int) Math.round(viewport.toWorldX(newMouseX)) - (int) Math.round(viewport.toWorldX(mouseX));
+                int dy = (int) Math.round(viewport.toWorldY(mouseY)) - (int) Math.round(viewport.toWorldY(newMouseY));
+                if (draggedStations.isEmpty()) {
+                    //początek przeciągania - warstwa bazowa zostanie raz narysowana bez przeciąganych przystanków
+                    if (currentVertex != null) {
+                        draggedStations.add(currentVertex);
+                    } else {
+                        draggedStations.add(currentEdge.getFirstVertex());
+                        draggedStations.add(currentEdge.getSecondVertex());
+                    }
+                    invalidateBaseLayer();
+                    draggedObject = objectToMove;
+                    draggedDx = 0;
+                    draggedDy = 0;
+                }
+                boolean baseLayerUpToDate = isBaseLayerUpToDate();
+                objectToMove.move(dx, dy);
+                draggedDx += dx;
+                draggedDy += dy;
+                if (baseLayerUpToDate) {
+                    baseLayerGraphVersion = graph.getVersion(); //zmieniły się tylko przystanki, których nie ma na warstwie bazowej
+                }
+            }
         }
         mouseX = newMouseX;
         mouseY = newMouseY;
     }
 
     /**
-     * jeśli wykryto scroll myszki, odpowiednio dzieje się zoom in albo zoom out
+     * jeśli wykryto scroll myszki, odpowiednio dzieje się zoom in albo zoom out względem kursora
      * @param e
      */
     void mouseWheelMovedHandling(MouseWheelEvent e) {
         int wheelRotation = e.getWheelRotation();
-        ArrayList<Vertex> vertices = graph.getStations();
         boolean zoomIn = wheelRotation > 0;
         double zoomInOrOut;
         if (zoomIn) zoomInOrOut = 0.9;
         else zoomInOrOut = 1.1;
-        for (Vertex vertex : vertices) {
-            int newX=(int) (zoomInOrOut * vertex.getX());
-            int newY=(int) (zoomInOrOut * vertex.getY());
-            vertex.setX(newX);
-            vertex.setY(newY);
+        viewport.zoom(zoomInOrOut, e.getX(), e.getY());
+    }
+
+    /**
+     * wymusza narysowanie warstwy bazowej od nowa przy następnym odświeżeniu
+     */
+    void invalidateBaseLayer() {
+        baseLayerInvalidated = true;
+    }
+
+    /**
+     * @return czy warstwa bazowa pokazuje obecny graf w obecnym widoku i ma rozmiar panelu
+     */
+    private boolean isBaseLayerUpToDate() {
+        return baseLayer != null && !baseLayerInvalidated
+                && baseLayer.getWidth() == getWidth() && baseLayer.getHeight() == getHeight()
+                && baseLayerGraphVersion == graph.getVersion() && baseLayerViewportVersion == viewport.getVersion();
+    }
+
+    /**
+     * rysuje od nowa warstwę bazową: tło i cały widoczny graf, bez przeciąganych przystanków
+     */
+    private void renderBaseLayer() {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        if (baseLayer == null || baseLayer.getWidth() != width || baseLayer.getHeight() != height) {
+            GraphicsConfiguration graphicsConfiguration = getGraphicsConfiguration();
+            if (graphicsConfiguration != null) {
+                baseLayer = graphicsConfiguration.createCompatibleImage(width, height); //obraz w formacie ekranu kopiuje się najszybciej
+            } else {
+                baseLayer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+        }
+        Graphics2D g = baseLayer.createGraphics();
+        try {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, width, height);
+            g.setFont(getFont());
+            g.setClip(0, 0, width, height);
+            graph.draw(g, viewport, draggedStations, highlightedTransportLine == null ? null : highlightedConnections);
+        } finally {
+            g.dispose();
+        }
+        baseLayerGraphVersion = graph.getVersion();
+        baseLayerViewportVersion = viewport.getVersion();
+        baseLayerInvalidated = false;
+    }
+
+    /**
+     * @param connection połączenie
+     * @return kolor połączenia z uwzględnieniem wyróżnionej linii
+     */
+    private Color connectionColor(Edge connection) {
+        return Graph.colorOf(connection, highlightedTransportLine == null ? null : highlightedConnections);
+    }
+
+    /**
+     * rysuje na warstwie bazowej przeciągane przystanki z ich połączeniami oraz zaznaczony przystanek lub połączenie
+     *
+     * @param g obiekt klasy Graphics odpowiedzialny za rysowanie
+     */
+    private void paintOverlay(Graphics g) {
+        for (Vertex station : draggedStations) {
+            for (Edge connection : graph.getConnectionsAt(station)) {
+                if (connection != currentEdge) {
+                    connection.draw(g, viewport, connection.getWidth(), connectionColor(connection));
+                }
+            }
+        }
+        if (currentEdge != null) {
+            currentEdge.draw(g, viewport, currentEdge.getWidth() + SELECTED_EDGE_EXTRA_WIDTH, connectionColor(currentEdge));
+        }
+        for (Vertex station : draggedStations) {
+            for (Edge connection : graph.getConnectionsAt(station)) {
+                Vertex neighbour = connection.getFirstVertex() == station ? connection.getSecondVertex() : connection.getFirstVertex();
+                if (!draggedStations.contains(neighbour)) {
+                    neighbour.draw(g, viewport); //połączenie narysowane na wierzchu zakryłoby sąsiedni przystanek
+                }
+            }
+        }
+        if (currentEdge != null) {
+            currentEdge.getFirstVertex().draw(g, viewport);
+            currentEdge.getSecondVertex().draw(g, viewport);
+        }
+        for (Vertex station : draggedStations) {
+            if (station != currentVertex) {
+                station.draw(g, viewport);
+            }
+        }
+        if (currentVertex != null) {
+            currentVertex.draw(g, viewport, currentVertex.getR() + SELECTED_VERTEX_EXTRA_R, true);
         }
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        graph.draw(g);
+        if (!isBaseLayerUpToDate()) {
+            renderBaseLayer();
+        }
+        g.drawImage(baseLayer, 0, 0, null);
+        paintOverlay(g);
     }
 
     @Override
@@ -662,10 +996,36 @@ public class GraphPanel extends JPanel implements KeyListener, MouseListener, Mo
     public void setGraph(Graph graph) {
         if (graph != null) {
             this.graph = graph;
+            journeyPlanner = null;
+            timetablePlanner = null;
+            hierarchyPlanner = null;
+            viewport = new Viewport();
+            highlightedTransportLine = null;
+            highlightedConnections.clear();
+            currentVertex = null;
+            currentEdge = null;
+            draggedStations.clear();
+            draggedObject = null;
+            history.clear();
+            invalidateBaseLayer();
             repaint();
         }
     }
 
+    /**
+     * @return hierarchia skrótów, z której korzysta wyszukiwanie tras (lub null) - może być nieaktualna, jeśli sieć się zmieniła
+     */
+    public ContractionHierarchy getHierarchy() {
+        return hierarchyPlanner == null ? null : hierarchyPlanner.getHierarchy();
+    }
+
+    /**
+     * @param hierarchy hierarchia skrótów obecnej sieci, przyspieszająca wyszukiwanie tras przejeżdżających najmniej przystanków (lub null)
+     */
+    public void setHierarchy(ContractionHierarchy hierarchy) {
+        hierarchyPlanner = hierarchy == null ? null : new HierarchyPlanner(hierarchy);
+    }
+
     public Vertex getCurrentVertex() {
         return currentVertex;
     }
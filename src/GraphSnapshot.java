@@ -0,0 +1,227 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Niezmienna kopia zawartości grafu (np. do zapisania do pliku albo wyszukiwania tras): przystanki, linie i połączenia jako tablice,
+ * w których przystanki są wskazywane przez numery. Kopię robi się szybko w wątku, w którym zmieniany jest graf,
+ * a potem można ją czytać w dowolnej liczbie innych wątków naraz, bez blokad, podczas gdy graf jest dalej edytowany.
+ * Obiekty przystanków i linii służą w kopii tylko do wskazywania ich (np. w znalezionej trasie) - ich pól nie wolno czytać poza wątkiem grafu.
+ */
+final class GraphSnapshot {
+
+    /**
+     * liczniki zmian grafu (getVersion() i getStructureVersion()) w chwili zrobienia kopii
+     */
+    final int version;
+    final int structureVersion;
+
+    /**
+     * graf, z którego zrobiono kopię - tylko do sprawdzenia, czy kopia pochodzi z danego grafu, bo liczniki zmian różnych grafów mogą być równe
+     */
+    private final Graph graph;
+
+    /**
+     * przystanki i linie grafu w kolejności ich numerów w kopii
+     */
+    private final Vertex[] stations;
+    private final TransportLine[] transportLines;
+    private final HashMap<Vertex, Integer> stationIndices;
+
+    final int[] stationX;
+    final int[] stationY;
+    final int[] stationR;
+    final int[] stationColor;
+    final String[] stationNames;
+
+    final String[] lineNumbers;
+    final String[] lineDestinations;
+    final byte[] transportTypes;
+
+    /**
+     * rozkłady jazdy linii (null dla linii bez rozkładu) - rozkłady są niezmienne, więc kopia tylko je wskazuje
+     */
+    final Timetable[] timetables;
+
+    /**
+     * trasa linii i to stops[stopOffsets[i]] ... stops[stopOffsets[i + 1] - 1]
+     */
+    final int[] stopOffsets;
+    final int[] stops;
+
+    final int[] firstStations;
+    final int[] secondStations;
+
+    /**
+     * obraz sieci do wyszukiwania tras, budowany przy pierwszym użyciu
+     */
+    private volatile NetworkCore core;
+
+    /**
+     * obraz rozkładów jazdy do wyszukiwania tras w czasie, budowany przy pierwszym użyciu
+     */
+    private volatile TimetableCore timetableCore;
+
+    private GraphSnapshot(Graph graph) throws IOException {
+        ArrayList<Vertex> stations = graph.getStations();
+        ArrayList<TransportLine> transportLines = graph.getTransportLines();
+        ArrayList<Edge> connections = graph.getConnections();
+        int stationCount = stations.size();
+        int lineCount = transportLines.size();
+        int connectionCount = connections.size();
+        version = graph.getVersion();
+        structureVersion = graph.getStructureVersion();
+        this.graph = graph;
+
+        this.stations = stations.toArray(new Vertex[0]);
+        this.transportLines = transportLines.toArray(new TransportLine[0]);
+        stationIndices = new HashMap<>(2 * stationCount);
+        stationX = new int[stationCount];
+        stationY = new int[stationCount];
+        stationR = new int[stationCount];
+        stationColor = new int[stationCount];
+        stationNames = new String[stationCount];
+        for (int i = 0; i < stationCount; ++i) {
+            Vertex station = stations.get(i);
+            stationIndices.put(station, i);
+            stationX[i] = station.getX();
+            stationY[i] = station.getY();
+            stationR[i] = station.getR();
+            stationColor[i] = station.getColor().getRGB();
+            stationNames[i] = station.getName();
+        }
+
+        lineNumbers = new String[lineCount];
+        lineDestinations = new String[lineCount];
+        transportTypes = new byte[lineCount];
+        timetables = new Timetable[lineCount];
+        stopOffsets = new int[lineCount + 1];
+        int stopCount = 0;
+        for (int i = 0; i < lineCount; ++i) {
+            TransportLine transportLine = transportLines.get(i);
+            lineNumbers[i] = transportLine.getLineNumber();
+            lineDestinations[i] = transportLine.getDestination();
+            transportTypes[i] = transportLine.getTransportType();
+            Timetable timetable = transportLine.getTimetable();
+            timetables[i] = timetable != null && timetable.getStopCount() == transportLine.getStations().size() ? timetable : null;
+            stopOffsets[i] = stopCount;
+            stopCount += transportLine.getStations().size();
+        }
+        stopOffsets[lineCount] = stopCount;
+        stops = new int[stopCount];
+        int stop = 0;
+        for (TransportLine transportLine : transportLines) {
+            for (Vertex station : transportLine.getStations()) {
+                stops[stop++] = requireIndexOf(station);
+            }
+        }
+
+        firstStations = new int[connectionCount];
+        secondStations = new int[connectionCount];
+        for (int i = 0; i < connectionCount; ++i) {
+            Edge connection = connections.get(i);
+            firstStations[i] = requireIndexOf(connection.getFirstVertex());
+            secondStations[i] = requireIndexOf(connection.getSecondVertex());
+        }
+    }
+
+    /**
+     * kopiuje graf; graf nie może się zmieniać w trakcie kopiowania (np. trzeba kopiować w wątku obsługi zdarzeń Swinga),
+     * a kopię obecnego stanu, wspólną dla wszystkich czytających, daje Graph.publish()
+     *
+     * @param graph graf
+     * @return kopia grafu
+     * @throws IOException gdy linia zatrzymuje się na przystanku spoza grafu
+     */
+    static GraphSnapshot of(Graph graph) throws IOException {
+        return new GraphSnapshot(graph);
+    }
+
+    int getStationCount() {
+        return stationX.length;
+    }
+
+    int getLineCount() {
+        return lineNumbers.length;
+    }
+
+    int getConnectionCount() {
+        return firstStations.length;
+    }
+
+    int getStopCount() {
+        return stops.length;
+    }
+
+    /**
+     * @param station przystanek
+     * @return numer przystanku w kopii (lub -1, jeśli przystanku nie było w grafie)
+     */
+    int indexOf(Vertex station) {
+        Integer index = stationIndices.get(station);
+        return index == null ? -1 : index;
+    }
+
+    Vertex getStation(int index) {
+        return stations[index];
+    }
+
+    TransportLine getTransportLine(int index) {
+        return transportLines[index];
+    }
+
+    /**
+     * @param graph graf
+     * @return czy kopia pokazuje obecny stan danego grafu
+     */
+    boolean isUpToDate(Graph graph) {
+        return this.graph == graph && graph.getVersion() == version;
+    }
+
+    /**
+     * @param graph graf
+     * @return czy od zrobienia kopii nie zmieniły się przystanki ani linie danego grafu
+     */
+    boolean isStructureUpToDate(Graph graph) {
+        return this.graph == graph && graph.getStructureVersion() == structureVersion;
+    }
+
+    /**
+     * Obraz sieci do wyszukiwania tras, budowany z kopii przy pierwszym użyciu - w dowolnym wątku.
+     * Gdy kilka wątków zbuduje go naraz, każdy dostaje taki sam obraz, a zapamiętany zostaje jeden z nich.
+     *
+     * @return obraz sieci zbudowany z tej kopii
+     */
+    NetworkCore getCore() {
+        NetworkCore result = core;
+        if (result == null) {
+            result = new NetworkCore(this);
+            core = result;
+        }
+        return result;
+    }
+
+    /**
+     * Obraz rozkładów jazdy do wyszukiwania tras w czasie, budowany z kopii przy pierwszym użyciu - w dowolnym wątku, jak getCore().
+     *
+     * @return obraz rozkładów zbudowany z tej kopii
+     */
+    TimetableCore getTimetableCore() {
+        TimetableCore result = timetableCore;
+        if (result == null) {
+            result = new TimetableCore(this);
+            timetableCore = result;
+        }
+        return result;
+    }
+
+    private int requireIndexOf(Vertex station) throws IOException {
+        Integer index = stationIndices.get(station);
+        if (index == null) throw new IOException("Przystanek " + station.getName() + " nie należy do sieci");
+        return index;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Model tabeli czytający wiersze prosto z list grafu, tylko dla widocznych komórek - tabela z wieloma tysiącami wierszy otwiera się od razu.
+ * Do sortowania i filtrowania model podaje klucze wyliczane raz, przy pierwszym użyciu, a nie przy każdym porównaniu.
+ * Model śledzi graf: tabela jest odświeżana od razu po zmianie, w wątku, w którym zmieniany jest graf, więc nigdy nie czyta list grafu
+ * ze starą liczbą wierszy; wszystkie zmiany wprowadzone naraz (np. paczka zmian) odświeżają ją tylko raz.
+ */
+abstract class GraphTableModel extends AbstractTableModel implements IGraphListener {
+
+    private static final long serialVersionUID = -6434126876883227116L;
+
+    protected final Graph graph;
+    private final String[] columnNames;
+
+    /**
+     * klucze wyszukiwania wierszy (małymi literami) lub null, jeśli trzeba je wyliczyć od nowa
+     */
+    private String[] searchKeys;
+
+    /**
+     * licznik zmian przystanków i linii grafu przy ostatnim odświeżeniu - samo przesunięcie lub zmiana koloru przystanku nie zmienia tabeli
+     */
+    private int structureVersion;
+
+    /**
+     * @param graph       graf, którego elementy są wierszami tabeli
+     * @param columnNames opis kolumn
+     */
+    GraphTableModel(Graph graph, String[] columnNames) {
+        this.graph = graph;
+        this.columnNames = columnNames;
+        structureVersion = graph.getStructureVersion();
+        graph.addListener(this);
+    }
+
+    /**
+     * przestaje śledzić graf (gdy okno z tabelą zostanie zamknięte)
+     */
+    void dispose() {
+        graph.removeListener(this);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * @param row    numer wiersza w modelu
+     * @param column numer kolumny
+     * @return klucz, według którego wiersz jest sortowany w danej kolumnie
+     */
+    abstract Comparable<?> getSortKey(int row, int column);
+
+    /**
+     * @param row numer wiersza w modelu
+     * @return tekst wiersza, w którym szukany jest filtr, małymi literami
+     */
+    abstract String searchText(int row);
+
+    /**
+     * wylicza klucze wyszukiwania, gdy są potrzebne pierwszy raz po zmianie grafu
+     */
+    String getSearchKey(int row) {
+        if (searchKeys == null) {
+            searchKeys = new String[getRowCount()];
+            for (int i = 0; i < searchKeys.length; ++i) {
+                searchKeys[i] = searchText(i);
+            }
+        }
+        return searchKeys[row];
+    }
+
+    /**
+     * zapomina klucze wyliczone z poprzedniego stanu grafu
+     */
+    void clearKeys() {
+        searchKeys = null;
+    }
+
+    /**
+     * odświeża tabelę, jeśli zmieniły się przystanki lub linie grafu - graf powiadamia o zmianach paczki dopiero po wprowadzeniu ich wszystkich,
+     * więc pierwsze powiadomienie odświeża tabelę, a kolejne nic już nie robią
+     */
+    private void refresh() {
+        if (structureVersion == graph.getStructureVersion()) return;
+        structureVersion = graph.getStructureVersion();
+        clearKeys();
+        fireTableDataChanged();
+    }
+
+    @Override
+    public void stationAdded(Vertex station) {
+        refresh();
+    }
+
+    @Override
+    public void stationRemoved(Vertex station) {
+        refresh();
+    }
+
+    @Override
+    public void stationChanged(Vertex station) {
+        refresh();
+    }
+
+    @Override
+    public void transportLineAdded(TransportLine transportLine) {
+        refresh();
+    }
+
+    @Override
+    public void transportLineRemoved(TransportLine transportLine) {
+        refresh();
+    }
+
+    /**
+     * Sortuje i filtruje wiersze tabeli według kluczy z modelu, bez zamieniania wartości komórek na tekst przy każdym porównaniu.
+     */
+    static final class Sorter extends DefaultRowSorter<GraphTableModel, Integer> {
+
+        Sorter(GraphTableModel model) {
+            setModelWrapper(new ModelWrapper<GraphTableModel, Integer>() {
+                @Override
+                public GraphTableModel getModel() {
+                    return model;
+                }
+
+                @Override
+                public int getColumnCount() {
+                    return model.getColumnCount();
+                }
+
+                @Override
+                public int getRowCount() {
+                    return model.getRowCount();
+                }
+
+                @Override
+                public Object getValueAt(int row, int column) {
+                    return model.getSortKey(row, column);
+                }
+
+                @Override
+                public String getStringValueAt(int row, int column) {
+                    return model.getSearchKey(row);
+                }
+
+                @Override
+                public Integer getIdentifier(int row) {
+                    return row;
+                }
+            });
+            for (int column = 0; column < model.getColumnCount(); ++column) {
+                setComparator(column, Comparator.naturalOrder());
+            }
+        }
+
+        /**
+         * zostawia tylko wiersze zawierające dany tekst (bez względu na wielkość liter)
+         *
+         * @param text szukany tekst (pusty pokazuje wszystkie wiersze)
+         */
+        void setFilterText(String text) {
+            String key = text.trim().toLowerCase(Locale.ROOT);
+            if (key.isEmpty()) {
+                setRowFilter(null);
+            } else {
+                setRowFilter(new RowFilter<GraphTableModel, Integer>() {
+                    @Override
+                    public boolean include(Entry<? extends GraphTableModel, ? extends Integer> entry) {
+                        return entry.getModel().getSearchKey(entry.getIdentifier()).contains(key);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Wszystkie przystanki i liczba linii zatrzymujących się na każdym z nich.
+     * Lista przystanków grafu jest posortowana według nazw, więc kluczem sortowania nazw jest po prostu numer wiersza.
+     */
+    static final class Stations extends GraphTableModel {
+
+        private static final long serialVersionUID = -8725678093519528751L;
+
+        /**
+         * liczba linii na przystankach, wyliczana do sortowania (lub null)
+         */
+        private Integer[] lineCounts;
+
+        Stations(Graph graph) {
+            super(graph, new String[]{"Nazwa przystanku", "Ilość linii zatrzymujących się na tym przystanku"});
+        }
+
+        @Override
+        public int getRowCount() {
+            return graph.getStations().size();
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : Integer.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Vertex station = graph.getStations().get(row);
+            if (column == 0) return station.getName();
+            return graph.countTransportLinesAt(station);
+        }
+
+        @Override
+        Comparable<?> getSortKey(int row, int column) {
+            if (column == 0) return row;
+            if (lineCounts == null) {
+                ArrayList<Vertex> stations = graph.getStations();
+                lineCounts = new Integer[stations.size()];
+                for (int i = 0; i < lineCounts.length; ++i) {
+                    lineCounts[i] = graph.countTransportLinesAt(stations.get(i));
+                }
+            }
+            return lineCounts[row];
+        }
+
+        @Override
+        String searchText(int row) {
+            return graph.getStations().get(row).getName().toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        void clearKeys() {
+            super.clearKeys();
+            lineCounts = null;
+        }
+    }
+
+    /**
+     * Wszystkie linie i liczba ich przystanków.
+     * Lista linii grafu jest posortowana według numerów, więc kluczem sortowania numerów jest po prostu numer wiersza.
+     */
+    static final class TransportLines extends GraphTableModel {
+
+        private static final long serialVersionUID = 9109703439895503148L;
+
+        TransportLines(Graph graph) {
+            super(graph, new String[]{"Numer linii", "Kierunek", "Ilość przystanków"});
+        }
+
+        @Override
+        public int getRowCount() {
+            return graph.getTransportLines().size();
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 2 ? Integer.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            TransportLine transportLine = graph.getTransportLines().get(row);
+            if (column == 0) return transportLine.getLineNumber();
+            if (column == 1) return transportLine.getDestination();
+            return transportLine.getStations().size();
+        }
+
+        @Override
+        Comparable<?> getSortKey(int row, int column) {
+            if (column == 0) return row;
+            return (Comparable<?>) getValueAt(row, column);
+        }
+
+        @Override
+        String searchText(int row) {
+            TransportLine transportLine = graph.getTransportLines().get(row);
+            return (transportLine.getLineNumber() + " " + transportLine.getDestination()).toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,538 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tworzy graf z rozkładu w formacie GTFS (katalog albo plik zip z plikami stops.txt, routes.txt, trips.txt i stop_times.txt).
+ *
+ * Pliki są czytane wiersz po wierszu. W pamięci są tylko przystanki, linie, kursy (jako numer linii), różne trasy kursów i ich rozkłady -
+ * stop_times.txt, zwykle największy, nie jest trzymany w pamięci, ale musi mieć wiersze pogrupowane według trip_id.
+ * Kursy jadące tą samą trasą tej samej linii tworzą jedną linię transportu, a ich godziny (arrival_time, departure_time) jej rozkład jazdy;
+ * kursy z frequencies.txt (jeśli jest) kursują co podany odstęp. Godziny przystanków bez czasów są wyliczane z sąsiednich,
+ * a kurs bez czasu pierwszego lub ostatniego przystanku (lub z czasami cofającymi się) nie trafia do rozkładu. Przystanki (perony) należące do jednej stacji
+ * (parent_station) są łączone w jeden przystanek. Pojazdy szynowe stają się tramwajami, a autobusy i trolejbusy autobusami;
+ * pozostałe środki transportu są pomijane.
+ */
+public final class GtfsImporter {
+
+    /**
+     * ile metrów przypada na jednostkę mapy
+     */
+    private static final double METERS_PER_UNIT = 10;
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    /**
+     * oznaczenie kursu, którego przystanki zostały już przetworzone
+     */
+    private static final Route FINISHED_TRIP = new Route("", (byte) 0);
+
+    /**
+     * liczba etapów importu zgłaszanych jako postęp: pięć plików rozkładu i budowanie grafu
+     */
+    private static final int STEPS = 6;
+
+    /**
+     * co tyle wierszy stop_times.txt postęp jest zgłaszany ponownie, żeby import dało się przerwać w trakcie czytania tego pliku
+     */
+    private static final int STOP_TIMES_PROGRESS_ROWS = 1 << 16;
+
+    /**
+     * przystanki według stop_id
+     */
+    private final HashMap<String, Integer> stopIndices = new HashMap<>();
+    private final ArrayList<Stop> stops = new ArrayList<>();
+
+    /**
+     * linie według route_id (tylko autobusowe i tramwajowe)
+     */
+    private final HashMap<String, Route> routes = new HashMap<>();
+
+    /**
+     * linia każdego kursu według trip_id
+     */
+    private final HashMap<String, Route> trips = new HashMap<>();
+
+    /**
+     * kursy co stały odstęp z frequencies.txt według trip_id: początek, koniec i odstęp w sekundach
+     */
+    private final HashMap<String, ArrayList<int[]>> frequencies = new HashMap<>();
+
+    /**
+     * różne trasy kursów, w kolejności pierwszego wystąpienia, z rozkładem jazdy zebranym z ich kursów
+     */
+    private final LinkedHashMap<Pattern, Timetable.Builder> patterns = new LinkedHashMap<>();
+
+    /**
+     * przystanki obecnie czytanego kursu: numer kolejny (stop_sequence) w starszych 32 bitach, numer wiersza kursu w młodszych,
+     * a numer stacji i godziny przyjazdu i odjazdu (-1, jeśli ich nie podano) według numeru wiersza
+     */
+    private long[] tripStops = new long[64];
+    private int[] tripStations = new int[64];
+    private int[] tripArrivals = new int[64];
+    private int[] tripDepartures = new int[64];
+    private int tripStopCount;
+
+    /**
+     * obiekt śledzący postęp importu (lub null)
+     */
+    private IProgressListener listener;
+
+    private GtfsImporter() {
+    }
+
+    /**
+     * @param feed katalog lub plik zip z rozkładem GTFS
+     * @return graf z przystankami i liniami z rozkładu
+     * @throws IOException gdy nie udało się odczytać rozkładu lub brakuje w nim wymaganych plików albo kolumn
+     */
+    public static Graph importFeed(File feed) throws IOException {
+        return importFeed(feed, null);
+    }
+
+    /**
+     * tworzy graf z rozkładu jak importFeed(File), zgłaszając postęp po kolejnych plikach rozkładu
+     *
+     * @param feed     katalog lub plik zip z rozkładem GTFS
+     * @param listener obiekt śledzący postęp, który może przerwać import (lub null)
+     * @return graf z przystankami i liniami z rozkładu
+     * @throws InterruptedIOException gdy import przerwano
+     * @throws IOException            gdy nie udało się odczytać rozkładu lub brakuje w nim wymaganych plików albo kolumn
+     */
+    public static Graph importFeed(File feed, IProgressListener listener) throws IOException {
+        try (FeedSource source = new FeedSource(feed)) {
+            GtfsImporter importer = new GtfsImporter();
+            importer.listener = listener;
+            importer.progress("Wczytywanie stops.txt", 0);
+            importer.readStops(source);
+            importer.progress("Wczytywanie routes.txt", 1);
+            importer.readRoutes(source);
+            importer.progress("Wczytywanie trips.txt", 2);
+            importer.readTrips(source);
+            importer.progress("Wczytywanie frequencies.txt", 3);
+            importer.readFrequencies(source);
+            importer.progress("Wczytywanie stop_times.txt", 4);
+            importer.readStopTimes(source);
+            importer.progress("Budowanie sieci", 5);
+            return importer.buildGraph();
+        }
+    }
+
+    /**
+     * zgłasza postęp importu, jeśli ktoś go śledzi
+     *
+     * @param note opis obecnego etapu
+     * @param step numer etapu, od 0 do STEPS - 1
+     */
+    private void progress(String note, int step) throws InterruptedIOException {
+        if (listener != null) listener.progress(note, step, STEPS);
+    }
+
+    private void readStops(FeedSource source) throws IOException {
+        try (CsvReader csv = source.open("stops.txt")) {
+            int id = requireColumn(csv, "stops.txt", "stop_id");
+            int name = csv.column("stop_name");
+            int lat = requireColumn(csv, "stops.txt", "stop_lat");
+            int lon = requireColumn(csv, "stops.txt", "stop_lon");
+            int locationType = csv.column("location_type");
+            int parentStation = csv.column("parent_station");
+            while (csv.next()) {
+                String type = csv.get(locationType);
+                if (!type.isEmpty() && !type.equals("0") && !type.equals("1")) continue; //wejścia, węzły i strefy peronów
+                stopIndices.put(csv.get(id), stops.size());
+                stops.add(new Stop(csv.get(name), parseDouble(csv.get(lat)), parseDouble(csv.get(lon)), csv.get(parentStation)));
+            }
+        }
+        for (int i = 0; i < stops.size(); ++i) {
+            Stop stop = stops.get(i);
+            Integer parent = stop.parentId.isEmpty() ? null : stopIndices.get(stop.parentId);
+            stop.station = parent == null ? i : parent;
+        }
+    }
+
+    private void readRoutes(FeedSource source) throws IOException {
+        try (CsvReader csv = source.open("routes.txt")) {
+            int id = requireColumn(csv, "routes.txt", "route_id");
+            int shortName = csv.column("route_short_name");
+            int longName = csv.column("route_long_name");
+            int routeType = requireColumn(csv, "routes.txt", "route_type");
+            while (csv.next()) {
+                byte transportType = transportType(csv.get(routeType));
+                if (transportType == 0) continue;
+                String lineNumber = csv.get(shortName);
+                if (lineNumber.isEmpty()) lineNumber = csv.get(longName);
+                if (lineNumber.isEmpty()) lineNumber = csv.get(id);
+                routes.put(csv.get(id), new Route(lineNumber, transportType));
+            }
+        }
+    }
+
+    /**
+     * @param routeType route_type z GTFS (podstawowy albo rozszerzony)
+     * @return rodzaj transportu (lub 0, jeśli taki środek transportu jest pomijany)
+     */
+    private static byte transportType(String routeType) {
+        int type;
+        try {
+            type = Integer.parseInt(routeType.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        switch (type) {
+            case 0: //tramwaj
+            case 1: //metro
+            case 2: //kolej
+            case 5: //tramwaj linowy
+            case 7: //kolej zębata
+            case 12: //kolej jednoszynowa
+                return TransportLine.TRAM;
+            case 3: //autobus
+            case 11: //trolejbus
+                return TransportLine.BUS;
+        }
+        if ((type >= 100 && type < 200) || (type >= 400 && type < 500) || (type >= 900 && type < 1000)) return TransportLine.TRAM;
+        if ((type >= 200 && type < 300) || (type >= 700 && type < 900)) return TransportLine.BUS;
+        return 0;
+    }
+
+    private void readTrips(FeedSource source) throws IOException {
+        try (CsvReader csv = source.open("trips.txt")) {
+            int routeId = requireColumn(csv, "trips.txt", "route_id");
+            int tripId = requireColumn(csv, "trips.txt", "trip_id");
+            while (csv.next()) {
+                Route route = routes.get(csv.get(routeId));
+                if (route != null) {
+                    trips.put(csv.get(tripId), route);
+                }
+            }
+        }
+    }
+
+    private void readFrequencies(FeedSource source) throws IOException {
+        if (!source.contains("frequencies.txt")) return;
+        try (CsvReader csv = source.open("frequencies.txt")) {
+            int tripId = requireColumn(csv, "frequencies.txt", "trip_id");
+            int startTime = requireColumn(csv, "frequencies.txt", "start_time");
+            int endTime = requireColumn(csv, "frequencies.txt", "end_time");
+            int headway = requireColumn(csv, "frequencies.txt", "headway_secs");
+            while (csv.next()) {
+                String id = csv.get(tripId);
+                if (!trips.containsKey(id)) continue;
+                int[] frequency;
+                try {
+                    frequency = new int[]{Timetable.parseTime(csv.get(startTime)), Timetable.parseTime(csv.get(endTime)), Integer.parseInt(csv.get(headway).trim())};
+                } catch (NumberFormatException e) {
+                    throw new IOException("Nieprawidłowy wiersz frequencies.txt dla kursu " + id, e);
+                }
+                if (frequency[2] > 0) {
+                    frequencies.computeIfAbsent(id, key -> new ArrayList<>(2)).add(frequency);
+                }
+            }
+        }
+    }
+
+    private void readStopTimes(FeedSource source) throws IOException {
+        try (CsvReader csv = source.open("stop_times.txt")) {
+            int tripId = requireColumn(csv, "stop_times.txt", "trip_id");
+            int stopId = requireColumn(csv, "stop_times.txt", "stop_id");
+            int stopSequence = requireColumn(csv, "stop_times.txt", "stop_sequence");
+            int arrivalTime = csv.column("arrival_time");
+            int departureTime = csv.column("departure_time");
+            String currentTripId = null;
+            Route currentRoute = null;
+            int rows = 0;
+            while (csv.next()) {
+                if (++rows % STOP_TIMES_PROGRESS_ROWS == 0) progress("Wczytywanie stop_times.txt", 4);
+                String rowTripId = csv.get(tripId);
+                if (!rowTripId.equals(currentTripId)) {
+                    finishTrip(currentTripId, currentRoute);
+                    currentTripId = rowTripId;
+                    currentRoute = trips.get(rowTripId);
+                    if (currentRoute == FINISHED_TRIP) throw new IOException("Wiersze stop_times.txt nie są pogrupowane według trip_id (kurs " + rowTripId + ")");
+                }
+                if (currentRoute == null) continue; //kurs pomijanej linii
+                Integer stop = stopIndices.get(csv.get(stopId));
+                if (stop == null) continue;
+                int sequence;
+                try {
+                    sequence = Integer.parseInt(csv.get(stopSequence).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Nieprawidłowy stop_sequence w kursie " + rowTripId, e);
+                }
+                if (tripStopCount == tripStops.length) {
+                    tripStops = Arrays.copyOf(tripStops, 2 * tripStops.length);
+                    tripStations = Arrays.copyOf(tripStations, 2 * tripStations.length);
+                    tripArrivals = Arrays.copyOf(tripArrivals, 2 * tripArrivals.length);
+                    tripDepartures = Arrays.copyOf(tripDepartures, 2 * tripDepartures.length);
+                }
+                tripStations[tripStopCount] = stops.get(stop).station;
+                tripArrivals[tripStopCount] = parseTime(csv.get(arrivalTime), rowTripId);
+                tripDepartures[tripStopCount] = parseTime(csv.get(departureTime), rowTripId);
+                tripStops[tripStopCount] = ((long) sequence << 32) | tripStopCount;
+                ++tripStopCount;
+            }
+            finishTrip(currentTripId, currentRoute);
+        }
+    }
+
+    /**
+     * zapisuje trasę przeczytanego kursu (jeśli takiej jeszcze nie było), dodaje kurs do rozkładu trasy i zaznacza kurs jako przetworzony
+     */
+    private void finishTrip(String tripId, Route route) {
+        if (route == null) return;
+        trips.put(tripId, FINISHED_TRIP);
+        Arrays.sort(tripStops, 0, tripStopCount); //według stop_sequence
+        int[] stations = new int[tripStopCount];
+        int[] arrivals = new int[tripStopCount];
+        int[] departures = new int[tripStopCount];
+        int size = 0;
+        for (int i = 0; i < tripStopCount; ++i) {
+            int row = (int) tripStops[i];
+            if (size == 0 || stations[size - 1] != tripStations[row]) {
+                stations[size] = tripStations[row];
+                arrivals[size] = tripArrivals[row] >= 0 ? tripArrivals[row] : tripDepartures[row];
+                ++size;
+            }
+            departures[size - 1] = tripDepartures[row] >= 0 ? tripDepartures[row] : tripArrivals[row]; //kolejne perony tej samej stacji to jeden przystanek
+        }
+        tripStopCount = 0;
+        if (size < 2) return;
+        Timetable.Builder timetable = patterns.computeIfAbsent(new Pattern(route, Arrays.copyOf(stations, size)), key -> new Timetable.Builder(key.stations.length));
+        if (!interpolateTimes(arrivals, departures, size)) return;
+        int start = arrivals[0];
+        for (int i = 0; i < size; ++i) {
+            arrivals[i] -= start;
+            departures[i] -= start;
+        }
+        int profile;
+        try {
+            profile = timetable.addProfile(Arrays.copyOf(arrivals, size), Arrays.copyOf(departures, size));
+        } catch (IllegalArgumentException e) {
+            return; //czasy cofają się wzdłuż trasy
+        }
+        ArrayList<int[]> tripFrequencies = frequencies.get(tripId);
+        if (tripFrequencies == null) {
+            timetable.addTrip(start, profile);
+        } else {
+            for (int[] frequency : tripFrequencies) {
+                timetable.addFrequency(frequency[0], frequency[1], frequency[2], profile);
+            }
+        }
+    }
+
+    /**
+     * uzupełnia brakujące godziny przystanków, rozkładając czas równo między przystankami pomiędzy znanymi godzinami
+     *
+     * @return czy znane są godziny pierwszego i ostatniego przystanku (bez nich kurs nie ma rozkładu)
+     */
+    private static boolean interpolateTimes(int[] arrivals, int[] departures, int size) {
+        if (departures[0] < 0 || arrivals[size - 1] < 0) return false;
+        if (arrivals[0] < 0) arrivals[0] = departures[0];
+        if (departures[size - 1] < 0) departures[size - 1] = arrivals[size - 1];
+        int known = 0;
+        for (int i = 1; i < size; ++i) {
+            if (arrivals[i] < 0) continue;
+            for (int j = known + 1; j < i; ++j) {
+                arrivals[j] = departures[known] + (int) ((long) (arrivals[i] - departures[known]) * (j - known) / (i - known));
+                departures[j] = arrivals[j];
+            }
+            if (departures[i] < 0) departures[i] = arrivals[i];
+            known = i;
+        }
+        return true;
+    }
+
+    /**
+     * @return godzina w sekundach od północy (lub -1, jeśli jej nie podano)
+     */
+    private static int parseTime(String time, String tripId) throws IOException {
+        if (time.trim().isEmpty()) return -1;
+        try {
+            return Timetable.parseTime(time);
+        } catch (NumberFormatException e) {
+            throw new IOException("Nieprawidłowa godzina " + time + " w kursie " + tripId, e);
+        }
+    }
+
+    /**
+     * tworzy przystanki używane przez linie (rzutując współrzędne geograficzne na płaską mapę wokół środka sieci) i linie transportu
+     */
+    private Graph buildGraph() {
+        int[] vertexIndices = new int[stops.size()];
+        Arrays.fill(vertexIndices, -1);
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        int vertexCount = 0;
+        for (Pattern pattern : patterns.keySet()) {
+            for (int station : pattern.stations) {
+                if (vertexIndices[station] >= 0) continue;
+                vertexIndices[station] = vertexCount++;
+                Stop stop = stops.get(station);
+                minLat = Math.min(minLat, stop.lat);
+                maxLat = Math.max(maxLat, stop.lat);
+                minLon = Math.min(minLon, stop.lon);
+                maxLon = Math.max(maxLon, stop.lon);
+            }
+        }
+        double centerLat = (minLat + maxLat) / 2;
+        double centerLon = (minLon + maxLon) / 2;
+        double unitsPerDegree = Math.toRadians(1) * EARTH_RADIUS / METERS_PER_UNIT;
+        double lonScale = unitsPerDegree * Math.cos(Math.toRadians(centerLat));
+        Vertex[] vertices = new Vertex[vertexCount];
+        for (int station = 0; station < stops.size(); ++station) {
+            if (vertexIndices[station] < 0) continue;
+            Stop stop = stops.get(station);
+            int x = (int) Math.round((stop.lon - centerLon) * lonScale);
+            int y = (int) Math.round((centerLat - stop.lat) * unitsPerDegree); //północ na górze ekranu
+            vertices[vertexIndices[station]] = new Vertex(x, y, stop.name, Color.WHITE);
+        }
+        ArrayList<TransportLine> transportLines = new ArrayList<>(patterns.size());
+        for (Map.Entry<Pattern, Timetable.Builder> entry : patterns.entrySet()) {
+            Pattern pattern = entry.getKey();
+            TransportLine transportLine = new TransportLine(pattern.route.lineNumber, pattern.route.transportType);
+            for (int station : pattern.stations) {
+                transportLine.addStation(vertices[vertexIndices[station]]);
+            }
+            transportLine.setTimetable(entry.getValue().build());
+            transportLines.add(transportLine);
+        }
+        return new Graph(new ArrayList<>(Arrays.asList(vertices)), transportLines, new ArrayList<>());
+    }
+
+    private static int requireColumn(CsvReader csv, String fileName, String column) throws IOException {
+        int index = csv.column(column);
+        if (index < 0) throw new IOException("Brak kolumny " + column + " w pliku " + fileName);
+        return index;
+    }
+
+    private static double parseDouble(String value) throws IOException {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Nieprawidłowa współrzędna: " + value, e);
+        }
+    }
+
+    /**
+     * Przystanek z stops.txt.
+     */
+    private static final class Stop {
+
+        private final String name;
+        private final double lat;
+        private final double lon;
+        private final String parentId;
+
+        /**
+         * numer stacji, do której należy przystanek (jego własny numer, jeśli nie należy do żadnej)
+         */
+        private int station;
+
+        Stop(String name, double lat, double lon, String parentId) {
+            this.name = name;
+            this.lat = lat;
+            this.lon = lon;
+            this.parentId = parentId;
+        }
+    }
+
+    /**
+     * Linia z routes.txt.
+     */
+    private static final class Route {
+
+        private final String lineNumber;
+        private final byte transportType;
+
+        Route(String lineNumber, byte transportType) {
+            this.lineNumber = lineNumber;
+            this.transportType = transportType;
+        }
+    }
+
+    /**
+     * Trasa kursu: linia i kolejne stacje. Kursy o równych trasach tworzą jedną linię transportu.
+     */
+    private static final class Pattern {
+
+        private final Route route;
+        private final int[] stations;
+        private final int hash;
+
+        Pattern(Route route, int[] stations) {
+            this.route = route;
+            this.stations = stations;
+            this.hash = 31 * System.identityHashCode(route) + Arrays.hashCode(stations);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Pattern)) return false;
+            Pattern other = (Pattern) o;
+            return route == other.route && Arrays.equals(stations, other.stations);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Pliki rozkładu z katalogu albo z pliku zip.
+     */
+    private static final class FeedSource implements Closeable {
+
+        private final File directory;
+        private final ZipFile zipFile;
+
+        FeedSource(File feed) throws IOException {
+            if (feed.isDirectory()) {
+                directory = feed;
+                zipFile = null;
+            } else {
+                directory = null;
+                zipFile = new ZipFile(feed);
+            }
+        }
+
+        /**
+         * @return czy rozkład zawiera plik o danej nazwie
+         */
+        boolean contains(String name) {
+            if (zipFile != null) return zipFile.getEntry(name) != null;
+            return new File(directory, name).isFile();
+        }
+
+        CsvReader open(String name) throws IOException {
+            InputStream stream;
+            if (zipFile != null) {
+                ZipEntry entry = zipFile.getEntry(name);
+                if (entry == null) throw new FileNotFoundException("Brak pliku " + name + " w rozkładzie");
+                stream = zipFile.getInputStream(entry);
+            } else {
+                stream = new FileInputStream(new File(directory, name));
+            }
+            return new CsvReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (zipFile != null) zipFile.close();
+        }
+    }
+}
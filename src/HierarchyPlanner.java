@@ -0,0 +1,293 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Wyszukiwarka tras przejeżdżających najmniej przystanków, a spośród takich z najmniejszą liczbą przesiadek, korzystająca z hierarchii skrótów
+ * (ContractionHierarchy) - znajduje trasy tej samej długości i z tyloma samymi przesiadkami co JourneyPlanner.findFastestJourney, ale zwykle
+ * setki razy szybciej. Szuka jednocześnie od początku i od celu, w obu kierunkach tylko w górę hierarchii, i kończy, gdy żaden z kierunków
+ * nie może już znaleźć krótszej trasy. Węzeł, do którego da się dojść krócej z ważniejszego węzła, nie jest rozwijany (stall-on-demand).
+ * Tablice robocze są tworzone raz i używane przez kolejne zapytania, więc wyszukiwarki nie można używać w kilku wątkach naraz.
+ */
+public class HierarchyPlanner {
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final ContractionHierarchy hierarchy;
+    private final NetworkCore core;
+
+    /**
+     * odległości od początku (w górę) i do celu (w górę po odwróconych połączeniach), węzeł, z którego dojście jest najkrótsze,
+     * i węzeł pośredni użytego połączenia - dla obu kierunków
+     */
+    private final int[] forwardDistances;
+    private final int[] forwardParents;
+    private final int[] forwardMiddles;
+    private final int[] backwardDistances;
+    private final int[] backwardParents;
+    private final int[] backwardMiddles;
+
+    /**
+     * węzły zmienione przez ostatnie zapytanie, do wyczyszczenia po nim
+     */
+    private final int[] touchedNodes;
+    private int touchedCount;
+
+    private final LongHeap forwardHeap = new LongHeap();
+    private final LongHeap backwardHeap = new LongHeap();
+
+    /**
+     * węzły znalezionej trasy, po rozwinięciu skrótów: przystanki i postoje linii, którymi się jedzie
+     */
+    private int[] path = new int[64];
+    private int pathLength;
+
+    /**
+     * długość najkrótszej znalezionej trasy i węzeł, w którym spotkały się oba kierunki
+     */
+    private int bestDistance;
+    private int meeting;
+
+    /**
+     * @param hierarchy hierarchia skrótów sieci
+     */
+    public HierarchyPlanner(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        core = hierarchy.getSnapshot().getCore();
+        int nodeCount = hierarchy.getNodeCount();
+        forwardDistances = new int[nodeCount];
+        forwardParents = new int[nodeCount];
+        forwardMiddles = new int[nodeCount];
+        backwardDistances = new int[nodeCount];
+        backwardParents = new int[nodeCount];
+        backwardMiddles = new int[nodeCount];
+        Arrays.fill(forwardDistances, UNREACHED);
+        Arrays.fill(backwardDistances, UNREACHED);
+        touchedNodes = new int[nodeCount];
+    }
+
+    public ContractionHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * @param from przystanek początkowy
+     * @param to   przystanek docelowy
+     * @return najmniejsza liczba przystanków do przejechania (lub -1, jeśli nie da się dojechać)
+     */
+    public int findStopCount(Vertex from, Vertex to) {
+        int source = core.indexOf(from);
+        int target = core.indexOf(to);
+        if (source < 0 || target < 0) return -1;
+        int distance = search(source, target);
+        clear();
+        return distance == UNREACHED ? -1 : distance / ContractionHierarchy.STOP_LENGTH;
+    }
+
+    /**
+     * Znajduje trasę przejeżdżającą najmniej przystanków, a spośród takich tę z najmniejszą liczbą przesiadek.
+     *
+     * @param from przystanek początkowy
+     * @param to   przystanek docelowy
+     * @return trasa (lub null, jeśli nie da się dojechać)
+     */
+    public Journey findFastestJourney(Vertex from, Vertex to) {
+        int source = core.indexOf(from);
+        int target = core.indexOf(to);
+        if (source < 0 || target < 0) return null;
+        Journey journey = null;
+        if (search(source, target) != UNREACHED) {
+            unpackPath(source, target);
+            journey = journey();
+        }
+        clear();
+        return journey;
+    }
+
+    /**
+     * @return długość najkrótszej trasy (lub UNREACHED)
+     */
+    private int search(int source, int target) {
+        bestDistance = UNREACHED;
+        meeting = -1;
+        reach(forwardDistances, forwardParents, forwardMiddles, source, 0, -1, -1);
+        forwardHeap.push(LongHeap.entry(0, source));
+        reach(backwardDistances, backwardParents, backwardMiddles, target, 0, -1, -1);
+        backwardHeap.push(LongHeap.entry(0, target));
+        if (source == target) {
+            bestDistance = 0;
+            meeting = source;
+        }
+        boolean forwardTurn = true;
+        while (true) {
+            boolean forwardOpen = !forwardHeap.isEmpty() && LongHeap.distanceOf(forwardHeap.peek()) < bestDistance;
+            boolean backwardOpen = !backwardHeap.isEmpty() && LongHeap.distanceOf(backwardHeap.peek()) < bestDistance;
+            if (!forwardOpen && !backwardOpen) break;
+            boolean forward = forwardOpen && (forwardTurn || !backwardOpen);
+            forwardTurn = !forward;
+            if (forward) {
+                long top = forwardHeap.pop();
+                int node = LongHeap.nodeOf(top);
+                int distance = LongHeap.distanceOf(top);
+                if (distance > forwardDistances[node]) continue;
+                meet(node, distance, backwardDistances[node]);
+                if (isStalled(node, distance, forwardDistances, hierarchy.downOffsets, hierarchy.downSources, hierarchy.downLengths)) continue;
+                for (int i = hierarchy.upOffsets[node]; i < hierarchy.upOffsets[node + 1]; ++i) {
+                    int next = hierarchy.upTargets[i];
+                    int candidate = distance + hierarchy.upLengths[i];
+                    if (candidate < forwardDistances[next]) {
+                        reach(forwardDistances, forwardParents, forwardMiddles, next, candidate, node, hierarchy.upMiddles[i]);
+                        forwardHeap.push(LongHeap.entry(candidate, next));
+                    }
+                }
+            } else {
+                long top = backwardHeap.pop();
+                int node = LongHeap.nodeOf(top);
+                int distance = LongHeap.distanceOf(top);
+                if (distance > backwardDistances[node]) continue;
+                meet(node, forwardDistances[node], distance);
+                if (isStalled(node, distance, backwardDistances, hierarchy.upOffsets, hierarchy.upTargets, hierarchy.upLengths)) continue;
+                for (int i = hierarchy.downOffsets[node]; i < hierarchy.downOffsets[node + 1]; ++i) {
+                    int next = hierarchy.downSources[i];
+                    int candidate = distance + hierarchy.downLengths[i];
+                    if (candidate < backwardDistances[next]) {
+                        reach(backwardDistances, backwardParents, backwardMiddles, next, candidate, node, hierarchy.downMiddles[i]);
+                        backwardHeap.push(LongHeap.entry(candidate, next));
+                    }
+                }
+            }
+        }
+        return bestDistance;
+    }
+
+    private void meet(int node, int forwardDistance, int backwardDistance) {
+        if (forwardDistance != UNREACHED && backwardDistance != UNREACHED && forwardDistance + backwardDistance < bestDistance) {
+            bestDistance = forwardDistance + backwardDistance;
+            meeting = node;
+        }
+    }
+
+    /**
+     * @return czy do węzła da się dojść krócej przez ważniejszy węzeł (połączeniem w przeciwną stronę hierarchii) - wtedy nie leży on
+     * na najkrótszej trasie i nie trzeba iść z niego dalej
+     */
+    private static boolean isStalled(int node, int distance, int[] distances, int[] offsets, int[] ends, int[] lengths) {
+        for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+            int other = distances[ends[i]];
+            if (other != UNREACHED && other + lengths[i] < distance) return true;
+        }
+        return false;
+    }
+
+    private void reach(int[] distances, int[] parents, int[] middles, int node, int distance, int parent, int middle) {
+        if (forwardDistances[node] == UNREACHED && backwardDistances[node] == UNREACHED) {
+            touchedNodes[touchedCount++] = node;
+        }
+        distances[node] = distance;
+        parents[node] = parent;
+        middles[node] = middle;
+    }
+
+    private void clear() {
+        for (int i = 0; i < touchedCount; ++i) {
+            forwardDistances[touchedNodes[i]] = UNREACHED;
+            backwardDistances[touchedNodes[i]] = UNREACHED;
+        }
+        touchedCount = 0;
+        forwardHeap.clear();
+        backwardHeap.clear();
+    }
+
+    /**
+     * odtwarza ciąg węzłów trasy od początku do celu, rozwijając skróty
+     */
+    private void unpackPath(int source, int target) {
+        pathLength = 0;
+        //od miejsca spotkania wstecz do początku: połączenia trafiają do ścieżki od końca, więc potem są odwracane
+        int node = meeting;
+        while (node != source) {
+            int parent = forwardParents[node];
+            unpackReversed(parent, node, forwardMiddles[node]);
+            node = parent;
+        }
+        addToPath(source);
+        for (int i = 0, j = pathLength - 1; i < j; ++i, --j) {
+            int swap = path[i];
+            path[i] = path[j];
+            path[j] = swap;
+        }
+        node = meeting;
+        while (node != target) {
+            int parent = backwardParents[node];
+            unpack(node, parent, backwardMiddles[node]);
+            node = parent;
+        }
+    }
+
+    /**
+     * dopisuje węzły połączenia od from (bez niego) do to
+     */
+    private void unpack(int from, int to, int middle) {
+        if (middle < 0) {
+            addToPath(to);
+            return;
+        }
+        unpack(from, middle, hierarchy.middleOf(from, middle));
+        unpack(middle, to, hierarchy.middleOf(middle, to));
+    }
+
+    /**
+     * dopisuje węzły połączenia od to (bez from) wstecz do from
+     */
+    private void unpackReversed(int from, int to, int middle) {
+        if (middle < 0) {
+            addToPath(to);
+            return;
+        }
+        unpackReversed(middle, to, hierarchy.middleOf(middle, to));
+        unpackReversed(from, middle, hierarchy.middleOf(from, middle));
+    }
+
+    private void addToPath(int node) {
+        if (pathLength == path.length) path = Arrays.copyOf(path, 2 * pathLength);
+        path[pathLength++] = node;
+    }
+
+    /**
+     * dzieli ciąg węzłów na odcinki: każdy ciąg kolejnych postojów jednej linii to jeden przejazd
+     */
+    private Journey journey() {
+        int stationCount = core.getStationCount();
+        ArrayList<Journey.Leg> legs = new ArrayList<>();
+        int boarding = -1;
+        for (int i = 0; i < pathLength; ++i) {
+            int node = path[i];
+            if (node >= stationCount) {
+                if (boarding < 0) boarding = node - stationCount;
+            } else if (boarding >= 0) {
+                legs.add(leg(boarding, path[i - 1] - stationCount));
+                boarding = -1;
+            }
+        }
+        return new Journey(legs);
+    }
+
+    /**
+     * @param boarding  postój, na którym się wsiada (numer w tablicy przystanków wszystkich tras)
+     * @param alighting postój tej samej linii, na którym się wysiada
+     */
+    private Journey.Leg leg(int boarding, int alighting) {
+        int[] lineStopOffsets = core.lineStopOffsets;
+        int low = 0;
+        int high = core.getLineCount() - 1;
+        while (low < high) { //ostatnia linia, której trasa zaczyna się nie dalej niż postój - puste trasy przed nią są pomijane
+            int middle = (low + high + 1) >>> 1;
+            if (lineStopOffsets[middle] <= boarding) low = middle;
+            else high = middle - 1;
+        }
+        return new Journey.Leg(core.getTransportLine(low), core.getStation(core.lineStops[boarding]), core.getStation(core.lineStops[alighting]), alighting - boarding);
+    }
+}
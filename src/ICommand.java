@@ -0,0 +1,30 @@
+/*
+Autor: Filip Przygoński
+*/
+
+/**
+ * interfejs zmian grafu, które można cofnąć i ponowić - każda zmiana dotyka tylko zmienianych obiektów
+ */
+public interface ICommand {
+
+    /**
+     * wprowadza zmianę (pierwszy raz albo ponownie, po cofnięciu)
+     */
+    void execute();
+
+    /**
+     * cofa zmianę
+     */
+    void undo();
+
+    /**
+     * Próbuje dołączyć do tej zmiany następną, wprowadzoną zaraz po niej (np. kolejne przesunięcie tego samego przystanku strzałką),
+     * żeby obie cofały się razem.
+     *
+     * @param next następna zmiana, już wprowadzona
+     * @return czy zmiana została dołączona
+     */
+    default boolean absorb(ICommand next) {
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+Autor: Filip Przygoński
+*/
+
+/**
+ * interfejs obiektów, które muszą wiedzieć o każdej zmianie grafu (np. dziennik zmian albo tabela przystanków)
+ */
+public interface IGraphListener {
+
+    /**
+     * przystanek został dodany do grafu
+     *
+     * @param station nowy przystanek
+     */
+    void stationAdded(Vertex station);
+
+    /**
+     * przystanek został usunięty z grafu
+     *
+     * @param station usunięty przystanek
+     */
+    void stationRemoved(Vertex station);
+
+    /**
+     * przystanek zmienił położenie, promień, nazwę lub kolor
+     *
+     * @param station zmieniony przystanek
+     */
+    void stationChanged(Vertex station);
+
+    /**
+     * linia transportu została dodana do grafu
+     *
+     * @param transportLine nowa linia transportu
+     */
+    void transportLineAdded(TransportLine transportLine);
+
+    /**
+     * linia transportu została usunięta z grafu
+     *
+     * @param transportLine usunięta linia transportu
+     */
+    void transportLineRemoved(TransportLine transportLine);
+}
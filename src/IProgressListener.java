@@ -0,0 +1,21 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.InterruptedIOException;
+
+/**
+ * interfejs obiektów śledzących postęp długiej operacji (np. odczytu lub zapisu pliku), które mogą tę operację przerwać
+ */
+public interface IProgressListener {
+
+    /**
+     * operacja zrobiła kolejną część pracy
+     *
+     * @param note  opis obecnego etapu operacji
+     * @param done  ile już zrobiono
+     * @param total ile jest do zrobienia
+     * @throws InterruptedIOException gdy operacja ma zostać przerwana
+     */
+    void progress(String note, long done, long total) throws InterruptedIOException;
+}
@@ -0,0 +1,38 @@
+/*
+Autor: Filip Przygoński
+*/
+
+/**
+ * interfejs obiektów, które muszą wiedzieć o zmianach przystanku
+ */
+public interface IVertexListener {
+
+    /**
+     * przystanek zmienił położenie
+     *
+     * @param vertex przesunięty przystanek
+     */
+    void vertexMoved(Vertex vertex);
+
+    /**
+     * przystanek zmienił promień
+     *
+     * @param vertex przystanek o zmienionym promieniu
+     */
+    void vertexResized(Vertex vertex);
+
+    /**
+     * przystanek zmienił nazwę
+     *
+     * @param vertex  przystanek o zmienionej nazwie
+     * @param oldName poprzednia nazwa przystanku
+     */
+    void vertexRenamed(Vertex vertex, String oldName);
+
+    /**
+     * przystanek zmienił kolor
+     *
+     * @param vertex przystanek o zmienionym kolorze
+     */
+    void vertexRecolored(Vertex vertex);
+}
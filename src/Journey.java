@@ -0,0 +1,127 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.ArrayList;
+
+/**
+ * Klasa reprezentująca trasę przejazdu z jednego przystanku na drugi, jako ciąg odcinków jechanych jedną linią.
+ */
+public class Journey {
+
+    private ArrayList<Leg> legs;
+
+    public Journey(ArrayList<Leg> legs) {
+        this.legs = legs;
+    }
+
+    /**
+     * @return ile razy trzeba się przesiąść
+     */
+    public int getTransfers() {
+        return Math.max(0, legs.size() - 1);
+    }
+
+    /**
+     * @return ile łącznie przystanków się przejeżdża (ile połączeń między przystankami)
+     */
+    public int getStopsTravelled() {
+        int stops = 0;
+        for (Leg leg : legs) {
+            stops += leg.getStopsTravelled();
+        }
+        return stops;
+    }
+
+    /**
+     * @return czas odjazdu z przystanku początkowego w sekundach od północy (lub -1, jeśli trasa nie pochodzi z rozkładu)
+     */
+    public int getDepartureTime() {
+        return legs.isEmpty() ? -1 : legs.get(0).getDepartureTime();
+    }
+
+    /**
+     * @return czas przyjazdu na przystanek docelowy w sekundach od północy (lub -1, jeśli trasa nie pochodzi z rozkładu)
+     */
+    public int getArrivalTime() {
+        return legs.isEmpty() ? -1 : legs.get(legs.size() - 1).getArrivalTime();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (Leg leg : legs) {
+            stringBuilder.append(leg.toString()).append("; ");
+        }
+        int stringBuilderLength = stringBuilder.length();
+        if (stringBuilderLength > 0) {
+            stringBuilder.delete(stringBuilderLength - 2, stringBuilderLength);
+        }
+        return stringBuilder.toString();
+    }
+
+    public ArrayList<Leg> getLegs() {
+        return legs;
+    }
+
+    /**
+     * Odcinek trasy przejechany jedną linią, od przystanku wsiadania do przystanku wysiadania.
+     */
+    public static class Leg {
+
+        private TransportLine transportLine;
+        private Vertex boardingStation;
+        private Vertex alightingStation;
+        private int stopsTravelled;
+
+        /**
+         * czas odjazdu z przystanku wsiadania i przyjazdu na przystanek wysiadania w sekundach od północy (-1 dla tras bez rozkładu)
+         */
+        private int departureTime;
+        private int arrivalTime;
+
+        public Leg(TransportLine transportLine, Vertex boardingStation, Vertex alightingStation, int stopsTravelled) {
+            this(transportLine, boardingStation, alightingStation, stopsTravelled, -1, -1);
+        }
+
+        public Leg(TransportLine transportLine, Vertex boardingStation, Vertex alightingStation, int stopsTravelled, int departureTime, int arrivalTime) {
+            this.transportLine = transportLine;
+            this.boardingStation = boardingStation;
+            this.alightingStation = alightingStation;
+            this.stopsTravelled = stopsTravelled;
+            this.departureTime = departureTime;
+            this.arrivalTime = arrivalTime;
+        }
+
+        @Override
+        public String toString() {
+            if (departureTime < 0) return transportLine.getLineNumber() + " " + boardingStation.toString() + " -> " + alightingStation.toString();
+            return transportLine.getLineNumber() + " " + boardingStation.toString() + " " + Timetable.formatTime(departureTime)
+                    + " -> " + alightingStation.toString() + " " + Timetable.formatTime(arrivalTime);
+        }
+
+        public TransportLine getTransportLine() {
+            return transportLine;
+        }
+
+        public Vertex getBoardingStation() {
+            return boardingStation;
+        }
+
+        public Vertex getAlightingStation() {
+            return alightingStation;
+        }
+
+        public int getStopsTravelled() {
+            return stopsTravelled;
+        }
+
+        public int getDepartureTime() {
+            return departureTime;
+        }
+
+        public int getArrivalTime() {
+            return arrivalTime;
+        }
+    }
+}
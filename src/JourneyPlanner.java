@@ -0,0 +1,254 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Wyszukiwarka tras między przystankami grafu.
+ * Korzysta ze zwartego obrazu sieci (NetworkCore) z opublikowanej kopii grafu, w którym przystanki linii i linie zatrzymujące się na przystankach
+ * są tablicami numerów, więc pojedyncze zapytanie nie przegląda linii transportu przystanek po przystanku.
+ * Obraz jest niezmienny i wspólny, więc wiele wyszukiwarek zbudowanych z tej samej kopii może szukać tras naraz, w różnych wątkach.
+ * Wyszukiwanie przebiega w rundach: w k-tej rundzie znane są najkrótsze trasy z co najwyżej k przejazdami (k - 1 przesiadkami).
+ * Długość trasy to liczba przejechanych połączeń między przystankami.
+ * Tablice robocze są tworzone raz i używane przez kolejne zapytania, więc wyszukiwarki nie można używać w kilku wątkach naraz.
+ */
+public class JourneyPlanner {
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final Graph graph;
+    private final NetworkCore core;
+
+    /**
+     * najlepszy znany czas dojazdu do każdego przystanku, ze wszystkich rund
+     */
+    private final int[] best;
+
+    /**
+     * przystanki poprawione w ostatniej rundzie - jako znaczniki i jako lista
+     */
+    private final boolean[] marked;
+    private final int[] markedStations;
+    private int markedCount;
+
+    /**
+     * dla każdej linii: najwcześniejsza pozycja na trasie, na której można wsiąść w obecnej rundzie (lub -1, jeśli linii nie ma w kolejce)
+     */
+    private final int[] boardingPositions;
+    private final int[] queuedLines;
+
+    /**
+     * wyniki kolejnych rund ostatniego wyszukiwania; tablice zostają do następnych wyszukiwań
+     */
+    private final ArrayList<int[]> arrivals = new ArrayList<>();
+    private final ArrayList<int[]> parentLines = new ArrayList<>();
+    private final ArrayList<int[]> parentBoardings = new ArrayList<>();
+    private final ArrayList<int[]> parentAlightings = new ArrayList<>();
+    private int roundCount;
+
+    /**
+     * tworzy wyszukiwarkę dla obecnego stanu grafu - w wątku, w którym zmieniany jest graf
+     *
+     * @param graph graf
+     * @throws IllegalArgumentException gdy linia zatrzymuje się na przystanku spoza grafu
+     */
+    public JourneyPlanner(Graph graph) {
+        this.graph = graph;
+        core = publish(graph).getCore();
+        int stationCount = core.getStationCount();
+        best = new int[stationCount];
+        marked = new boolean[stationCount];
+        markedStations = new int[stationCount];
+        boardingPositions = new int[core.getLineCount()];
+        Arrays.fill(boardingPositions, -1);
+        queuedLines = new int[core.getLineCount()];
+    }
+
+    private static GraphSnapshot publish(Graph graph) {
+        try {
+            return graph.publish();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return czy od zbudowania wyszukiwarki nie zmieniły się przystanki ani linie grafu
+     */
+    public boolean isUpToDate() {
+        return core.isUpToDate(graph);
+    }
+
+    /**
+     * Znajduje trasę przejeżdżającą najmniej przystanków, a spośród takich tę z najmniejszą liczbą przesiadek.
+     *
+     * @param from przystanek początkowy
+     * @param to   przystanek docelowy
+     * @return trasa (lub null, jeśli nie da się dojechać)
+     */
+    public Journey findFastestJourney(Vertex from, Vertex to) {
+        int target = core.indexOf(to);
+        if (!search(core.indexOf(from), target)) return null;
+        int bestRound = -1;
+        int bestArrival = UNREACHED;
+        for (int round = 0; round < roundCount; ++round) {
+            int arrival = arrivals.get(round)[target];
+            if (arrival < bestArrival) {
+                bestArrival = arrival;
+                bestRound = round;
+            }
+        }
+        return bestRound < 0 ? null : journey(target, bestRound);
+    }
+
+    /**
+     * Znajduje trasę z najmniejszą liczbą przesiadek, a spośród takich tę przejeżdżającą najmniej przystanków.
+     *
+     * @param from przystanek początkowy
+     * @param to   przystanek docelowy
+     * @return trasa (lub null, jeśli nie da się dojechać)
+     */
+    public Journey findJourneyWithFewestTransfers(Vertex from, Vertex to) {
+        int target = core.indexOf(to);
+        if (!search(core.indexOf(from), target)) return null;
+        for (int round = 0; round < roundCount; ++round) {
+            if (arrivals.get(round)[target] != UNREACHED) {
+                return journey(target, round);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * przeprowadza wyszukiwanie w rundach, aż żaden przystanek nie zostanie już poprawiony
+     *
+     * @param source numer przystanku początkowego
+     * @param target numer przystanku docelowego
+     * @return czy wyszukiwanie się odbyło (false, jeśli któregoś przystanku nie ma w grafie)
+     */
+    private boolean search(int source, int target) {
+        if (source < 0 || target < 0) return false;
+        int stationCount = core.getStationCount();
+        int[] lineStopOffsets = core.lineStopOffsets;
+        int[] lineStops = core.lineStops;
+        int[] stationLineOffsets = core.stationLineOffsets;
+        int[] stationLines = core.stationLines;
+        int[] stationLinePositions = core.stationLinePositions;
+        Arrays.fill(best, UNREACHED);
+        best[source] = 0;
+        int[] roundArrivals = roundArray(arrivals, 0);
+        Arrays.fill(roundArrivals, UNREACHED);
+        roundArrivals[source] = 0;
+        roundCount = 1;
+        mark(source);
+        for (int round = 1; round <= core.getLineCount(); ++round) {
+            int queuedLineCount = 0;
+            for (int m = 0; m < markedCount; ++m) {
+                int station = markedStations[m];
+                marked[station] = false;
+                for (int i = stationLineOffsets[station]; i < stationLineOffsets[station + 1]; ++i) {
+                    int line = stationLines[i];
+                    if (boardingPositions[line] < 0) {
+                        queuedLines[queuedLineCount++] = line;
+                        boardingPositions[line] = stationLinePositions[i];
+                    } else if (stationLinePositions[i] < boardingPositions[line]) {
+                        boardingPositions[line] = stationLinePositions[i];
+                    }
+                }
+            }
+            markedCount = 0;
+            if (queuedLineCount == 0) break;
+            int[] previousArrivals = roundArrivals;
+            roundArrivals = roundArray(arrivals, round);
+            System.arraycopy(previousArrivals, 0, roundArrivals, 0, stationCount);
+            int[] roundParentLines = roundArray(parentLines, round);
+            int[] roundParentBoardings = roundArray(parentBoardings, round);
+            int[] roundParentAlightings = roundArray(parentAlightings, round);
+            Arrays.fill(roundParentLines, -1);
+            boolean anyImproved = false;
+            for (int q = 0; q < queuedLineCount; ++q) {
+                int line = queuedLines[q];
+                int first = lineStopOffsets[line];
+                int stopCount = lineStopOffsets[line + 1] - first;
+                int boardedAt = -1;
+                int boardingArrival = 0;
+                for (int position = boardingPositions[line]; position < stopCount; ++position) {
+                    int station = lineStops[first + position];
+                    if (boardedAt >= 0) {
+                        int arrival = boardingArrival + position - boardedAt;
+                        if (arrival < best[station] && arrival < best[target]) {
+                            best[station] = arrival;
+                            roundArrivals[station] = arrival;
+                            roundParentLines[station] = line;
+                            roundParentBoardings[station] = boardedAt;
+                            roundParentAlightings[station] = position;
+                            mark(station);
+                            anyImproved = true;
+                        }
+                    }
+                    int previousArrival = previousArrivals[station];
+                    if (previousArrival != UNREACHED && (boardedAt < 0 || previousArrival < boardingArrival + position - boardedAt)) {
+                        boardedAt = position;
+                        boardingArrival = previousArrival;
+                    }
+                }
+                boardingPositions[line] = -1;
+            }
+            if (!anyImproved) break;
+            roundCount = round + 1;
+        }
+        for (int m = 0; m < markedCount; ++m) {
+            marked[markedStations[m]] = false;
+        }
+        markedCount = 0;
+        return true;
+    }
+
+    private void mark(int station) {
+        if (!marked[station]) {
+            marked[station] = true;
+            markedStations[markedCount++] = station;
+        }
+    }
+
+    /**
+     * @return tablica danej rundy z puli, tworzona tylko wtedy, gdy żadne wcześniejsze wyszukiwanie nie miało tylu rund
+     */
+    private int[] roundArray(ArrayList<int[]> pool, int round) {
+        while (pool.size() <= round) {
+            pool.add(new int[core.getStationCount()]);
+        }
+        return pool.get(round);
+    }
+
+    /**
+     * odtwarza trasę do celu znalezioną w danej rundzie, idąc od celu wstecz
+     *
+     * @param target numer przystanku docelowego
+     * @param round  runda
+     * @return trasa
+     */
+    private Journey journey(int target, int round) {
+        ArrayList<Journey.Leg> legs = new ArrayList<>();
+        int station = target;
+        while (round > 0) {
+            int line = parentLines.get(round)[station];
+            if (line < 0) {
+                --round;
+                continue;
+            }
+            int boardedAt = parentBoardings.get(round)[station];
+            int alightedAt = parentAlightings.get(round)[station];
+            int boardingStation = core.lineStops[core.lineStopOffsets[line] + boardedAt];
+            legs.add(new Journey.Leg(core.getTransportLine(line), core.getStation(boardingStation), core.getStation(station), alightedAt - boardedAt));
+            station = boardingStation;
+            --round;
+        }
+        Collections.reverse(legs);
+        return new Journey(legs);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.Arrays;
+
+/**
+ * Zbiór nieujemnych liczb typu long z adresowaniem otwartym, bez opakowywania liczb w obiekty.
+ * Wyczyszczony zbiór zachowuje swoją tablicę, więc można go używać wielokrotnie bez nowych alokacji.
+ */
+class LongHashSet {
+
+    /**
+     * wolne miejsce w tablicy (klucze są przechowywane powiększone o 1)
+     */
+    private static final long EMPTY = 0;
+
+    private long[] slots = new long[64];
+    private int size;
+
+    /**
+     * dodaje liczbę do zbioru
+     *
+     * @param value nieujemna liczba
+     * @return czy liczby nie było wcześniej w zbiorze
+     */
+    boolean add(long value) {
+        if (2 * (size + 1) > slots.length) {
+            grow();
+        }
+        long stored = value + 1;
+        int mask = slots.length - 1;
+        int slot = hash(stored) & mask;
+        while (slots[slot] != EMPTY) {
+            if (slots[slot] == stored) return false;
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = stored;
+        ++size;
+        return true;
+    }
+
+    /**
+     * usuwa wszystkie liczby, zachowując tablicę
+     */
+    void clear() {
+        if (size == 0) return;
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldSlots = slots;
+        slots = new long[2 * oldSlots.length];
+        size = 0;
+        for (long stored : oldSlots) {
+            if (stored != EMPTY) {
+                add(stored - 1);
+            }
+        }
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
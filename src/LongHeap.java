@@ -0,0 +1,76 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.Arrays;
+
+/**
+ * Kopiec binarny liczb typu long (najmniejsza na wierzchu), bez opakowywania liczb w obiekty.
+ * Wyszukiwania zapisują w jednej liczbie parę (odległość, węzeł): nieujemną odległość w starszych 32 bitach, numer węzła (np. przystanku) w młodszych.
+ * Wyczyszczony kopiec zachowuje swoją tablicę, więc można go używać wielokrotnie bez nowych alokacji.
+ */
+class LongHeap {
+
+    private long[] values = new long[64];
+    private int size;
+
+    /**
+     * @return para (odległość, węzeł) jako jedna liczba
+     */
+    static long entry(int distance, int node) {
+        return ((long) distance << 32) | node;
+    }
+
+    static int distanceOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    static int nodeOf(long entry) {
+        return (int) entry;
+    }
+
+    void push(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        int i = size++;
+        while (i > 0 && values[(i - 1) >>> 1] > value) {
+            values[i] = values[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        values[i] = value;
+    }
+
+    /**
+     * @return najmniejsza liczba w kopcu (kopiec nie może być pusty)
+     */
+    long peek() {
+        return values[0];
+    }
+
+    /**
+     * @return najmniejsza liczba w kopcu, usunięta z niego (kopiec nie może być pusty)
+     */
+    long pop() {
+        long top = values[0];
+        long last = values[--size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && values[child + 1] < values[child]) ++child;
+            if (values[child] >= last) break;
+            values[i] = values[child];
+            i = child;
+        }
+        values[i] = last;
+        return top;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
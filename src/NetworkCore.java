@@ -0,0 +1,129 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.Arrays;
+
+/**
+ * Niezmienny, zwarty obraz struktury grafu do wyszukiwania tras i obliczeń na sieci: przystanki i linie są numerami,
+ * a wszystkie powiązania leżą w płaskich tablicach int[] w układzie CSR (wiersz i to elementy od offsets[i] do offsets[i + 1] - 1).
+ * Obliczenia na takim obrazie nie tworzą obiektów i czytają pamięć po kolei, zamiast skakać po obiektach Vertex, Edge i TransportLine.
+ * Obraz buduje się z kopii grafu (GraphSnapshot), więc można go budować i czytać w dowolnym wątku; nie śledzi on późniejszych zmian grafu.
+ */
+final class NetworkCore {
+
+    /**
+     * kopia grafu, z której zbudowano obraz - numery przystanków i linii są te same co w kopii
+     */
+    private final GraphSnapshot snapshot;
+
+    /**
+     * współrzędne przystanków na mapie w chwili zrobienia kopii (przesunięcie przystanku nie zmienia wersji struktury grafu)
+     */
+    final int[] stationX;
+    final int[] stationY;
+
+    /**
+     * kolejne przystanki linii: lineStops[lineStopOffsets[line] ...]
+     */
+    final int[] lineStopOffsets;
+    final int[] lineStops;
+
+    /**
+     * linie zatrzymujące się na przystanku i pozycja przystanku na trasie każdej z nich: stationLines[stationLineOffsets[station] ...]
+     */
+    final int[] stationLineOffsets;
+    final int[] stationLines;
+    final int[] stationLinePositions;
+
+    /**
+     * sąsiedzi przystanku, czyli drugie końce jego połączeń: neighbours[neighbourOffsets[station] ...]
+     */
+    final int[] neighbourOffsets;
+    final int[] neighbours;
+
+    /**
+     * buduje obraz z kopii grafu (zwykle przez GraphSnapshot.getCore(), żeby obraz był wspólny dla wszystkich czytających kopię)
+     *
+     * @param snapshot kopia grafu
+     */
+    NetworkCore(GraphSnapshot snapshot) {
+        this.snapshot = snapshot;
+        int stationCount = snapshot.getStationCount();
+        int lineCount = snapshot.getLineCount();
+        stationX = snapshot.stationX;
+        stationY = snapshot.stationY;
+        lineStopOffsets = snapshot.stopOffsets;
+        lineStops = snapshot.stops;
+
+        stationLineOffsets = new int[stationCount + 1];
+        for (int station : lineStops) {
+            ++stationLineOffsets[station + 1];
+        }
+        prefixSums(stationLineOffsets);
+        stationLines = new int[lineStops.length];
+        stationLinePositions = new int[lineStops.length];
+        int[] next = new int[stationCount];
+        for (int line = 0; line < lineCount; ++line) {
+            for (int i = lineStopOffsets[line]; i < lineStopOffsets[line + 1]; ++i) {
+                int station = lineStops[i];
+                int slot = stationLineOffsets[station] + next[station]++;
+                stationLines[slot] = line;
+                stationLinePositions[slot] = i - lineStopOffsets[line];
+            }
+        }
+
+        int[] firstStations = snapshot.firstStations;
+        int[] secondStations = snapshot.secondStations;
+        neighbourOffsets = new int[stationCount + 1];
+        for (int i = 0; i < firstStations.length; ++i) {
+            ++neighbourOffsets[firstStations[i] + 1];
+            ++neighbourOffsets[secondStations[i] + 1];
+        }
+        prefixSums(neighbourOffsets);
+        neighbours = new int[2 * firstStations.length];
+        Arrays.fill(next, 0);
+        for (int i = 0; i < firstStations.length; ++i) {
+            neighbours[neighbourOffsets[firstStations[i]] + next[firstStations[i]]++] = secondStations[i];
+            neighbours[neighbourOffsets[secondStations[i]] + next[secondStations[i]]++] = firstStations[i];
+        }
+    }
+
+    private static void prefixSums(int[] offsets) {
+        for (int i = 1; i < offsets.length; ++i) {
+            offsets[i] += offsets[i - 1];
+        }
+    }
+
+    /**
+     * @param graph graf
+     * @return czy obraz pokazuje obecne przystanki, linie i połączenia danego grafu
+     */
+    boolean isUpToDate(Graph graph) {
+        return snapshot.isStructureUpToDate(graph);
+    }
+
+    int getStationCount() {
+        return snapshot.getStationCount();
+    }
+
+    int getLineCount() {
+        return snapshot.getLineCount();
+    }
+
+    /**
+     * @param station przystanek
+     * @return numer przystanku (lub -1, jeśli przystanku nie było w grafie)
+     */
+    int indexOf(Vertex station) {
+        return snapshot.indexOf(station);
+    }
+
+    Vertex getStation(int index) {
+        return snapshot.getStation(index);
+    }
+
+    TransportLine getTransportLine(int index) {
+        return snapshot.getTransportLine(index);
+    }
+}
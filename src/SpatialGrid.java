@@ -0,0 +1,236 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Jednorodna siatka dzieląca płaszczyznę na kwadratowe komórki, pozwalająca szybko znaleźć elementy leżące w danym prostokącie.
+ * Każdy element jest zapisany we wszystkich komórkach, które przecina jego prostokąt albo odcinek - długie ukośne połączenie zajmuje
+ * tylko komórki wzdłuż odcinka, a nie wszystkie komórki swojego prostokąta ograniczającego.
+ *
+ * @param <T> typ przechowywanych elementów (porównywanych przez tożsamość)
+ */
+class SpatialGrid<T> {
+
+    /**
+     * bok komórki w jednostkach mapy
+     */
+    static final int CELL_SIZE = 64;
+
+    /**
+     * numer kolumny jest mnożony przez tę liczbę nieparzystą przed złożeniem klucza - Long.hashCode() to xor połówek,
+     * więc bez mieszania sąsiednie komórki miałyby te same skróty (kolumna ^ wiersz); odwrotność pozwala odczytać kolumnę z klucza
+     */
+    private static final int COLUMN_MIX = 0x9E3779B9;
+    private static final int COLUMN_MIX_INVERSE = 0x144CBC89;
+
+    /**
+     * wpisy w każdej komórce, klucz to numery kolumny i wiersza złożone w jedną liczbę
+     */
+    private final HashMap<Long, ArrayList<Entry<T>>> cells = new HashMap<>();
+
+    /**
+     * wpis każdego elementu
+     */
+    private final HashMap<T, Entry<T>> entries = new HashMap<>();
+
+    /**
+     * numer ostatniego wyszukiwania - element zajmujący kilka przeglądanych komórek jest dopisywany tylko raz
+     */
+    private int query;
+
+    /**
+     * zapisuje element w siatce, jeśli element już w niej był to najpierw go usuwa
+     *
+     * @param item element
+     * @param minX najmniejsza współrzędna x elementu
+     * @param minY najmniejsza współrzędna y elementu
+     * @param maxX największa współrzędna x elementu
+     * @param maxY największa współrzędna y elementu
+     */
+    void put(T item, int minX, int minY, int maxX, int maxY) {
+        int firstColumn = cell(minX);
+        int firstRow = cell(minY);
+        int lastColumn = cell(maxX);
+        int lastRow = cell(maxY);
+        long[] keys = new long[(lastColumn - firstColumn + 1) * (lastRow - firstRow + 1)];
+        int count = 0;
+        for (int column = firstColumn; column <= lastColumn; ++column) {
+            for (int row = firstRow; row <= lastRow; ++row) {
+                keys[count++] = key(column, row);
+            }
+        }
+        put(new Entry<>(item, keys));
+    }
+
+    /**
+     * Zapisuje odcinek w komórkach, przez które przechodzi (jeśli element już był w siatce, to najpierw go usuwa).
+     * Komórki są wyznaczane krokami od komórki do komórki wzdłuż odcinka; gdy odcinek przechodzi dokładnie przez róg komórek,
+     * zapisywany jest też w obu komórkach obok rogu, więc wyszukiwanie nie pominie odcinka leżącego na granicy komórek.
+     *
+     * @param item element
+     * @param x1   współrzędna x początku odcinka
+     * @param y1   współrzędna y początku odcinka
+     * @param x2   współrzędna x końca odcinka
+     * @param y2   współrzędna y końca odcinka
+     */
+    void putSegment(T item, int x1, int y1, int x2, int y2) {
+        int column = cell(x1);
+        int row = cell(y1);
+        int columnSteps = Math.abs(cell(x2) - column);
+        int rowSteps = Math.abs(cell(y2) - row);
+        int stepX = x2 > x1 ? 1 : -1;
+        int stepY = y2 > y1 ? 1 : -1;
+        long width = Math.abs((long) x2 - x1);
+        long height = Math.abs((long) y2 - y1);
+        //odległości (wzdłuż osi) od początku odcinka do najbliższej granicy kolumn i wierszy w kierunku końca
+        long nextX = stepX > 0 ? (long) (column + 1) * CELL_SIZE - x1 : x1 - (long) column * CELL_SIZE;
+        long nextY = stepY > 0 ? (long) (row + 1) * CELL_SIZE - y1 : y1 - (long) row * CELL_SIZE;
+        long[] keys = new long[1 + columnSteps + rowSteps + Math.min(columnSteps, rowSteps)];
+        int count = 0;
+        keys[count++] = key(column, row);
+        while (columnSteps > 0 || rowSteps > 0) {
+            //porównanie nextX / width z nextY / height, czyli która granica leży bliżej na odcinku
+            long compared = rowSteps == 0 ? -1 : columnSteps == 0 ? 1 : Long.compare(nextX * height, nextY * width);
+            if (compared == 0) {
+                keys[count++] = key(column + stepX, row);
+                keys[count++] = key(column, row + stepY);
+            }
+            if (compared <= 0) {
+                column += stepX;
+                nextX += CELL_SIZE;
+                --columnSteps;
+            }
+            if (compared >= 0) {
+                row += stepY;
+                nextY += CELL_SIZE;
+                --rowSteps;
+            }
+            keys[count++] = key(column, row);
+        }
+        put(new Entry<>(item, Arrays.copyOf(keys, count)));
+    }
+
+    private void put(Entry<T> entry) {
+        Entry<T> previousEntry = entries.put(entry.item, entry);
+        if (previousEntry != null) {
+            removeFromCells(previousEntry);
+        }
+        for (long key : entry.keys) {
+            cells.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    /**
+     * usuwa element z siatki
+     *
+     * @param item element
+     */
+    void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) {
+            removeFromCells(entry);
+        }
+    }
+
+    /**
+     * usuwa wpis elementu ze wszystkich zajmowanych komórek
+     */
+    private void removeFromCells(Entry<T> entry) {
+        for (long key : entry.keys) {
+            ArrayList<Entry<T>> cell = cells.get(key);
+            cell.remove(entry);
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    /**
+     * usuwa wszystkie elementy
+     */
+    void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    /**
+     * Dopisuje do listy elementy zapisane w komórkach, które przecina dany prostokąt. Każdy element jest dopisany raz.
+     *
+     * @param minX   najmniejsza współrzędna x prostokąta
+     * @param minY   najmniejsza współrzędna y prostokąta
+     * @param maxX   największa współrzędna x prostokąta
+     * @param maxY   największa współrzędna y prostokąta
+     * @param result lista, do której dopisywane są elementy
+     */
+    void collect(int minX, int minY, int maxX, int maxY, ArrayList<T> result) {
+        int firstColumn = cell(minX);
+        int firstRow = cell(minY);
+        int lastColumn = cell(maxX);
+        int lastRow = cell(maxY);
+        long queriedCells = ((long) lastColumn - firstColumn + 1) * ((long) lastRow - firstRow + 1);
+        int query = ++this.query;
+        if (queriedCells > cells.size()) {
+            //prostokąt obejmuje więcej komórek niż jest niepustych, taniej przejrzeć niepuste
+            for (Map.Entry<Long, ArrayList<Entry<T>>> cell : cells.entrySet()) {
+                long key = cell.getKey();
+                int column = (int) (key >> 32) * COLUMN_MIX_INVERSE;
+                int row = (int) key;
+                if (column < firstColumn || column > lastColumn || row < firstRow || row > lastRow) continue;
+                collectFromCell(cell.getValue(), query, result);
+            }
+        } else {
+            for (int column = firstColumn; column <= lastColumn; ++column) {
+                for (int row = firstRow; row <= lastRow; ++row) {
+                    ArrayList<Entry<T>> cell = cells.get(key(column, row));
+                    if (cell != null) {
+                        collectFromCell(cell, query, result);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * dopisuje elementy z jednej komórki; element z kilku komórek jest dopisywany tylko w pierwszej przejrzanej z nich
+     */
+    private static <T> void collectFromCell(ArrayList<Entry<T>> cell, int query, ArrayList<T> result) {
+        for (Entry<T> entry : cell) {
+            if (entry.query != query) {
+                entry.query = query;
+                result.add(entry.item);
+            }
+        }
+    }
+
+    private static int cell(int coordinate) {
+        return Math.floorDiv(coordinate, CELL_SIZE);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) (column * COLUMN_MIX) << 32) | (row & 0xffffffffL);
+    }
+
+    /**
+     * Element wraz z kluczami zajmowanych komórek.
+     */
+    private static final class Entry<T> {
+
+        private final T item;
+        private final long[] keys;
+
+        /**
+         * numer wyszukiwania, w którym element został ostatnio dopisany do wyniku
+         */
+        private int query;
+
+        Entry(T item, long[] keys) {
+            this.item = item;
+            this.keys = keys;
+        }
+    }
+}
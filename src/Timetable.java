@@ -0,0 +1,328 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Niezmienny rozkład jazdy linii: kiedy kursy linii przyjeżdżają na kolejne przystanki trasy i z nich odjeżdżają.
+ *
+ * Kursy są opisane profilami i seriami. Profil to czasy przyjazdu i odjazdu na kolejnych przystankach, liczone od początku kursu -
+ * zwykle wiele kursów jedzie według kilku profili (np. innym w szczycie). Seria to kursy jednego profilu zaczynające się od danej godziny
+ * co stały odstęp aż do ostatniego kursu serii; pojedynczy kurs to seria z odstępem 0.
+ * Czasy są w sekundach od północy dnia rozkładu i mogą przekraczać 24 godziny (kursy po północy).
+ */
+public final class Timetable implements Serializable {
+
+    private static final long serialVersionUID = 3315408256417932651L;
+
+    public static final int SECONDS_PER_MINUTE = 60;
+    public static final int SECONDS_PER_HOUR = 3600;
+
+    private final int stopCount;
+
+    /**
+     * czasy przyjazdu i odjazdu względem początku kursu: profil p to elementy od p * stopCount do (p + 1) * stopCount - 1
+     */
+    private final int[] arrivalOffsets;
+    private final int[] departureOffsets;
+
+    /**
+     * serie kursów: początek pierwszego i ostatniego kursu, odstęp między kursami (0 dla pojedynczego kursu) i numer profilu
+     */
+    private final int[] firstStarts;
+    private final int[] lastStarts;
+    private final int[] headways;
+    private final int[] runProfiles;
+
+    /**
+     * tworzy rozkład z gotowych tablic (np. odczytanych z pliku), sprawdzając je - tablice nie są kopiowane i nie wolno ich potem zmieniać
+     *
+     * @throws IllegalArgumentException gdy tablice nie opisują poprawnego rozkładu
+     */
+    Timetable(int stopCount, int[] arrivalOffsets, int[] departureOffsets, int[] firstStarts, int[] lastStarts, int[] headways, int[] runProfiles) {
+        this.stopCount = stopCount;
+        this.arrivalOffsets = arrivalOffsets;
+        this.departureOffsets = departureOffsets;
+        this.firstStarts = firstStarts;
+        this.lastStarts = lastStarts;
+        this.headways = headways;
+        this.runProfiles = runProfiles;
+        if (stopCount < 2) throw new IllegalArgumentException("Rozkład wymaga co najmniej dwóch przystanków");
+        if (arrivalOffsets.length != departureOffsets.length || arrivalOffsets.length % stopCount != 0)
+            throw new IllegalArgumentException("Profile rozkładu nie pasują do liczby przystanków");
+        for (int profile = 0; profile < getProfileCount(); ++profile) {
+            checkProfile(arrivalOffsets, departureOffsets, profile * stopCount, stopCount);
+        }
+        int runCount = firstStarts.length;
+        if (lastStarts.length != runCount || headways.length != runCount || runProfiles.length != runCount)
+            throw new IllegalArgumentException("Niepełny opis serii kursów");
+        for (int run = 0; run < runCount; ++run) {
+            if (firstStarts[run] < 0 || lastStarts[run] < firstStarts[run] || headways[run] < 0 || (headways[run] == 0 && lastStarts[run] != firstStarts[run])
+                    || runProfiles[run] < 0 || runProfiles[run] >= getProfileCount())
+                throw new IllegalArgumentException("Nieprawidłowa seria kursów");
+            if ((long) lastStarts[run] + arrivalOffsets[(runProfiles[run] + 1) * stopCount - 1] > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Kurs kończy się za późno");
+        }
+    }
+
+    /**
+     * sprawdza, czy czasy profilu nie maleją wzdłuż trasy i czy na każdym przystanku odjazd nie jest przed przyjazdem
+     */
+    private static void checkProfile(int[] arrivals, int[] departures, int start, int length) {
+        int previous = 0;
+        for (int i = start; i < start + length; ++i) {
+            if (arrivals[i] < previous || departures[i] < arrivals[i]) throw new IllegalArgumentException("Czasy profilu kursu maleją wzdłuż trasy");
+            previous = departures[i];
+        }
+    }
+
+    /**
+     * @return liczba przystanków trasy, której dotyczy rozkład
+     */
+    public int getStopCount() {
+        return stopCount;
+    }
+
+    public int getProfileCount() {
+        return arrivalOffsets.length / stopCount;
+    }
+
+    public int getRunCount() {
+        return firstStarts.length;
+    }
+
+    /**
+     * @return liczba wszystkich kursów we wszystkich seriach
+     */
+    public int getTripCount() {
+        int trips = 0;
+        for (int run = 0; run < firstStarts.length; ++run) {
+            trips += getTripCount(run);
+        }
+        return trips;
+    }
+
+    /**
+     * @param run numer serii
+     * @return liczba kursów serii
+     */
+    int getTripCount(int run) {
+        return headways[run] == 0 ? 1 : (lastStarts[run] - firstStarts[run]) / headways[run] + 1;
+    }
+
+    int getFirstStart(int run) {
+        return firstStarts[run];
+    }
+
+    int getLastStart(int run) {
+        return lastStarts[run];
+    }
+
+    int getHeadway(int run) {
+        return headways[run];
+    }
+
+    int getRunProfile(int run) {
+        return runProfiles[run];
+    }
+
+    /**
+     * @param profile numer profilu
+     * @param stop    pozycja przystanku na trasie
+     * @return czas przyjazdu na przystanek względem początku kursu
+     */
+    int getArrivalOffset(int profile, int stop) {
+        return arrivalOffsets[profile * stopCount + stop];
+    }
+
+    /**
+     * @param profile numer profilu
+     * @param stop    pozycja przystanku na trasie
+     * @return czas odjazdu z przystanku względem początku kursu
+     */
+    int getDepartureOffset(int profile, int stop) {
+        return departureOffsets[profile * stopCount + stop];
+    }
+
+    /**
+     * tablice rozkładu do zapisania (nie wolno ich zmieniać)
+     */
+    int[] getArrivalOffsets() {
+        return arrivalOffsets;
+    }
+
+    int[] getDepartureOffsets() {
+        return departureOffsets;
+    }
+
+    int[] getFirstStarts() {
+        return firstStarts;
+    }
+
+    int[] getLastStarts() {
+        return lastStarts;
+    }
+
+    int[] getHeadways() {
+        return headways;
+    }
+
+    int[] getRunProfiles() {
+        return runProfiles;
+    }
+
+    /**
+     * @param time czas w formacie GG:MM lub GG:MM:SS (godziny mogą przekraczać 24)
+     * @return liczba sekund od północy
+     * @throws NumberFormatException gdy czas ma zły format
+     */
+    public static int parseTime(String time) {
+        String[] parts = time.trim().split(":");
+        if (parts.length < 2 || parts.length > 3) throw new NumberFormatException("Nieprawidłowy czas: " + time);
+        int hours = Integer.parseInt(parts[0].trim());
+        int minutes = Integer.parseInt(parts[1].trim());
+        int seconds = parts.length == 3 ? Integer.parseInt(parts[2].trim()) : 0;
+        if (hours < 0 || hours > 999 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) throw new NumberFormatException("Nieprawidłowy czas: " + time);
+        return hours * SECONDS_PER_HOUR + minutes * SECONDS_PER_MINUTE + seconds;
+    }
+
+    /**
+     * @param time liczba sekund od północy
+     * @return czas w formacie GG:MM (albo GG:MM:SS, jeśli nie jest to pełna minuta)
+     */
+    public static String formatTime(int time) {
+        int hours = time / SECONDS_PER_HOUR;
+        int minutes = time / SECONDS_PER_MINUTE % 60;
+        int seconds = time % SECONDS_PER_MINUTE;
+        if (seconds == 0) return String.format("%02d:%02d", hours, minutes);
+        return String.format("%02d:%02d:%02d", hours, minutes, seconds);
+    }
+
+    /**
+     * Zbiera profile i kursy rozkładu jednej trasy. Takie same profile są zapamiętywane raz.
+     */
+    public static final class Builder {
+
+        private final int stopCount;
+        private final HashMap<Profile, Integer> profileIndices = new HashMap<>();
+        private final ArrayList<Profile> profiles = new ArrayList<>();
+        private final ArrayList<int[]> runs = new ArrayList<>();
+
+        /**
+         * @param stopCount liczba przystanków trasy linii
+         */
+        public Builder(int stopCount) {
+            if (stopCount < 2) throw new IllegalArgumentException("Rozkład wymaga co najmniej dwóch przystanków");
+            this.stopCount = stopCount;
+        }
+
+        /**
+         * @param arrivalOffsets   czasy przyjazdu na kolejne przystanki względem początku kursu
+         * @param departureOffsets czasy odjazdu z kolejnych przystanków względem początku kursu
+         * @return numer profilu (ten sam dla takich samych czasów)
+         * @throws IllegalArgumentException gdy liczba czasów nie pasuje do trasy albo czasy maleją wzdłuż trasy
+         */
+        public int addProfile(int[] arrivalOffsets, int[] departureOffsets) {
+            if (arrivalOffsets.length != stopCount || departureOffsets.length != stopCount)
+                throw new IllegalArgumentException("Profil kursu nie pasuje do liczby przystanków");
+            checkProfile(arrivalOffsets, departureOffsets, 0, stopCount);
+            Profile profile = new Profile(arrivalOffsets.clone(), departureOffsets.clone());
+            Integer index = profileIndices.get(profile);
+            if (index == null) {
+                index = profiles.size();
+                profileIndices.put(profile, index);
+                profiles.add(profile);
+            }
+            return index;
+        }
+
+        /**
+         * dodaje pojedynczy kurs
+         *
+         * @param start   początek kursu w sekundach od północy
+         * @param profile numer profilu z addProfile()
+         */
+        public void addTrip(int start, int profile) {
+            addRun(start, start, 0, profile);
+        }
+
+        /**
+         * dodaje kursy co stały odstęp, zaczynające się od start i przed end (jak w frequencies.txt rozkładu GTFS)
+         *
+         * @param start   początek pierwszego kursu w sekundach od północy
+         * @param end     czas, przed którym zaczyna się ostatni kurs
+         * @param headway odstęp między kursami w sekundach (dodatni)
+         * @param profile numer profilu z addProfile()
+         */
+        public void addFrequency(int start, int end, int headway, int profile) {
+            if (headway <= 0) throw new IllegalArgumentException("Odstęp między kursami musi być dodatni");
+            if (end <= start) return;
+            addRun(start, start + (end - 1 - start) / headway * headway, headway, profile);
+        }
+
+        private void addRun(int firstStart, int lastStart, int headway, int profile) {
+            if (firstStart < 0) throw new IllegalArgumentException("Kurs zaczyna się przed północą");
+            if (profile < 0 || profile >= profiles.size()) throw new IllegalArgumentException("Nieznany profil kursu: " + profile);
+            runs.add(new int[]{firstStart, firstStart == lastStart ? firstStart : lastStart, firstStart == lastStart ? 0 : headway, profile});
+        }
+
+        /**
+         * @return rozkład z zebranymi kursami, z seriami uporządkowanymi według początku pierwszego kursu (lub null, jeśli nie ma kursów)
+         */
+        public Timetable build() {
+            if (runs.isEmpty()) return null;
+            int[] arrivals = new int[profiles.size() * stopCount];
+            int[] departures = new int[arrivals.length];
+            for (int i = 0; i < profiles.size(); ++i) {
+                System.arraycopy(profiles.get(i).arrivals, 0, arrivals, i * stopCount, stopCount);
+                System.arraycopy(profiles.get(i).departures, 0, departures, i * stopCount, stopCount);
+            }
+            int[][] sortedRuns = runs.toArray(new int[0][]);
+            Arrays.sort(sortedRuns, (a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[3], b[3]));
+            int[] firstStarts = new int[sortedRuns.length];
+            int[] lastStarts = new int[sortedRuns.length];
+            int[] headways = new int[sortedRuns.length];
+            int[] runProfiles = new int[sortedRuns.length];
+            for (int i = 0; i < sortedRuns.length; ++i) {
+                firstStarts[i] = sortedRuns[i][0];
+                lastStarts[i] = sortedRuns[i][1];
+                headways[i] = sortedRuns[i][2];
+                runProfiles[i] = sortedRuns[i][3];
+            }
+            return new Timetable(stopCount, arrivals, departures, firstStarts, lastStarts, headways, runProfiles);
+        }
+    }
+
+    /**
+     * Czasy jednego profilu, porównywane według wartości.
+     */
+    private static final class Profile {
+
+        private final int[] arrivals;
+        private final int[] departures;
+        private final int hash;
+
+        Profile(int[] arrivals, int[] departures) {
+            this.arrivals = arrivals;
+            this.departures = departures;
+            this.hash = 31 * Arrays.hashCode(arrivals) + Arrays.hashCode(departures);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Profile)) return false;
+            Profile other = (Profile) o;
+            return Arrays.equals(arrivals, other.arrivals) && Arrays.equals(departures, other.departures);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.util.Arrays;
+
+/**
+ * Niezmienny obraz rozkładów jazdy wszystkich linii do wyszukiwania tras w czasie: każdy przejazd kursu między dwoma kolejnymi przystankami
+ * jest elementem płaskich tablic, posortowanych według czasu odjazdu. Wyszukiwanie czyta te tablice po kolei od danej godziny
+ * (Connection Scan), więc nie potrzebuje kolejki priorytetowej ani obiektów.
+ * Obraz buduje się z kopii grafu (GraphSnapshot), więc można go budować i czytać w dowolnym wątku.
+ */
+final class TimetableCore {
+
+    /**
+     * kopia grafu, z której zbudowano obraz - numery przystanków i linii są te same co w kopii
+     */
+    private final GraphSnapshot snapshot;
+
+    /**
+     * przejazdy między kolejnymi przystankami, według czasu odjazdu: przystanek i czas odjazdu, przystanek i czas przyjazdu,
+     * numer kursu i pozycja przystanku odjazdu na trasie linii
+     */
+    final int[] departureStations;
+    final int[] departureTimes;
+    final int[] arrivalStations;
+    final int[] arrivalTimes;
+    final int[] trips;
+    final int[] stopPositions;
+
+    /**
+     * linia każdego kursu
+     */
+    final int[] tripLines;
+
+    /**
+     * buduje obraz z kopii grafu (zwykle przez GraphSnapshot.getTimetableCore(), żeby obraz był wspólny dla wszystkich czytających kopię)
+     *
+     * @param snapshot kopia grafu
+     * @throws IllegalStateException gdy rozkłady mają więcej przejazdów, niż mieści się w tablicy
+     */
+    TimetableCore(GraphSnapshot snapshot) {
+        this.snapshot = snapshot;
+        Timetable[] timetables = snapshot.timetables;
+        int[] stopOffsets = snapshot.stopOffsets;
+        int[] stops = snapshot.stops;
+
+        long connectionCount = 0;
+        int tripCount = 0;
+        for (int line = 0; line < timetables.length; ++line) {
+            if (timetables[line] == null) continue;
+            int lineTrips = timetables[line].getTripCount();
+            tripCount += lineTrips;
+            connectionCount += (long) lineTrips * (stopOffsets[line + 1] - stopOffsets[line] - 1);
+        }
+        if (connectionCount > Integer.MAX_VALUE - 8) throw new IllegalStateException("Za dużo przejazdów w rozkładach: " + connectionCount);
+
+        //kursy po kolei; przejazdy kursu mają kolejne numery od tripConnections[trip], więc numer przejazdu wyznacza kurs i pozycję na trasie
+        tripLines = new int[tripCount];
+        int[] tripStarts = new int[tripCount];
+        int[] tripProfiles = new int[tripCount];
+        int[] tripConnections = new int[tripCount + 1];
+        int trip = 0;
+        for (int line = 0; line < timetables.length; ++line) {
+            Timetable timetable = timetables[line];
+            if (timetable == null) continue;
+            int lineConnections = stopOffsets[line + 1] - stopOffsets[line] - 1;
+            for (int run = 0; run < timetable.getRunCount(); ++run) {
+                for (int i = 0, start = timetable.getFirstStart(run); i < timetable.getTripCount(run); ++i, start += timetable.getHeadway(run)) {
+                    tripLines[trip] = line;
+                    tripStarts[trip] = start;
+                    tripProfiles[trip] = timetable.getRunProfile(run);
+                    tripConnections[trip + 1] = tripConnections[trip] + lineConnections;
+                    ++trip;
+                }
+            }
+        }
+
+        //czas odjazdu w starszych 32 bitach, numer przejazdu w młodszych - przejazdy jednego kursu o tym samym czasie zostają po kolei
+        int count = (int) connectionCount;
+        long[] order = new long[count];
+        int[] connectionTrips = new int[count];
+        int[] connectionArrivals = new int[count];
+        int[] connectionDepartures = new int[count];
+        for (trip = 0; trip < tripCount; ++trip) {
+            Timetable timetable = timetables[tripLines[trip]];
+            for (int connection = tripConnections[trip]; connection < tripConnections[trip + 1]; ++connection) {
+                int position = connection - tripConnections[trip];
+                int departure = tripStarts[trip] + timetable.getDepartureOffset(tripProfiles[trip], position);
+                order[connection] = ((long) departure << 32) | connection;
+                connectionTrips[connection] = trip;
+                connectionDepartures[connection] = departure;
+                connectionArrivals[connection] = tripStarts[trip] + timetable.getArrivalOffset(tripProfiles[trip], position + 1);
+            }
+        }
+        Arrays.sort(order);
+        //przejazdy odjeżdżające w tej samej chwili są ułożone według czasu przyjazdu - przejazd trwający zero sekund (np. w rozkładach
+        //co do minuty) trafia przed przejazdy odjeżdżające w tej chwili z jego przystanku przyjazdu, więc oba przeszukiwania mogą się przesiąść
+        for (int start = 0; start < count; ) {
+            int end = start + 1;
+            while (end < count && order[end] >>> 32 == order[start] >>> 32) {
+                ++end;
+            }
+            if (end - start > 1) {
+                for (int i = start; i < end; ++i) {
+                    int connection = (int) order[i];
+                    order[i] = ((long) connectionArrivals[connection] << 32) | connection;
+                }
+                Arrays.sort(order, start, end);
+            }
+            start = end;
+        }
+
+        departureStations = new int[count];
+        departureTimes = new int[count];
+        arrivalStations = new int[count];
+        arrivalTimes = new int[count];
+        trips = new int[count];
+        stopPositions = new int[count];
+        for (int i = 0; i < count; ++i) {
+            int connection = (int) order[i];
+            trip = connectionTrips[connection];
+            int line = tripLines[trip];
+            int position = connection - tripConnections[trip];
+            departureStations[i] = stops[stopOffsets[line] + position];
+            departureTimes[i] = connectionDepartures[connection];
+            arrivalStations[i] = stops[stopOffsets[line] + position + 1];
+            arrivalTimes[i] = connectionArrivals[connection];
+            trips[i] = trip;
+            stopPositions[i] = position;
+        }
+    }
+
+    /**
+     * @param graph graf
+     * @return czy obraz pokazuje obecne linie i rozkłady danego grafu
+     */
+    boolean isUpToDate(Graph graph) {
+        return snapshot.isStructureUpToDate(graph);
+    }
+
+    int getConnectionCount() {
+        return departureTimes.length;
+    }
+
+    int getTripCount() {
+        return tripLines.length;
+    }
+
+    int getStationCount() {
+        return snapshot.getStationCount();
+    }
+
+    /**
+     * @param time czas w sekundach od północy
+     * @return numer pierwszego przejazdu odjeżdżającego o tym czasie lub później (liczba przejazdów, jeśli takiego nie ma)
+     */
+    int firstDepartureFrom(int time) {
+        int low = 0;
+        int high = departureTimes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departureTimes[middle] < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param station przystanek
+     * @return numer przystanku (lub -1, jeśli przystanku nie było w grafie)
+     */
+    int indexOf(Vertex station) {
+        return snapshot.indexOf(station);
+    }
+
+    Vertex getStation(int index) {
+        return snapshot.getStation(index);
+    }
+
+    TransportLine getTransportLine(int index) {
+        return snapshot.getTransportLine(index);
+    }
+}
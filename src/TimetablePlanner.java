@@ -0,0 +1,342 @@
+/*
+Autor: Filip Przygoński
+*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Wyszukiwarka tras według rozkładów jazdy linii (Connection Scan).
+ * Korzysta z obrazu rozkładów (TimetableCore) z opublikowanej kopii grafu, w którym wszystkie przejazdy kursów między kolejnymi przystankami
+ * są posortowane według czasu odjazdu. Najwcześniejszy przyjazd wyznacza jedno przejście po przejazdach od godziny odjazdu,
+ * kończone, gdy przejazdy odjeżdżają później, niż da się już dojechać do celu. Wszystkie trasy z przedziału godzin odjazdu
+ * wyznacza jedno przejście wstecz, w którym każdy przystanek pamięta, kiedy najwcześniej dojedzie się z niego do celu przy odjeździe o danej godzinie.
+ * Przesiadka na tym samym przystanku nie zajmuje czasu, a linie bez rozkładu są pomijane.
+ * Tablice robocze są tworzone raz i używane przez kolejne zapytania, więc wyszukiwarki nie można używać w kilku wątkach naraz.
+ */
+public class TimetablePlanner {
+
+    private static final int NEVER = Integer.MAX_VALUE;
+
+    private final Graph graph;
+    private final TimetableCore core;
+
+    /**
+     * najwcześniejszy przyjazd na przystanki i przejazdy, którymi do nich dojechano: wysiadania i wsiadania do tego kursu
+     */
+    private final int[] arrivals;
+    private final int[] exitConnections;
+    private final int[] entryConnections;
+
+    /**
+     * dla każdego kursu przejazd, w którym do niego wsiedziono (lub -1)
+     */
+    private final int[] tripEntries;
+
+    /**
+     * dla każdego kursu: najwcześniejszy przyjazd do celu, gdy zostanie się w kursie, i przejazd, po którym trzeba wysiąść
+     */
+    private final int[] tripArrivals;
+    private final int[] tripExits;
+
+    /**
+     * przystanki i kursy zmienione przez ostatnie zapytanie, do wyczyszczenia po nim
+     */
+    private final int[] touchedStations;
+    private int touchedStationCount;
+    private final int[] touchedTrips;
+    private int touchedTripCount;
+
+    /**
+     * Odjazdy z przystanków do celu: dla każdego przystanku lista, od najwcześniejszego odjazdu, w której każdy kolejny odjazd
+     * przyjeżdża do celu później - czas odjazdu, czas przyjazdu, przejazd wsiadania, przejazd wysiadania i następny element (lub -1).
+     */
+    private final int[] profileHeads;
+    private int[] entryDepartures = new int[64];
+    private int[] entryArrivals = new int[64];
+    private int[] entryEntries = new int[64];
+    private int[] entryExits = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount;
+
+    /**
+     * tworzy wyszukiwarkę dla obecnego stanu grafu - w wątku, w którym zmieniany jest graf
+     *
+     * @param graph graf
+     * @throws IllegalArgumentException gdy linia zatrzymuje się na przystanku spoza grafu
+     */
+    public TimetablePlanner(Graph graph) {
+        this.graph = graph;
+        core = publish(graph).getTimetableCore();
+        int stationCount = core.getStationCount();
+        int tripCount = core.getTripCount();
+        arrivals = new int[stationCount];
+        Arrays.fill(arrivals, NEVER);
+        exitConnections = new int[stationCount];
+        entryConnections = new int[stationCount];
+        touchedStations = new int[stationCount];
+        profileHeads = new int[stationCount];
+        Arrays.fill(profileHeads, -1);
+        tripEntries = new int[tripCount];
+        Arrays.fill(tripEntries, -1);
+        tripArrivals = new int[tripCount];
+        Arrays.fill(tripArrivals, NEVER);
+        tripExits = new int[tripCount];
+        touchedTrips = new int[tripCount];
+    }
+
+    private static GraphSnapshot publish(Graph graph) {
+        try {
+            return graph.publish();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return czy od zbudowania wyszukiwarki nie zmieniły się linie ani rozkłady grafu
+     */
+    public boolean isUpToDate() {
+        return core.isUpToDate(graph);
+    }
+
+    /**
+     * @return czy jakakolwiek linia ma rozkład jazdy
+     */
+    public boolean hasTimetables() {
+        return core.getConnectionCount() > 0;
+    }
+
+    /**
+     * Znajduje trasę, którą najwcześniej dojedzie się do celu, wyruszając nie wcześniej niż o danej godzinie.
+     *
+     * @param from          przystanek początkowy
+     * @param to            przystanek docelowy
+     * @param departureTime najwcześniejsza godzina odjazdu w sekundach od północy
+     * @return trasa z godzinami odjazdów i przyjazdów (lub null, jeśli tego dnia nie da się dojechać)
+     */
+    public Journey findEarliestArrival(Vertex from, Vertex to, int departureTime) {
+        int source = core.indexOf(from);
+        int target = core.indexOf(to);
+        if (source < 0 || target < 0) return null;
+        Journey journey = null;
+        if (scanEarliestArrival(source, target, departureTime) != NEVER) {
+            journey = earliestArrivalJourney(source, target);
+        }
+        clearEarliestArrival();
+        return journey;
+    }
+
+    /**
+     * Znajduje wszystkie trasy wyruszające w danym przedziale godzin, których nie da się zastąpić trasą wyruszającą później i przyjeżdżającą
+     * nie później - czyli dla każdej godziny odjazdu z przedziału najlepszą trasę, bez powtórzeń.
+     *
+     * @param from              przystanek początkowy
+     * @param to                przystanek docelowy
+     * @param earliestDeparture najwcześniejsza godzina odjazdu w sekundach od północy
+     * @param latestDeparture   najpóźniejsza godzina odjazdu w sekundach od północy
+     * @return trasy według godziny odjazdu (pusta lista, jeśli w tym przedziale nie da się dojechać)
+     */
+    public ArrayList<Journey> findJourneys(Vertex from, Vertex to, int earliestDeparture, int latestDeparture) {
+        ArrayList<Journey> journeys = new ArrayList<>();
+        int source = core.indexOf(from);
+        int target = core.indexOf(to);
+        if (source < 0 || target < 0 || earliestDeparture > latestDeparture || source == target) return journeys;
+        //trasy odjeżdżające do latestDeparture i przyjeżdżające po najwcześniejszym przyjeździe przy odjeździe o latestDeparture nie są potrzebne
+        int limit = scanEarliestArrival(source, target, latestDeparture);
+        clearEarliestArrival();
+        int end = limit == NEVER ? core.getConnectionCount() : core.firstDepartureFrom(limit + 1);
+        scanProfiles(target, core.firstDepartureFrom(earliestDeparture), end);
+        for (int entry = profileHeads[source]; entry >= 0 && entryDepartures[entry] <= latestDeparture; entry = entryNext[entry]) {
+            journeys.add(profileJourney(entry, target));
+        }
+        clearProfiles();
+        return journeys;
+    }
+
+    /**
+     * przegląda przejazdy od danej godziny, aż kolejne odjeżdżają później niż najwcześniejszy znany przyjazd do celu
+     *
+     * @return najwcześniejszy przyjazd do celu (lub NEVER)
+     */
+    private int scanEarliestArrival(int source, int target, int departureTime) {
+        int[] departureStations = core.departureStations;
+        int[] departureTimes = core.departureTimes;
+        int[] arrivalStations = core.arrivalStations;
+        int[] arrivalTimes = core.arrivalTimes;
+        int[] trips = core.trips;
+        reach(source, departureTime, -1, -1);
+        for (int connection = core.firstDepartureFrom(departureTime); connection < departureTimes.length; ++connection) {
+            int departure = departureTimes[connection];
+            if (departure >= arrivals[target]) break;
+            int trip = trips[connection];
+            int entry = tripEntries[trip];
+            if (entry < 0) {
+                if (arrivals[departureStations[connection]] > departure) continue;
+                entry = connection;
+                tripEntries[trip] = entry;
+                touchedTrips[touchedTripCount++] = trip;
+            }
+            int station = arrivalStations[connection];
+            if (arrivalTimes[connection] < arrivals[station]) {
+                reach(station, arrivalTimes[connection], entry, connection);
+            }
+        }
+        return arrivals[target];
+    }
+
+    private void reach(int station, int time, int entry, int exit) {
+        if (arrivals[station] == NEVER) {
+            touchedStations[touchedStationCount++] = station;
+        }
+        arrivals[station] = time;
+        entryConnections[station] = entry;
+        exitConnections[station] = exit;
+    }
+
+    /**
+     * odtwarza trasę najwcześniejszego przyjazdu, idąc od celu wstecz po przejazdach, którymi dojechano do przystanków
+     */
+    private Journey earliestArrivalJourney(int source, int target) {
+        ArrayList<Journey.Leg> legs = new ArrayList<>();
+        int station = target;
+        while (station != source && legs.size() < arrivals.length) {
+            int entry = entryConnections[station];
+            legs.add(leg(entry, exitConnections[station]));
+            station = core.departureStations[entry];
+        }
+        Collections.reverse(legs);
+        return new Journey(legs);
+    }
+
+    private void clearEarliestArrival() {
+        for (int i = 0; i < touchedStationCount; ++i) {
+            arrivals[touchedStations[i]] = NEVER;
+        }
+        for (int i = 0; i < touchedTripCount; ++i) {
+            tripEntries[touchedTrips[i]] = -1;
+        }
+        touchedStationCount = 0;
+        touchedTripCount = 0;
+    }
+
+    /**
+     * przegląda przejazdy od ostatniego do pierwszego z danego zakresu, wyznaczając dla przystanków odjazdy do celu
+     */
+    private void scanProfiles(int target, int first, int end) {
+        int[] departureStations = core.departureStations;
+        int[] departureTimes = core.departureTimes;
+        int[] arrivalStations = core.arrivalStations;
+        int[] arrivalTimes = core.arrivalTimes;
+        int[] trips = core.trips;
+        for (int connection = end - 1; connection >= first; --connection) {
+            int trip = trips[connection];
+            int arrivalStation = arrivalStations[connection];
+            int best = NEVER;
+            int exit = -1;
+            if (arrivalStation == target) { //wysiadka w celu
+                best = arrivalTimes[connection];
+                exit = connection;
+            }
+            if (tripArrivals[trip] < best) { //dalsza jazda tym kursem
+                best = tripArrivals[trip];
+                exit = tripExits[trip];
+            }
+            int transfer = profileEntryAt(arrivalStation, arrivalTimes[connection]);
+            if (transfer >= 0 && entryArrivals[transfer] < best) { //przesiadka
+                best = entryArrivals[transfer];
+                exit = connection;
+            }
+            if (best == NEVER) continue;
+            if (tripArrivals[trip] == NEVER) {
+                touchedTrips[touchedTripCount++] = trip;
+            }
+            tripArrivals[trip] = best;
+            tripExits[trip] = exit;
+            int station = departureStations[connection];
+            if (station != target) {
+                addProfileEntry(station, departureTimes[connection], best, connection, exit);
+            }
+        }
+    }
+
+    /**
+     * @return pierwszy odjazd z przystanku do celu o danej godzinie lub później (lub -1) - spośród takich przyjeżdża najwcześniej
+     */
+    private int profileEntryAt(int station, int time) {
+        int entry = profileHeads[station];
+        while (entry >= 0 && entryDepartures[entry] < time) {
+            entry = entryNext[entry];
+        }
+        return entry;
+    }
+
+    /**
+     * dopisuje odjazd na początek listy przystanku, jeśli przyjeżdża do celu wcześniej niż wszystkie późniejsze odjazdy
+     */
+    private void addProfileEntry(int station, int departure, int arrival, int entryConnection, int exitConnection) {
+        int head = profileHeads[station];
+        if (head >= 0 && entryArrivals[head] <= arrival) return;
+        if (head >= 0 && entryDepartures[head] == departure) {
+            entryArrivals[head] = arrival;
+            entryEntries[head] = entryConnection;
+            entryExits[head] = exitConnection;
+            return;
+        }
+        if (head < 0) {
+            touchedStations[touchedStationCount++] = station;
+        }
+        if (entryCount == entryDepartures.length) {
+            int capacity = entryCount + (entryCount >> 1);
+            entryDepartures = Arrays.copyOf(entryDepartures, capacity);
+            entryArrivals = Arrays.copyOf(entryArrivals, capacity);
+            entryEntries = Arrays.copyOf(entryEntries, capacity);
+            entryExits = Arrays.copyOf(entryExits, capacity);
+            entryNext = Arrays.copyOf(entryNext, capacity);
+        }
+        entryDepartures[entryCount] = departure;
+        entryArrivals[entryCount] = arrival;
+        entryEntries[entryCount] = entryConnection;
+        entryExits[entryCount] = exitConnection;
+        entryNext[entryCount] = head;
+        profileHeads[station] = entryCount++;
+    }
+
+    /**
+     * odtwarza trasę zaczynającą się danym odjazdem, przesiadając się na przystankach na pierwszy odjazd do celu po przyjeździe
+     */
+    private Journey profileJourney(int entry, int target) {
+        ArrayList<Journey.Leg> legs = new ArrayList<>();
+        while (entry >= 0 && legs.size() < arrivals.length) {
+            int exit = entryExits[entry];
+            legs.add(leg(entryEntries[entry], exit));
+            int station = core.arrivalStations[exit];
+            if (station == target) break;
+            entry = profileEntryAt(station, core.arrivalTimes[exit]);
+        }
+        return new Journey(legs);
+    }
+
+    private void clearProfiles() {
+        for (int i = 0; i < touchedStationCount; ++i) {
+            profileHeads[touchedStations[i]] = -1;
+        }
+        for (int i = 0; i < touchedTripCount; ++i) {
+            tripArrivals[touchedTrips[i]] = NEVER;
+        }
+        touchedStationCount = 0;
+        touchedTripCount = 0;
+        entryCount = 0;
+    }
+
+    /**
+     * @return odcinek trasy przejechany jednym kursem, od przejazdu wsiadania do przejazdu wysiadania
+     */
+    private Journey.Leg leg(int entry, int exit) {
+        TransportLine transportLine = core.getTransportLine(core.tripLines[core.trips[entry]]);
+        return new Journey.Leg(transportLine, core.getStation(core.departureStations[entry]), core.getStation(core.arrivalStations[exit]),
+                core.stopPositions[exit] - core.stopPositions[entry] + 1, core.departureTimes[entry], core.arrivalTimes[exit]);
+    }
+}
@@ -10,6 +10,8 @@ import java.util.ArrayList;
  */
 public class TransportLine implements Serializable {
 
+    private static final long serialVersionUID = 4702950930693030411L;
+
     public static final byte BUS = 1;
     public static final byte TRAM = 2;
 
@@ -21,6 +23,24 @@ public class TransportLine implements Serializable {
     private byte transportType;
     private ArrayList<Vertex> stations;
 
+    /**
+     * rozkład jazdy linii (lub null, jeśli linia go nie ma) - pliki zapisane przed dodaniem rozkładów wczytują się z null
+     */
+    private Timetable timetable;
+
+    /**
+     * identyfikator nadawany przez graf, do którego linia została dodana (-1 jeśli nie należy do grafu)
+     */
+    private transient int id = -1;
+
+    /**
+     * klucz sortowania wyliczany z numeru linii przy pierwszym porównaniu: liczba z cyfr na początku numeru (-1, jeśli numer nie zaczyna się cyfrą)
+     * i reszta numeru po tych cyfrach, np. "0L" to 0 i "L", "145" to 145 i "", "N" to -1 i "N"
+     */
+    private transient boolean sortKeyReady;
+    private transient long lineNumberValue;
+    private transient String lineNumberSuffix;
+
     public TransportLine(String lineNumber, byte transportType) {
         this.lineNumber = lineNumber;
         this.destination = "";
@@ -28,6 +48,16 @@ public class TransportLine implements Serializable {
         this.stations = new ArrayList<>();
     }
 
+    /**
+     * tworzy linię od razu z całą trasą (np. wczytaną z pliku)
+     */
+    TransportLine(String lineNumber, String destination, byte transportType, ArrayList<Vertex> stations) {
+        this.lineNumber = lineNumber;
+        this.destination = destination;
+        this.transportType = transportType;
+        this.stations = stations;
+    }
+
     /**
      * Dodaje na sam koniec linii następny przystanek
      * @param station przystanek do dodania
@@ -49,25 +79,6 @@ public class TransportLine implements Serializable {
         return false;
     }
 
-    /**
-     * Sprawdza, czy linia jedzie danym połączeniem
-     * @param connection połączenie
-     * @return czy linia jedzie danym połączeniem
-     */
-    public boolean containsConnection(Edge connection) {
-        Vertex firstVertex = connection.getFirstVertex();
-        Vertex secondVertex = connection.getSecondVertex();
-        int size = stations.size();
-        for (int i = 0; i < size - 1; ++i) {
-            Vertex station1 = stations.get(i);
-            Vertex station2 = stations.get(i + 1);
-            boolean isConnectionInLine = (firstVertex == station1 && secondVertex == station2) || (firstVertex == station2 && secondVertex == station1);
-            if (isConnectionInLine)
-                return true;
-        }
-        return false;
-    }
-
     /**
      * Zwraca listę wszystkich stacji po przecinku
      * @return lista wszystkich stacji po przecinku
@@ -99,12 +110,49 @@ public class TransportLine implements Serializable {
 
     public void setLineNumber(String lineNumber) {
         this.lineNumber = lineNumber;
+        sortKeyReady = false;
+    }
+
+    /**
+     * @return liczba z cyfr na początku numeru linii (lub -1, jeśli numer nie zaczyna się cyfrą)
+     */
+    long getLineNumberValue() {
+        computeSortKey();
+        return lineNumberValue;
+    }
+
+    /**
+     * @return część numeru linii po cyfrach z początku
+     */
+    String getLineNumberSuffix() {
+        computeSortKey();
+        return lineNumberSuffix;
+    }
+
+    private void computeSortKey() {
+        if (sortKeyReady) return;
+        int digits = 0;
+        while (digits < lineNumber.length() && digits < 18 && Character.isDigit(lineNumber.charAt(digits))) { //18 cyfr zawsze mieści się w long
+            ++digits;
+        }
+        if (digits == 0) {
+            lineNumberValue = -1;
+            lineNumberSuffix = lineNumber;
+        } else {
+            lineNumberValue = Long.parseLong(lineNumber.substring(0, digits));
+            lineNumberSuffix = lineNumber.substring(digits);
+        }
+        sortKeyReady = true;
     }
 
     public String getDestination() {
         return destination;
     }
 
+    void setDestination(String destination) {
+        this.destination = destination;
+    }
+
     public byte getTransportType() {
         return transportType;
     }
@@ -120,4 +168,28 @@ public class TransportLine implements Serializable {
     public void setStations(ArrayList<Vertex> stations) {
         this.stations = stations;
     }
+
+    public Timetable getTimetable() {
+        return timetable;
+    }
+
+    /**
+     * ustawia rozkład jazdy - jak trasy, rozkładu linii należącej do grafu nie można zmieniać bez usunięcia jej z grafu
+     *
+     * @param timetable rozkład jazdy dla obecnej trasy linii (lub null)
+     * @throws IllegalArgumentException gdy rozkład ma inną liczbę przystanków niż trasa
+     */
+    public void setTimetable(Timetable timetable) {
+        if (timetable != null && timetable.getStopCount() != stations.size())
+            throw new IllegalArgumentException("Rozkład linii " + lineNumber + " ma inną liczbę przystanków niż trasa");
+        this.timetable = timetable;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
 }
@@ -3,45 +3,119 @@ Autor: Filip Przygoński
 */
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Klasa reprezntująca wierzchołek grafu, a zarazem przystanek.
  */
 public class Vertex implements IMoving, Serializable {
 
+    private static final long serialVersionUID = -1592156593646237550L;
+
+    /**
+     * wspólne obiekty kolorów według wartości ARGB - przystanki mają zwykle kilka kolorów, więc przystanki tego samego koloru dzielą obiekt
+     */
+    private static final ConcurrentHashMap<Integer, Color> PALETTE = new ConcurrentHashMap<>();
+
     private int x;
     private int y;
     private int r;
     private String name;
     private Color color;
 
+    /**
+     * obiekt powiadamiany o każdej zmianie przystanku (graf, do którego należy przystanek)
+     */
+    private transient IVertexListener listener;
+
     public Vertex(int x, int y) {
         this.x = x;
         this.y = y;
         this.r = 5;
         this.name = "";
-        this.color = Color.WHITE;
+        this.color = paletteColor(Color.WHITE.getRGB());
     }
 
     public Vertex(int x, int y, String name, Color color) {
         this.x = x;
         this.y = y;
         this.r = 10;
-        this.name = name;
-        this.color = color;
+        this.name = intern(name);
+        this.color = shared(color);
+    }
+
+    /**
+     * tworzy przystanek o danym promieniu (np. wczytany z pliku)
+     */
+    Vertex(int x, int y, int r, String name, Color color) {
+        this.x = x;
+        this.y = y;
+        this.r = r;
+        this.name = intern(name);
+        this.color = shared(color);
     }
 
     /**
-     * Rysuje wierzchołek.
+     * @param argb kolor jako wartość ARGB
+     * @return wspólny obiekt danego koloru
+     */
+    static Color paletteColor(int argb) {
+        return PALETTE.computeIfAbsent(argb, key -> new Color(key, true));
+    }
+
+    private static Color shared(Color color) {
+        return color == null ? null : paletteColor(color.getRGB());
+    }
+
+    /**
+     * nazwy przystanków powtarzają się (np. stanowiska jednego przystanku, te same przystanki w kilku sieciach), więc są przechowywane raz
+     */
+    private static String intern(String name) {
+        return name == null ? null : name.intern();
+    }
+
+    /**
+     * wczytuje przystanek zapisany przez serializację Javy, zastępując jego kolor i nazwę wspólnymi obiektami
+     */
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        name = intern(name);
+        color = shared(color);
+    }
+
+    /**
+     * Rysuje wierzchołek. Promień wierzchołka jest w pikselach ekranu, niezależnie od przybliżenia.
+     * @param g obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param viewport widok, w którym rysowany jest graf
+     */
+    public void draw(Graphics g, Viewport viewport) {
+        draw(g, viewport, r, true);
+    }
+
+    /**
+     * Rysuje wierzchołek w danym rozmiarze, z nazwą lub bez (przy dużym oddaleniu).
      * @param g obiekt klasy Graphics odpowiedzialny za rysowanie
+     * @param viewport widok, w którym rysowany jest graf
+     * @param drawnR promień rysowanego wierzchołka w pikselach
+     * @param withName czy rysować nazwę przystanku
      */
-    public void draw(Graphics g) {
+    public void draw(Graphics g, Viewport viewport, int drawnR, boolean withName) {
+        int screenX = viewport.toScreenX(x);
+        int screenY = viewport.toScreenY(y);
         g.setColor(color);
-        g.fillOval(x - r, y - r, 2 * r, 2 * r);
+        if (drawnR <= 1) {
+            g.fillRect(screenX - 1, screenY - 1, 2, 2); //z daleka przystanek to kropka, bez obwódki
+            return;
+        }
+        g.fillOval(screenX - drawnR, screenY - drawnR, 2 * drawnR, 2 * drawnR);
         g.setColor(Color.BLACK);
-        g.drawString(name, x, y - r);
-        g.drawOval(x - r, y - r, 2 * r, 2 * r);
+        if (withName) {
+            g.drawString(name, screenX, screenY - drawnR);
+        }
+        g.drawOval(screenX - drawnR, screenY - drawnR, 2 * drawnR, 2 * drawnR);
     }
 
     /**
@@ -54,16 +128,20 @@ public class Vertex implements IMoving, Serializable {
     public void move(int dx, int dy) {
         x += dx;
         y -= dy;
+        if (listener != null) listener.vertexMoved(this);
     }
 
     /**
-     * Sprawdza, czy dane współrzędne punktu leżą w wierzchołku
-     * @param px współrzędna x punktu
-     * @param py współrzędna y punktu
+     * Sprawdza, czy dane współrzędne punktu na ekranie leżą w wierzchołku
+     * @param px współrzędna x punktu na ekranie
+     * @param py współrzędna y punktu na ekranie
+     * @param viewport widok, w którym rysowany jest graf
      * @return czy punkt należy do wierzchołka
      */
-    public boolean isPointInVertex(int px, int py) {
-        return (px - x) * (px - x) + (py - y) * (py - y) <= r * r;
+    public boolean isPointInVertex(int px, int py, Viewport viewport) {
+        int dx = px - viewport.toScreenX(x);
+        int dy = py - viewport.toScreenY(y);
+        return dx * dx + dy * dy <= r * r;
     }
 
     @Override
@@ -77,6 +155,7 @@ public class Vertex implements IMoving, Serializable {
 
     public void setX(int x) {
         this.x = x;
+        if (listener != null) listener.vertexMoved(this);
     }
 
     public int getY() {
@@ -85,6 +164,7 @@ public class Vertex implements IMoving, Serializable {
 
     public void setY(int y) {
         this.y = y;
+        if (listener != null) listener.vertexMoved(this);
     }
 
     public int getR() {
@@ -93,6 +173,7 @@ public class Vertex implements IMoving, Serializable {
 
     public void setR(int r) {
         this.r = r;
+        if (listener != null) listener.vertexResized(this);
     }
 
     public String getName() {
@@ -100,7 +181,9 @@ public class Vertex implements IMoving, Serializable {
     }
 
     public void setName(String name) {
-        this.name = name;
+        String oldName = this.name;
+        this.name = intern(name);
+        if (listener != null) listener.vertexRenamed(this, oldName);
     }
 
     public Color getColor() {
@@ -108,6 +191,11 @@ public class Vertex implements IMoving, Serializable {
     }
 
     public void setColor(Color color) {
-        this.color = color;
+        this.color = shared(color);
+        if (listener != null) listener.vertexRecolored(this);
+    }
+
+    void setListener(IVertexListener listener) {
+        this.listener = listener;
     }
 }
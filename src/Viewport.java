@@ -0,0 +1,101 @@
+/*
+Autor: Filip Przygoński
+*/
+
+/**
+ * Klasa opisująca, jaki fragment mapy jest widoczny w oknie: przesunięcie i skalę.
+ * Współrzędne przystanków są współrzędnymi mapy, przeliczanymi na współrzędne ekranu dopiero przy rysowaniu,
+ * więc przesuwanie i przybliżanie widoku nie zmienia samego grafu.
+ */
+public class Viewport implements IMoving {
+
+    private static final double MIN_SCALE = 0.01;
+    private static final double MAX_SCALE = 100;
+
+    /**
+     * położenie początku układu współrzędnych mapy na ekranie
+     */
+    private double offsetX;
+    private double offsetY;
+
+    /**
+     * ile pikseli ekranu przypada na jednostkę mapy
+     */
+    private double scale;
+
+    /**
+     * licznik zmian widoku, pozwala wykryć nieaktualny obraz narysowany w poprzednim widoku
+     */
+    private int version;
+
+    public Viewport() {
+        this.offsetX = 0;
+        this.offsetY = 0;
+        this.scale = 1;
+    }
+
+    /**
+     * Przesuwa widok (cały graf na ekranie).
+     *
+     * @param dx o ile pikseli w prawo
+     * @param dy o ile pikseli w górę
+     */
+    @Override
+    public void move(int dx, int dy) {
+        offsetX += dx;
+        offsetY -= dy;
+        ++version;
+    }
+
+    /**
+     * Przybliża lub oddala widok tak, żeby punkt pod kursorem pozostał w miejscu.
+     *
+     * @param factor  ile razy zwiększyć skalę
+     * @param screenX współrzędna x kursora na ekranie
+     * @param screenY współrzędna y kursora na ekranie
+     */
+    public void zoom(double factor, int screenX, int screenY) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        double worldX = toWorldX(screenX);
+        double worldY = toWorldY(screenY);
+        scale = newScale;
+        offsetX = screenX - worldX * scale;
+        offsetY = screenY - worldY * scale;
+        ++version;
+    }
+
+    public int toScreenX(int worldX) {
+        return (int) Math.round(worldX * scale + offsetX);
+    }
+
+    public int toScreenY(int worldY) {
+        return (int) Math.round(worldY * scale + offsetY);
+    }
+
+    public double toWorldX(int screenX) {
+        return (screenX - offsetX) / scale;
+    }
+
+    public double toWorldY(int screenY) {
+        return (screenY - offsetY) / scale;
+    }
+
+    /**
+     * @param screenDistance odległość na ekranie w pikselach
+     * @return ta sama odległość w jednostkach mapy
+     */
+    public double toWorldDistance(double screenDistance) {
+        return screenDistance / scale;
+    }
+
+    /**
+     * @return licznik zmian widoku
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+}